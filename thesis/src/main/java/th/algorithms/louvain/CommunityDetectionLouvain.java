@@ -1,19 +1,16 @@
 package th.algorithms.louvain;
 
-import th.algorithms.louvain.utils.HyperCommunityManager;
-import th.algorithms.louvain.utils.HyperCommunity;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ListMultimap;
+import th.algorithms.louvain.utils.Dendrogram;
+import th.algorithms.louvain.utils.LocalMoving;
+import th.algorithms.louvain.utils.ParallelLocalMoving;
+import th.algorithms.louvain.utils.Refinement;
+import th.algorithms.louvain.utils.WeightedGraph;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Random;
-import java.util.Set;
 import org.graphstream.algorithm.measure.Modularity;
 import org.graphstream.algorithm.measure.NormalizedMutualInformation;
 import org.graphstream.graph.Edge;
@@ -33,37 +30,42 @@ import org.graphstream.ui.spriteManager.SpriteManager;
  */
 public class CommunityDetectionLouvain {
 
-    private Graph graph, // Graph used for the calculations
-            finalGraph;  // The final graph printed
-    private HyperCommunityManager manager;
-    private List<Map<String, HyperCommunity>> communitiesPerPhase; // Every item contains
-    // a map between community id and community object
-    
+    private Graph graph; // The original graph, printed at the end
+    private Dendrogram dendrogram; // Every level maps each node of a phase to
+    // its community, which is a node of the next phase
+
     private Modularity modularity;
-    private double maxModularity,
-            newModularity,
-            initialModularity,
-            deltaQ,
-            globalMaxQ,
+    private double globalMaxQ,
             globalNewQ;
-    private String oldCommunity,
-            bestCommunity;
     // Used for colors.
     private Random color;
     private int r, g, b;
-    
-    private Iterator<Node> neighbours;
-    private int step;
+
     private String fileName;
-    
+
     // Sprites used to display the results on the screen.
     private SpriteManager sm;
     private Sprite communitiesCount,
             modularityCount,
             nmiCount;
-    
+
     private NormalizedMutualInformation nmi;
 
+    // The number of threads that move the nodes, and whether the colours of
+    // the graph take turns when there are more than one.
+    private int threads = 1;
+    private boolean colouring = false;
+
+    // The Leiden variant refines the communities of every phase before the
+    // folding, with its random choices drawn from the seed.
+    private boolean leiden = false;
+    private long seed = 42;
+
+    // Whether execute() shows the communities on the screen, and the result
+    // of its last run.
+    private boolean display = true;
+    private LouvainResult result;
+
     /**
      * Initializing global variables.
      * @param fileName the input path of the file.
@@ -72,36 +74,156 @@ public class CommunityDetectionLouvain {
      */
     public void init(String fileName) throws IOException, GraphParseException {
 
-        communitiesPerPhase = new ArrayList<Map<String, HyperCommunity>>();
-        manager = new HyperCommunityManager();
+        dendrogram = null;
 
         globalMaxQ = -0.5; // making sure to have the lowest value
         this.fileName = fileName;
     }
 
+    /**
+     * Move the nodes on many threads, see {@link ParallelLocalMoving}. The
+     * modularity may differ slightly from the one of a single thread.
+     * @param threads the number of threads, 1 moves the nodes one by one.
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(threads, 1);
+    }
+
+    /**
+     * @param colouring true to let the nodes of every colour of a greedy
+     * colouring move in turn when there are many threads. It avoids nodes
+     * that swap communities and keeps the result closer to the one of a
+     * single thread.
+     */
+    public void setColouring(boolean colouring) {
+        this.colouring = colouring;
+    }
+
+    /**
+     * @param leiden true to refine the communities of every phase as Leiden
+     * does, see {@link Refinement}, so every community is connected. The
+     * nodes are then moved from a queue on a single thread.
+     */
+    public void setLeiden(boolean leiden) {
+        this.leiden = leiden;
+    }
+
+    /**
+     * @param seed the seed of the random order and choices of the Leiden
+     * variant.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param display false to leave the communities off the screen, so
+     * {@link #execute()} needs no GUI thread. {@link #printFinalGraph()} can
+     * still be called afterwards.
+     */
+    public void setDisplay(boolean display) {
+        this.display = display;
+    }
+
     /**
      * The controller of the algorithm.
+     * @return the communities of every level.
      * @throws IOException
      * @throws GraphParseException
      */
-    public void execute() throws IOException, GraphParseException {
-
-        this.graph = step1Init();                 // Initializing the algorithm.
-        globalNewQ = findCommunities(this.graph); // Calculate the modularity after the first phase.
-        finalGraph = this.graph;                  // Keep history of the first graph created.
-        while (globalNewQ > globalMaxQ) {         // As long as the modularity is not the maximum
-            globalMaxQ = globalNewQ;
-            this.graph = foldingCommunities(this.graph); // go to the second phase (folding)
-            globalNewQ = findCommunities(this.graph);    // and get the new modularity
+    public LouvainResult execute() throws IOException, GraphParseException {
+
+        this.graph = step1Init();   // Initializing the algorithm.
+        result = run(this.graph);
+
+        // The attributes and the measures are only updated once, at the end.
+        labelCommunities();
+        modularity = new Modularity("community", "weight");
+        modularity.init(this.graph);
+        double measuredQ = modularity.getMeasure();
+        if (Math.abs(measuredQ - result.getModularity()) > 1e-6) {
+            System.err.println("Modularity mismatch: " + result.getModularity() + " (local moving) vs " + measuredQ);
         }
-        printFinalGraph(this.graph); // After reaching the maximum modularity, 
-        // print the graph on the screen.
+        System.out.println("NMI: " + nmi.getMeasure());
+
+        if (display) {
+            printFinalGraph(); // After reaching the maximum modularity,
+            // print the graph on the screen.
+        }
+        return result;
     }
 
     /**
-     * Initializing the first graph. Importing the file, adding weight = 1 to
-     * each edge and adding attribute to each node indicating the contents of
-     * it's community.
+     * Run the algorithm on a graph without touching its attributes or the
+     * screen.
+     * @param graph the graph, the weight of an edge is in its "weight"
+     * attribute, 1 if it has none.
+     * @return the communities of every level.
+     */
+    public LouvainResult run(Graph graph) {
+
+        if (leiden) {
+            return runLeiden(graph);
+        }
+        long start = System.nanoTime();
+        dendrogram = null; // started by the first phase
+        List<Double> levelQ = new ArrayList<Double>();
+        List<Long> moveTimes = new ArrayList<Long>(),
+                foldTimes = new ArrayList<Long>();
+
+        WeightedGraph phaseGraph = WeightedGraph.freeze(graph, "weight");
+        long t0 = System.nanoTime();
+        globalMaxQ = findCommunities(phaseGraph);     // Calculate the modularity after the first phase.
+        long t1 = System.nanoTime();
+        moveTimes.add((t1 - t0) / 1000000);
+        foldTimes.add(0L);
+        levelQ.add(globalMaxQ);
+        boolean improved = merged();
+        while (improved) {                            // As long as the modularity is not the maximum
+            t0 = System.nanoTime();
+            phaseGraph = foldingCommunities(phaseGraph); // go to the second phase (folding)
+            t1 = System.nanoTime();
+            globalNewQ = findCommunities(phaseGraph);    // and get the new modularity
+            long t2 = System.nanoTime();
+            foldTimes.add((t1 - t0) / 1000000);
+            moveTimes.add((t2 - t1) / 1000000);
+            levelQ.add(globalNewQ);
+            // A phase that joined no nodes only repeats the last one, its
+            // modularity differs by rounding at most.
+            improved = globalNewQ > globalMaxQ && merged();
+            if (improved) {
+                globalMaxQ = globalNewQ;
+            } else {
+                // The last phase did not improve the modularity, so its
+                // communities are not kept.
+                dendrogram.removeLast();
+            }
+        }
+        int levels = dendrogram.getLevelCount();
+
+        double[] q = new double[levels];
+        long[] moveMillis = new long[levels],
+                foldMillis = new long[levels];
+        for (int l = 0; l < levels; l++) {
+            q[l] = levelQ.get(l);
+            moveMillis[l] = moveTimes.get(l);
+            foldMillis[l] = foldTimes.get(l);
+        }
+        return new LouvainResult(dendrogram, q, moveMillis, foldMillis,
+                (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * @return true if the last phase put some of its nodes in the same
+     * community.
+     */
+    private boolean merged() {
+        return joins(dendrogram.getParents(dendrogram.getLevelCount() - 1));
+    }
+
+    /**
+     * Initializing the first graph. Importing the file and adding weight = 1
+     * to each edge.
      *
      * @return the graph object imported from the file
      * @throws IOException
@@ -123,16 +245,6 @@ public class CommunityDetectionLouvain {
             edge.addAttribute("ui.label", edge.getAttribute("weight"));
         }
 
-        // Add attribute "trueCommunityNodes" to every node, because later each
-        // node will represent a community (after the folding phase) so we want 
-        // to keep track of the contents of each community. Used to revert to
-        // the original graph.
-        for (Node node : graph) {
-            Set<String> communityNodes = new HashSet<String>();
-            communityNodes.add(node.getId());
-            node.addAttribute("trueCommunityNodes", communityNodes);
-        }
-        
         nmi = new NormalizedMutualInformation("community","groundTruth");
         nmi.init(graph);
 
@@ -151,160 +263,245 @@ public class CommunityDetectionLouvain {
     }
 
     /**
-     * The first phase of the algorithm.
+     * The first phase of the algorithm. Every node starts in a community of
+     * its own and the nodes are moved between the communities, computing the
+     * modularity gain of every move from the totals of the communities. The
+     * communities are added to the {@link Dendrogram}, numbered from 0.
      * @param graph the graph received from the initialization or the folding
      * phase
      * @return the new modularity value.
      */
-    public double findCommunities(Graph graph) {
-
-        modularity = new Modularity("community", "weight");
-        modularity.init(graph);
-       
-        Map<String, HyperCommunity> communities = new HashMap<String, HyperCommunity>();
+    public double findCommunities(WeightedGraph graph) {
+
+        int[] membership;
+        double q;
+        if (threads > 1) {
+            ParallelLocalMoving moving = new ParallelLocalMoving(graph, threads, colouring);
+            moving.run();
+            membership = moving.getCommunities();
+            q = moving.modularity();
+        } else {
+            LocalMoving moving = new LocalMoving(graph);
+            moving.run();
+            membership = moving.getCommunities();
+            q = moving.modularity();
+        }
 
-        for (Node node : graph) {
-            node.addAttribute("ui.label", node.getId()); // Add a label in every node
-            // with the id of the node.
-            // Every node belongs to a different community.
-            HyperCommunity community = manager.communityFactory();
+        // Add the communities as a level of the dendrogram so the communities
+        // will not be mixed through the recursive steps of the algorithm.
+        addLevel(graph, renumber(membership));
 
-            // Add community attribute to each node, so modularity alg can identify 
-            //which nodes belong to each community.
-            node.addAttribute("community", community.getAttribute());
+        return q; // Return the maximum modularity.
+    }
 
-            // Add the newly created community to the map
-            communities.put(community.getAttribute(), community);
+    /**
+     * Number the communities from 0, in the order of their first node, so
+     * they can be the nodes of the folded graph.
+     * @param membership the community of every node, smaller than the number
+     * of nodes.
+     * @return the renumbered communities.
+     */
+    private static int[] renumber(int[] membership) {
+        int[] number = new int[membership.length];
+        Arrays.fill(number, -1);
+        int[] communities = new int[membership.length];
+        int count = 0;
+        for (int v = 0; v < communities.length; v++) {
+            if (number[membership[v]] < 0) {
+                number[membership[v]] = count++;
+            }
+            communities[v] = number[membership[v]];
+        }
+        return communities;
+    }
 
+    /**
+     * Add the communities of a phase to the dendrogram. The nodes of the first
+     * phase are the original ones.
+     */
+    private void addLevel(WeightedGraph graph, int[] communities) {
+        if (dendrogram == null) {
+            String[] ids = new String[graph.getNodeCount()];
+            for (int v = 0; v < ids.length; v++) {
+                ids[v] = graph.getId(v);
+            }
+            dendrogram = new Dendrogram(ids.length, ids);
         }
+        dendrogram.add(communities);
+    }
 
-        // Add the new map of communities in an arraylist so the communities will
-        // not be mixed through the recursive steps of the algorithm.
-        communitiesPerPhase.add(communities);
-
-        do {
-            initialModularity = modularity.getMeasure();
-            for (Node node : graph) {
-                maxModularity = -0.5;
-                newModularity = -0.5;
-                oldCommunity = node.getAttribute("community");
-                bestCommunity = oldCommunity;
-
-                // For every neighbour node of the node, test if putting it to it's
-                // community, will increase the modularity.
-                neighbours = node.getNeighborNodeIterator();
-                while (neighbours.hasNext()) {
-
-                    Node neighbour = neighbours.next();
-
-                    // Put the node in the neighbour's community.
-                    node.changeAttribute("community", neighbour.getAttribute("community"));
-
-                    // Calculate new modularity
-                    newModularity = modularity.getMeasure();
-
-                    // Find the community that if the node is transfered to, the modularity gain
-                    // is the maximum.
-                    // In case of tie, the breaking rule is always to take the one that was checked last.
-                    if (newModularity > maxModularity) {
-                        maxModularity = newModularity;
-                        bestCommunity = neighbour.getAttribute("community");
-                    }
-                }
-
-                // Move node to the best community (if not already in)
-                if (node.getAttribute("community") != bestCommunity) {
-                    node.changeAttribute("community", bestCommunity);
-                }
-                // Commented for the moment. It could be used for performace improvement.
-                // Count the inner and outer edges that the node (which changes community) is connected to, 
-                // simmultaniously with the community calculation.
-//                    if(node.getAttribute("community") != oldCommunity) {
-//                        neighbours = node.getNeighborNodeIterator();
-//                        while(neighbours.hasNext()) {
-//                            String neighbourCommunity = neighbours.next().getAttribute("community");
-//                            if(neighbourCommunity.equals(oldCommunity)) {
-//                                innerEdgesToChange++;
-//                            } else {
-//                                if(outerEdgesToChange.containsKey(neighbourCommunity)) {
-//                                    outerEdgesToChange.put(neighbourCommunity, outerEdgesToChange.get(neighbourCommunity) + 1);
-//                                } else {
-//                                    outerEdgesToChange.put(neighbourCommunity, 1);
-//                                }
-//                            }
-//                        }
-//                    }
-//                    
-//                    innerEdgesToChange = 0;
-//                    outerEdgesToChange.clear();
+    /**
+     * The Leiden variant of {@link #run(Graph)}. The nodes of every phase are
+     * moved from a queue, starting from the communities of the last phase,
+     * then the communities are refined and the refined ones are folded, so
+     * a level of the dendrogram holds the refined communities. It stops when
+     * the moving leaves every node alone or the refinement merges nothing,
+     * and the refined communities of the last level are the result.
+     * @param graph the graph, the weight of an edge is in its "weight"
+     * attribute, 1 if it has none.
+     * @return the communities of every level.
+     */
+    private LouvainResult runLeiden(Graph graph) {
+
+        long start = System.nanoTime();
+        dendrogram = null; // started by the first phase
+        List<Double> levelQ = new ArrayList<Double>();
+        List<Long> moveTimes = new ArrayList<Long>(),
+                foldTimes = new ArrayList<Long>();
+        Random random = new Random(seed);
+
+        WeightedGraph phaseGraph = WeightedGraph.freeze(graph, "weight");
+        int[] initial = null; // every node alone in the first phase
+        long lastFold = 0;
+        while (true) {
+            long t0 = System.nanoTime();
+            LocalMoving moving = initial == null ? new LocalMoving(phaseGraph)
+                    : new LocalMoving(phaseGraph, initial);
+            moving.runQueue(random);
+            int[] partition = renumber(moving.getCommunities());
+            boolean first = dendrogram == null;
+            if (!first && !joins(partition)) {
+                break;
             }
-            deltaQ = modularity.getMeasure() - initialModularity;
-        } while (deltaQ > 0); // Loop until there is no improvement in modularity
-        
-        System.out.println("NMI: " + nmi.getMeasure());
+            int[] refined = renumber(new Refinement(phaseGraph, partition, Refinement.RANDOMNESS, random).run());
+            long t1 = System.nanoTime();
+            if (!first && !joins(refined)) {
+                break;
+            }
+            addLevel(phaseGraph, refined);
+
+            // The refined communities become the nodes of the next phase and
+            // start in the community they were refined from.
+            WeightedGraph folded = phaseGraph.fold(refined);
+            initial = new int[folded.getNodeCount()];
+            for (int v = 0; v < refined.length; v++) {
+                initial[refined[v]] = partition[v];
+            }
+            double q = new LocalMoving(folded).modularity();
+            long t2 = System.nanoTime();
+
+            levelQ.add(q);
+            moveTimes.add((t1 - t0) / 1000000);
+            foldTimes.add(lastFold);
+            lastFold = (t2 - t1) / 1000000;
+            phaseGraph = folded;
+        }
 
-        return modularity.getMeasure(); // Return the maximum modularity.
+        int levels = dendrogram.getLevelCount();
+        double[] q = new double[levels];
+        long[] moveMillis = new long[levels],
+                foldMillis = new long[levels];
+        for (int l = 0; l < levels; l++) {
+            q[l] = levelQ.get(l);
+            moveMillis[l] = moveTimes.get(l);
+            foldMillis[l] = foldTimes.get(l);
+        }
+        return new LouvainResult(dendrogram, q, moveMillis, foldMillis, (System.nanoTime() - start) / 1000000);
     }
 
     /**
-     * After the maximum modularity was reached, revert to the original graph,
-     * printing the communities (by using the same color in the nodes of the
-     * same community).
-     * @param graph the graph where each node represents a final community.
+     * @param communities the renumbered communities of the nodes of a phase.
+     * @return true if some nodes share a community.
      */
-    public void printFinalGraph(Graph graph) {
+    private static boolean joins(int[] communities) {
+        // The communities are numbered in the order of their first node, so
+        // the last node opens a community of its own only if all nodes did.
+        return communities.length > 0 && communities[communities.length - 1] < communities.length - 1;
+    }
 
-        // Cleaning up the communities of the original graph
-        // TO-DO: could be done by a function.
-        for (Node node : finalGraph) {
-            node.addAttribute("community", "");
+    /**
+     * @return the result of the last {@link #execute()}.
+     */
+    public LouvainResult getResult() {
+        return result;
+    }
+
+    /**
+     * Add the community attribute to the nodes of the original graph, so the
+     * measures can identify which nodes belong to each community. The
+     * attributes start from 1.
+     */
+    private void labelCommunities() {
+        int[] communities = result.getCommunities();
+        for (Node node : graph) {
+            node.changeAttribute("community", String.valueOf(communities[node.getIndex()] + 1));
+        }
+    }
+
+    /**
+     * After the maximum modularity was reached, printing the communities of
+     * the original graph (by using the same color in the nodes of the same
+     * community). The communities are colored one after the other, the
+     * modularity and the NMI are measured once since the nodes are already
+     * labeled.
+     */
+    public void printFinalGraph() {
+
+        if (result == null) {
+            throw new IllegalStateException("execute() has not been called");
+        }
+
+        // Group the nodes by community.
+        int[] communities = result.getCommunities();
+        int count = result.getCommunityCount(result.getLevelCount() - 1);
+        int[] start = new int[count + 1];
+        for (int community : communities) {
+            start[community + 1]++;
+        }
+        for (int c = 0; c < count; c++) {
+            start[c + 1] += start[c];
+        }
+        int[] members = new int[communities.length];
+        int[] fill = Arrays.copyOf(start, count);
+        for (int v = 0; v < communities.length; v++) {
+            members[fill[communities[v]]++] = v;
+        }
+
+        for (Node node : graph) {
             node.addAttribute("ui.style", "size: 20px;");
         }
 
         // Creating the communities count on the display screen.
-        sm = new SpriteManager(finalGraph);
+        sm = new SpriteManager(graph);
         communitiesCount = sm.addSprite("CC");
         communitiesCount.setPosition(Units.PX, 20, 20, 0);
         communitiesCount.setAttribute("ui.label",
-                String.format("Communities: %d", graph.getNodeCount()));
+                String.format("Communities: %d", count));
         communitiesCount.setAttribute("ui.style", "size: 0px; text-color: rgb(150,100,100); text-size: 20;");
 
-        finalGraph.display(true); // display the graph on the screen.
-        modularity.init(finalGraph);
+        graph.display(true); // display the graph on the screen.
 
-        // Creating the modularity count on the display screen.
+        // Creating the modularity and the NMI count on the display screen.
         modularityCount = sm.addSprite("MC");
         modularityCount.setPosition(Units.PX, 20, 60, 0);
         modularityCount.setAttribute("ui.style", "size: 0px; text-color: rgb(150,100,100); text-size: 20;");
-        
+        modularityCount.setAttribute("ui.label",
+                String.format("Modularity: %f", modularity.getMeasure()));
+
         nmiCount = sm.addSprite("NMIC");
         nmiCount.setPosition(Units.PX, 20, 100, 0);
         nmiCount.setAttribute("ui.style", "size: 0px; text-color: rgb(150,100,100); text-size: 20;");
+        nmiCount.setAttribute("ui.label",
+                String.format("NMI: %f", nmi.getMeasure()));
 
         // Color every node of a community with the same random color.
         color = new Random();
-        for (Node community : graph) {
+        for (int c = 0; c < count; c++) {
             r = color.nextInt(255);
             g = color.nextInt(255);
             b = color.nextInt(255);
-            Set<String> communityNodes = community.getAttribute("trueCommunityNodes");
-            for (Iterator<String> node = communityNodes.iterator(); node.hasNext();) {
-                Node n = finalGraph.getNode(node.next());
-                n.addAttribute("community", community.getId());
-                n.addAttribute("ui.style", "fill-color: rgb(" + r + "," + g + "," + b + "); size: 20px;");
-                modularityCount.setAttribute("ui.label",
-                        String.format("Modularity: %f", modularity.getMeasure()));
-                nmiCount.setAttribute("ui.label",
-                        String.format("NMI: %f", nmi.getMeasure()));
-                sleep();
+            for (int i = start[c]; i < start[c + 1]; i++) {
+                graph.getNode(members[i]).addAttribute("ui.style",
+                        "fill-color: rgb(" + r + "," + g + "," + b + "); size: 20px;");
             }
+            sleep();
         }
 
         // If an edge connects nodes that belong to different communities, color
         // it gray.
-        for (Iterator<? extends Edge> it = finalGraph.getEachEdge().iterator(); it.hasNext();) {
+        for (Iterator<? extends Edge> it = graph.getEachEdge().iterator(); it.hasNext();) {
             Edge edge = it.next();
-            if (!edge.getNode0().getAttribute("community").equals(edge.getNode1().getAttribute("community"))) {
+            if (communities[edge.getNode0().getIndex()] != communities[edge.getNode1().getIndex()]) {
                 edge.addAttribute("ui.style", "fill-color: rgb(236,236,236);");
             }
         }
@@ -312,107 +509,13 @@ public class CommunityDetectionLouvain {
 
     /**
      * Second phase of the algorithm. Creating a graph where each node
-     * represents a community.
+     * represents a community of the last phase. The weight between two
+     * communities is the total weight of the edges between them, and the
+     * weight inside a community becomes a self-loop.
      * @param graph the output graph of the first phase.
      * @return the folded graph where each node represents a community.
      */
-    public Graph foldingCommunities(Graph graph) {
-
-        // Group nodes by community and count the edge types. Knowing the number
-        // of each edge type (inner and outer) is necessary in order to create
-        // the folded graph.
-        Map<String, HyperCommunity> communities = communitiesPerPhase.get(communitiesPerPhase.size() - 1);
-        ListMultimap<String, Node> multimap = ArrayListMultimap.create();
-        HyperCommunity community;
-        for (Node node : graph) {
-            multimap.put((String) node.getAttribute("community"), node);
-            community = communities.get(node.getAttribute("community")); // Get the community object 
-            // from the node's attribute.
-            community.increaseNodesCount();  // increase the count of the community's nodes by 1.
-            neighbours = node.getNeighborNodeIterator();
-            while (neighbours.hasNext()) {
-                // If the neighbour and the node have the same community attribute then increase
-                // the inner edges of the community, otherwise increase the outer edges of the 
-                // community to the neighbour's community.
-                Node neighbour = neighbours.next();
-                double edgeWeightBetweenThem = (Double)node.getEdgeBetween(neighbour).getAttribute("weight");
-                String neighbourCommunity = neighbour.getAttribute("community");
-                if (neighbourCommunity.equals(node.getAttribute("community"))) {
-                    community.increaseInnerEdgesWeightCount(edgeWeightBetweenThem);
-                    community.addNodesSet((HashSet<String>) node.getAttribute("trueCommunityNodes"));
-                } else {
-                    community.increaseEdgeWeightToCommunity(neighbourCommunity, edgeWeightBetweenThem);
-                }
-            }
-        }
-
-
-        // Remove from the map the communities with 0 nodes.
-        for (Iterator<Entry<String, HyperCommunity>> it = communities.entrySet().iterator(); it.hasNext();) {
-            Entry<String, HyperCommunity> entry = it.next();
-            if (communities.get(entry.getKey()).getNodesCount() == 0) {
-                it.remove();
-            }
-        }
-
-        // Finilize the inner edges weight count (divide it by 2)
-        for (Iterator<Entry<String, HyperCommunity>> it = communities.entrySet().iterator(); it.hasNext();) {
-            Entry<String, HyperCommunity> entry = it.next();
-            communities.get(entry.getKey()).finilizeInnerEdgesWeightCount();
-        }
-
-        // Creation of the folded graph.
-        graph = new SingleGraph("communitiesPhase2");
-
-        String edgeIdentifierWayOne,
-                edgeIdentifierWayTwo,
-                edgeIdentifierSelfie;
-        Entry<String, HyperCommunity> communityEntry;
-        Entry<String, Double> edgeWeightToCommunity;
-        List<String> edgeIdentifiers = new ArrayList<String>(); // Keep a list of edge ids so we
-                                                                // don't add the same edge twice.
-        Edge edge;
-        double innerEdgesWeight;
-
-        // For every community
-        for (Iterator<Entry<String, HyperCommunity>> it = communities.entrySet().iterator(); it.hasNext();) {
-            communityEntry = it.next();
-            // and for every community that the above community is connected to,
-            // create the two nodes and the between them edge, with a weight equal
-            // to the total weight of the outer edges between these two communities.
-            Map<String, Double> outerEdgesWeights = communityEntry.getValue().getEdgeWeightToCommunity();
-            for (Iterator<Entry<String, Double>> outerEdgesWeightIt = outerEdgesWeights.entrySet().iterator(); outerEdgesWeightIt.hasNext();) {
-                edgeWeightToCommunity = outerEdgesWeightIt.next();
-                edgeIdentifierWayOne = communityEntry.getKey() + ":" + edgeWeightToCommunity.getKey();
-                edgeIdentifierWayTwo = edgeWeightToCommunity.getKey() + ":" + communityEntry.getKey();
-                if (!edgeIdentifiers.contains(edgeIdentifierWayOne) && !edgeIdentifiers.contains(edgeIdentifierWayTwo)) {
-                    if (graph.getNode(communityEntry.getKey()) == null) {
-                        graph.addNode(communityEntry.getKey()).addAttribute("trueCommunityNodes", communityEntry.getValue().getCommunityNodes());
-                    }
-                    if (graph.getNode(edgeWeightToCommunity.getKey()) == null) {
-                        graph.addNode(edgeWeightToCommunity.getKey()).addAttribute("trueCommunityNodes", communities.get(edgeWeightToCommunity.getKey()).getCommunityNodes());
-                    }
-                    edge = graph.addEdge(edgeIdentifierWayOne,
-                            communityEntry.getKey(),
-                            edgeWeightToCommunity.getKey());
-                    edge.addAttribute("weight", Double.parseDouble(String.valueOf(edgeWeightToCommunity.getValue())));
-                    edge.addAttribute("ui.label", edgeWeightToCommunity.getValue());
-
-                    edgeIdentifiers.add(edgeIdentifierWayOne);
-                    edgeIdentifiers.add(edgeIdentifierWayTwo);
-                }
-            }
-            
-            // Add a self-edge to every node, with a weight that represents the total 
-            // sum of the inner edges weights of the community.
-            innerEdgesWeight = communityEntry.getValue().getInnerEdgesWeightCount();
-            edgeIdentifierSelfie = communityEntry.getKey() + ":" + communityEntry.getKey();
-            edge = graph.addEdge(edgeIdentifierSelfie,
-                    communityEntry.getKey(),
-                    communityEntry.getKey());
-            edge.addAttribute("weight", Double.parseDouble(String.valueOf(innerEdgesWeight)));
-            }
-
-        return graph;
+    public WeightedGraph foldingCommunities(WeightedGraph graph) {
+        return graph.fold(dendrogram.getParents(dendrogram.getLevelCount() - 1));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,130 @@
+package th.algorithms.louvain;
+
+import th.algorithms.louvain.utils.Dendrogram;
+
+/**
+ * The outcome of a run of {@link CommunityDetectionLouvain}, without any
+ * display. The {@link Dendrogram} keeps the community of each node of every
+ * level, which is a node of the next level, and every level also has the
+ * modularity reached and the time spent on it.
+ * @author Ilias Trichopoulos <itrichop@csd.auth.gr>
+ */
+public class LouvainResult {
+
+    private final Dendrogram dendrogram;
+    private final double[] modularity;
+    private final long[] moveMillis;
+    private final long[] foldMillis;
+    private final long millis;
+
+    /**
+     * @param dendrogram the communities of the nodes of every level.
+     * @param modularity the modularity of every level.
+     * @param moveMillis the time spent moving the nodes of every level.
+     * @param foldMillis the time spent folding the previous level into every
+     * level.
+     * @param millis the time of the whole run.
+     */
+    LouvainResult(Dendrogram dendrogram, double[] modularity, long[] moveMillis, long[] foldMillis,
+            long millis) {
+        this.dendrogram = dendrogram;
+        this.modularity = modularity;
+        this.moveMillis = moveMillis;
+        this.foldMillis = foldMillis;
+        this.millis = millis;
+    }
+
+    /**
+     * @return the communities of every level, to cut or to export.
+     */
+    public Dendrogram getDendrogram() {
+        return this.dendrogram;
+    }
+
+    /**
+     * @return the number of levels. Every level after the first one joined
+     * some nodes of the level below it. In Louvain every level also improved
+     * the modularity. In the Leiden variant a level holds the refined
+     * communities of a phase, and its modularity may be lower than the one of
+     * the level below it.
+     */
+    public int getLevelCount() {
+        return this.dendrogram.getLevelCount();
+    }
+
+    /**
+     * @param level the level, from 0.
+     * @return the community of every node of the original graph at the level,
+     * by the index of the node, numbered from 0.
+     */
+    public int[] getCommunities(int level) {
+        return this.dendrogram.cut(level);
+    }
+
+    /**
+     * @return the community of every node of the original graph at the last
+     * level, by the index of the node, numbered from 0.
+     */
+    public int[] getCommunities() {
+        return getCommunities(getLevelCount() - 1);
+    }
+
+    /**
+     * @param level the level, from 0.
+     * @return the number of communities of the level.
+     */
+    public int getCommunityCount(int level) {
+        return this.dendrogram.getCommunityCount(level);
+    }
+
+    /**
+     * @param level the level, from 0.
+     * @return the modularity of the communities of the level.
+     */
+    public double getModularity(int level) {
+        return this.modularity[level];
+    }
+
+    /**
+     * @return the modularity of the last level.
+     */
+    public double getModularity() {
+        return this.modularity[getLevelCount() - 1];
+    }
+
+    /**
+     * @param level the level, from 0.
+     * @return the time spent moving the nodes of the level, in ms.
+     */
+    public long getMoveMillis(int level) {
+        return this.moveMillis[level];
+    }
+
+    /**
+     * @param level the level, from 0.
+     * @return the time spent folding the previous level into this one, in
+     * ms, 0 for the first level.
+     */
+    public long getFoldMillis(int level) {
+        return this.foldMillis[level];
+    }
+
+    /**
+     * @return the time of the whole run, in ms, with the last phase that was
+     * not kept as a level.
+     */
+    public long getMillis() {
+        return this.millis;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (int l = 0; l < getLevelCount(); l++) {
+            s.append("level ").append(l).append(": ").append(getCommunityCount(l)).append(" communities, Q ")
+                    .append(String.format("%.4f", this.modularity[l])).append(", ").append(this.moveMillis[l])
+                    .append(" + ").append(this.foldMillis[l]).append(" ms\n");
+        }
+        return s.toString();
+    }
+}
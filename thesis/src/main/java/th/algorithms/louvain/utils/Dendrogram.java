@@ -0,0 +1,288 @@
+package th.algorithms.louvain.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The communities found by Louvain at every level, as one parent array per
+ * level. The parent of node <b>v</b> of level <b>l</b> is its community,
+ * which is node <b>parents(l)[v]</b> of level <b>l + 1</b>, and the nodes of
+ * level 0 are the nodes of the original graph. The communities of every level
+ * are numbered from 0 without gaps, so the whole hierarchy takes one int per
+ * node and level, and a cut at any level follows the arrays from the bottom.
+ * <p>
+ * The binary form writes every number as a varint, seven bits per byte, so
+ * the small community numbers of the upper levels take one byte:
+ * <pre>
+ * "LVDG" version nodes levels
+ * for every original node: idLength + 1 (0 without ids) id
+ * for every level: size parents...
+ * </pre>
+ * @author Ilias Trichopoulos <itrichop@csd.auth.gr>
+ */
+public class Dendrogram {
+
+    private static final int MAGIC = 0x4C564447;
+    private static final int VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int nodeCount;
+    private final String[] ids;
+    private final List<int[]> levels = new ArrayList<int[]>();
+
+    /**
+     * An empty hierarchy.
+     * @param nodeCount the number of nodes of the original graph.
+     * @param ids the id of every node of the original graph, by index, or
+     * null to name them by their index.
+     */
+    public Dendrogram(int nodeCount, String[] ids) {
+        if (ids != null && ids.length != nodeCount) {
+            throw new IllegalArgumentException(ids.length + " ids for " + nodeCount + " nodes");
+        }
+        this.nodeCount = nodeCount;
+        this.ids = ids;
+    }
+
+    /**
+     * Add a level on top.
+     * @param parents the community of every node of the current top level,
+     * numbered from 0 without gaps.
+     */
+    public void add(int[] parents) {
+        int size = this.levels.isEmpty() ? this.nodeCount : getCommunityCount(this.levels.size() - 1);
+        if (parents.length != size) {
+            throw new IllegalArgumentException(parents.length + " parents for " + size + " nodes");
+        }
+        this.levels.add(parents);
+    }
+
+    /**
+     * Remove the top level.
+     */
+    public void removeLast() {
+        this.levels.remove(this.levels.size() - 1);
+    }
+
+    /**
+     * @return the number of levels.
+     */
+    public int getLevelCount() {
+        return this.levels.size();
+    }
+
+    /**
+     * @return the number of nodes of the original graph.
+     */
+    public int getNodeCount() {
+        return this.nodeCount;
+    }
+
+    /**
+     * @param v a node of the original graph.
+     * @return its id, or its index if the hierarchy has no ids.
+     */
+    public String getId(int v) {
+        return this.ids == null ? String.valueOf(v) : this.ids[v];
+    }
+
+    /**
+     * @param level the level, from 0.
+     * @return the community of every node of the level. It must not be
+     * modified.
+     */
+    public int[] getParents(int level) {
+        return this.levels.get(level);
+    }
+
+    /**
+     * @param level the level, from 0.
+     * @return the number of communities of the level, the nodes of the next
+     * one.
+     */
+    public int getCommunityCount(int level) {
+        int count = 0;
+        for (int parent : this.levels.get(level)) {
+            count = Math.max(count, parent + 1);
+        }
+        return count;
+    }
+
+    /**
+     * Cut the hierarchy at a level.
+     * @param level the level, from 0.
+     * @return the community of every node of the original graph at the level,
+     * by the index of the node.
+     */
+    public int[] cut(int level) {
+        int[] communities = this.levels.get(0).clone();
+        for (int l = 1; l <= level; l++) {
+            int[] parents = this.levels.get(l);
+            for (int v = 0; v < communities.length; v++) {
+                communities[v] = parents[communities[v]];
+            }
+        }
+        return communities;
+    }
+
+    /**
+     * Write the hierarchy in its binary form.
+     * @param file where to write.
+     * @throws IOException if the file can not be written.
+     */
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            writeVarint(out, VERSION);
+            writeVarint(out, this.nodeCount);
+            writeVarint(out, this.levels.size());
+            for (int v = 0; v < this.nodeCount; v++) {
+                if (this.ids == null) {
+                    writeVarint(out, 0);
+                } else {
+                    byte[] bytes = this.ids[v].getBytes(UTF8);
+                    writeVarint(out, bytes.length + 1);
+                    out.write(bytes);
+                }
+            }
+            for (int[] parents : this.levels) {
+                writeVarint(out, parents.length);
+                for (int parent : parents) {
+                    writeVarint(out, parent);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read a hierarchy written by {@link #write(File)}.
+     * @param file the file.
+     * @return the hierarchy.
+     * @throws IOException if the file can not be read or is not a dendrogram.
+     */
+    public static Dendrogram read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC || readVarint(in) != VERSION) {
+                throw new IOException(file + " is not a dendrogram");
+            }
+            int n = readVarint(in);
+            int levels = readVarint(in);
+            String[] ids = new String[n];
+            boolean named = false;
+            for (int v = 0; v < n; v++) {
+                int length = readVarint(in);
+                if (length > 0) {
+                    byte[] bytes = new byte[length - 1];
+                    in.readFully(bytes);
+                    ids[v] = new String(bytes, UTF8);
+                    named = true;
+                }
+            }
+
+            Dendrogram dendrogram = new Dendrogram(n, named ? ids : null);
+            for (int l = 0; l < levels; l++) {
+                int[] parents = new int[readVarint(in)];
+                for (int v = 0; v < parents.length; v++) {
+                    parents[v] = readVarint(in);
+                }
+                dendrogram.add(parents);
+            }
+            return dendrogram;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write the community of every original node at every level, one node per
+     * line: <code>id,level0,level1,...</code> after a header line. An id with
+     * a comma, a quote or a line break is quoted as in RFC 4180.
+     * @param file where to write.
+     * @throws IOException if the file can not be written.
+     */
+    public void writeCSV(File file) throws IOException {
+        int[][] cuts = new int[this.levels.size()][];
+        for (int l = 0; l < cuts.length; l++) {
+            // Every cut goes one level further than the one below it.
+            cuts[l] = l == 0 ? this.levels.get(0) : new int[this.nodeCount];
+            if (l > 0) {
+                int[] parents = this.levels.get(l);
+                for (int v = 0; v < this.nodeCount; v++) {
+                    cuts[l][v] = parents[cuts[l - 1][v]];
+                }
+            }
+        }
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8), 1 << 16);
+        try {
+            out.write("node");
+            for (int l = 0; l < cuts.length; l++) {
+                out.write(",level" + l);
+            }
+            out.write('\n');
+            for (int v = 0; v < this.nodeCount; v++) {
+                out.write(quote(getId(v)));
+                for (int[] cut : cuts) {
+                    out.write(',');
+                    out.write(Integer.toString(cut[v]));
+                }
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the field in quotes with its quotes doubled if it has a comma,
+     * a quote or a line break, otherwise the field itself.
+     */
+    private static String quote(String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+                return '"' + field.replace("\"", "\"\"") + '"';
+            }
+        }
+        return field;
+    }
+
+    /**
+     * Seven bits per byte, the high bit says that more bytes follow.
+     */
+    private static void writeVarint(DataOutputStream out, int x) throws IOException {
+        while ((x & ~0x7F) != 0) {
+            out.writeByte((x & 0x7F) | 0x80);
+            x >>>= 7;
+        }
+        out.writeByte(x);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int x = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte next = in.readByte();
+            x |= (next & 0x7F) << shift;
+            if (next >= 0) {
+                return x;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
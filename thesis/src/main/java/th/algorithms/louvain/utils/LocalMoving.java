@@ -0,0 +1,282 @@
+package th.algorithms.louvain.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The first phase of Louvain on a {@link WeightedGraph}. Every node starts in
+ * a community of its own and is moved to the neighbouring community with the
+ * largest modularity gain, until a pass over the nodes no longer improves the
+ * modularity. The gain of a move is found with the formula of Blondel et al.
+ * from two sums per community, the total degree of its nodes (sigma tot) and
+ * twice the weight of the edges inside it (sigma in), so a node costs
+ * O(degree) instead of a full modularity computation.
+ * @author Ilias Trichopoulos <itrichop@csd.auth.gr>
+ */
+public class LocalMoving {
+
+    /**
+     * The smallest modularity gain of a pass that is worth another pass.
+     */
+    public static final double MIN_IMPROVEMENT = 1e-7;
+
+    private final WeightedGraph graph;
+    private final int[] community;
+    private final double[] totals; // sigma tot of every community
+    private final double[] inner;  // sigma in of every community
+
+    // The weight from the current node to every community it is linked to,
+    // -1 for the communities it is not linked to. The linked communities are
+    // listed so only they have to be cleared afterwards.
+    private final double[] linkWeight;
+    private final int[] linked;
+    private int linkedCount;
+
+    /**
+     * Put every node in a community of its own.
+     * @param graph the graph.
+     */
+    public LocalMoving(WeightedGraph graph) {
+        this.graph = graph;
+        int n = graph.getNodeCount();
+        this.community = new int[n];
+        this.totals = new double[n];
+        this.inner = new double[n];
+        for (int v = 0; v < n; v++) {
+            this.community[v] = v;
+            this.totals[v] = graph.getDegree(v);
+            this.inner[v] = 2 * graph.getLoop(v);
+        }
+        this.linkWeight = new double[n];
+        Arrays.fill(this.linkWeight, -1);
+        this.linked = new int[n];
+    }
+
+    /**
+     * Start from given communities, as the Leiden variant does after folding
+     * the refined communities.
+     * @param graph the graph.
+     * @param initial the community of every node, smaller than the number of
+     * nodes.
+     */
+    public LocalMoving(WeightedGraph graph, int[] initial) {
+        this(graph);
+        int n = graph.getNodeCount();
+        int[] neighbours = graph.getNeighbours();
+        double[] weights = graph.getWeights();
+        Arrays.fill(this.totals, 0);
+        Arrays.fill(this.inner, 0);
+        for (int v = 0; v < n; v++) {
+            int c = initial[v];
+            this.community[v] = c;
+            this.totals[c] += graph.getDegree(v);
+            this.inner[c] += 2 * graph.getLoop(v);
+            for (int i = graph.getStart(v); i < graph.getEnd(v); i++) {
+                if (initial[neighbours[i]] == c) {
+                    this.inner[c] += weights[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Move the nodes in passes, in the order of their index, until a pass
+     * moves no node or improves the modularity by less than
+     * {@link #MIN_IMPROVEMENT}.
+     * @return true if any node changed community.
+     */
+    public boolean run() {
+        if (this.graph.getTotalWeight() == 0) {
+            return false;
+        }
+        boolean changed = false;
+        double modularity = modularity();
+        int moves;
+        double improvement;
+        do {
+            moves = 0;
+            for (int v = 0; v < this.graph.getNodeCount(); v++) {
+                if (move(v)) {
+                    moves++;
+                }
+            }
+            double newModularity = modularity();
+            improvement = newModularity - modularity;
+            modularity = newModularity;
+            changed |= moves > 0;
+        } while (moves > 0 && improvement > MIN_IMPROVEMENT);
+        return changed;
+    }
+
+    /**
+     * Move the nodes from a queue, as the fast local moving of Leiden does.
+     * The queue starts with all nodes in random order, and a node that
+     * changes community puts back the neighbours that are not in the queue
+     * and not in its new community. It stops when the queue is empty, so
+     * after the first pass only the nodes around the last moves are visited
+     * again.
+     * @param random the source of the order of the nodes.
+     * @return true if any node changed community.
+     */
+    public boolean runQueue(Random random) {
+        int n = this.graph.getNodeCount();
+        if (this.graph.getTotalWeight() == 0) {
+            return false;
+        }
+        int[] neighbours = this.graph.getNeighbours();
+
+        // A ring of n places is enough, a node is in the queue at most once.
+        int[] queue = new int[n];
+        boolean[] queued = new boolean[n];
+        for (int v = 0; v < n; v++) {
+            queue[v] = v;
+            queued[v] = true;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = queue[i];
+            queue[i] = queue[j];
+            queue[j] = tmp;
+        }
+
+        boolean changed = false;
+        int head = 0, size = n;
+        while (size > 0) {
+            int v = queue[head];
+            head = (head + 1) % n;
+            size--;
+            queued[v] = false;
+            if (move(v)) {
+                changed = true;
+                for (int i = this.graph.getStart(v); i < this.graph.getEnd(v); i++) {
+                    int u = neighbours[i];
+                    if (!queued[u] && this.community[u] != this.community[v]) {
+                        queue[(head + size) % n] = u;
+                        queued[u] = true;
+                        size++;
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Take a node out of its community and put it in the neighbouring
+     * community (or its own) with the largest gain. In case of a tie the node
+     * stays or takes the community found first.
+     * @param v the node.
+     * @return true if the node changed community.
+     */
+    public boolean move(int v) {
+        int own = this.community[v];
+        double degree = this.graph.getDegree(v);
+        double m2 = 2 * this.graph.getTotalWeight();
+
+        gatherLinks(v);
+        remove(v, own, this.linkWeight[own]);
+
+        // The gain of putting the isolated node in community c is
+        // k_i,in / m - sigma_tot * k_i / (2 m^2), compared here multiplied
+        // by m.
+        int best = own;
+        double bestGain = this.linkWeight[own] - this.totals[own] * degree / m2;
+        for (int i = 0; i < this.linkedCount; i++) {
+            int c = this.linked[i];
+            double gain = this.linkWeight[c] - this.totals[c] * degree / m2;
+            if (gain > bestGain) {
+                bestGain = gain;
+                best = c;
+            }
+        }
+
+        insert(v, best, this.linkWeight[best]);
+        clearLinks();
+        return best != own;
+    }
+
+    /**
+     * Sum up the weight from a node to every community of its neighbours, and
+     * to its own community.
+     */
+    private void gatherLinks(int v) {
+        int[] neighbours = this.graph.getNeighbours();
+        double[] weights = this.graph.getWeights();
+
+        this.linkedCount = 0;
+        this.linkWeight[this.community[v]] = 0;
+        this.linked[this.linkedCount++] = this.community[v];
+        for (int i = this.graph.getStart(v); i < this.graph.getEnd(v); i++) {
+            int c = this.community[neighbours[i]];
+            if (this.linkWeight[c] < 0) {
+                this.linkWeight[c] = 0;
+                this.linked[this.linkedCount++] = c;
+            }
+            this.linkWeight[c] += weights[i];
+        }
+    }
+
+    private void clearLinks() {
+        for (int i = 0; i < this.linkedCount; i++) {
+            this.linkWeight[this.linked[i]] = -1;
+        }
+        this.linkedCount = 0;
+    }
+
+    /**
+     * Take a node out of a community.
+     * @param v the node.
+     * @param c its community.
+     * @param weight the weight of the edges from the node to the community.
+     */
+    private void remove(int v, int c, double weight) {
+        this.totals[c] -= this.graph.getDegree(v);
+        this.inner[c] -= 2 * weight + 2 * this.graph.getLoop(v);
+        this.community[v] = -1;
+    }
+
+    /**
+     * Put a node in a community.
+     * @param v the node.
+     * @param c the community.
+     * @param weight the weight of the edges from the node to the community.
+     */
+    private void insert(int v, int c, double weight) {
+        this.totals[c] += this.graph.getDegree(v);
+        this.inner[c] += 2 * weight + 2 * this.graph.getLoop(v);
+        this.community[v] = c;
+    }
+
+    /**
+     * @return the modularity of the current communities, from the sums of
+     * every community.
+     */
+    public double modularity() {
+        double m2 = 2 * this.graph.getTotalWeight();
+        if (m2 == 0) {
+            return 0;
+        }
+        double q = 0;
+        for (int c = 0; c < this.totals.length; c++) {
+            if (this.totals[c] > 0) {
+                q += this.inner[c] / m2 - (this.totals[c] / m2) * (this.totals[c] / m2);
+            }
+        }
+        return q;
+    }
+
+    /**
+     * @return the community of every node, a community is named after one of
+     * the nodes that started in it.
+     */
+    public int[] getCommunities() {
+        return this.community;
+    }
+
+    /**
+     * @return the graph the nodes are moved on.
+     */
+    public WeightedGraph getGraph() {
+        return this.graph;
+    }
+}
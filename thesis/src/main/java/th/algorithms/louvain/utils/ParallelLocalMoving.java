@@ -0,0 +1,364 @@
+package th.algorithms.louvain.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The first phase of Louvain on many threads, in the style of the parallel
+ * Louvain of Grappolo and PLM. The nodes are split in chunks among the
+ * threads, every thread finds the best community of its node against the
+ * shared communities and sigma tot, and moves it at once, updating sigma tot
+ * with atomic additions. Nodes of different threads see each other's moves
+ * late, so two of them may move towards each other at the same time. To damp
+ * that, a node alone in its community only moves to another community of one
+ * node if that one has a smaller label. With colouring the nodes are also
+ * split by a greedy colouring of the graph and the colours take turns, so
+ * neighbours never move at the same time. The modularity is not the same
+ * from run to run, but stays close to the one of {@link LocalMoving}, which
+ * is also what a single thread gives.
+ * @author Ilias Trichopoulos <itrichop@csd.auth.gr>
+ */
+public class ParallelLocalMoving {
+
+    private static final int CHUNK = 256;
+
+    private final WeightedGraph graph;
+    private final int threads;
+    private final boolean colouring;
+    private final int[] community;
+    private final AtomicLongArray totals; // sigma tot, as the bits of a double
+    private final AtomicIntegerArray sizes; // the number of nodes of every community
+    private final Links[] links; // the accumulator of every thread
+    private ForkJoinPool pool;
+
+    /**
+     * The weight from the current node of a thread to every community it is
+     * linked to, as in {@link LocalMoving}.
+     */
+    private static class Links {
+
+        final double[] weight;
+        final int[] linked;
+        int count;
+
+        Links(int n) {
+            this.weight = new double[n];
+            Arrays.fill(this.weight, -1);
+            this.linked = new int[n];
+        }
+
+        void clear() {
+            for (int i = 0; i < this.count; i++) {
+                this.weight[this.linked[i]] = -1;
+            }
+            this.count = 0;
+        }
+    }
+
+    /**
+     * Put every node in a community of its own.
+     * @param graph the graph.
+     * @param threads the number of threads.
+     * @param colouring true to let the colours of a greedy colouring take
+     * turns.
+     */
+    public ParallelLocalMoving(WeightedGraph graph, int threads, boolean colouring) {
+        this.graph = graph;
+        this.threads = Math.max(threads, 1);
+        this.colouring = colouring;
+        int n = graph.getNodeCount();
+        this.community = new int[n];
+        this.totals = new AtomicLongArray(n);
+        this.sizes = new AtomicIntegerArray(n);
+        for (int v = 0; v < n; v++) {
+            this.community[v] = v;
+            this.totals.set(v, Double.doubleToRawLongBits(graph.getDegree(v)));
+            this.sizes.set(v, 1);
+        }
+        this.links = new Links[this.threads];
+        for (int i = 0; i < this.threads; i++) {
+            this.links[i] = new Links(n);
+        }
+    }
+
+    /**
+     * Move the nodes in passes until a pass moves no node or improves the
+     * modularity by less than {@link LocalMoving#MIN_IMPROVEMENT}.
+     * @return true if any node changed community.
+     */
+    public boolean run() {
+        if (this.graph.getTotalWeight() == 0) {
+            return false;
+        }
+
+        int n = this.graph.getNodeCount();
+        // The nodes grouped by colour, the nodes of colour c are in
+        // order[classes[c] .. classes[c + 1]).
+        int[] order, classes;
+        if (this.colouring) {
+            int[] colour = new int[n];
+            int colours = colour(colour);
+            classes = new int[colours + 1];
+            for (int v = 0; v < n; v++) {
+                classes[colour[v] + 1]++;
+            }
+            for (int c = 0; c < colours; c++) {
+                classes[c + 1] += classes[c];
+            }
+            order = new int[n];
+            int[] fill = Arrays.copyOf(classes, colours);
+            for (int v = 0; v < n; v++) {
+                order[fill[colour[v]]++] = v;
+            }
+        } else {
+            order = new int[n];
+            for (int v = 0; v < n; v++) {
+                order[v] = v;
+            }
+            classes = new int[]{0, n};
+        }
+
+        this.pool = new ForkJoinPool(this.threads);
+        try {
+            boolean changed = false;
+            double modularity = modularity();
+            int moves;
+            double improvement;
+            do {
+                moves = 0;
+                for (int c = 0; c + 1 < classes.length; c++) {
+                    moves += move(order, classes[c], classes[c + 1]);
+                }
+                double newModularity = modularity();
+                improvement = newModularity - modularity;
+                modularity = newModularity;
+                changed |= moves > 0;
+            } while (moves > 0 && improvement > LocalMoving.MIN_IMPROVEMENT);
+            return changed;
+        } finally {
+            this.pool.shutdown();
+            this.pool = null;
+        }
+    }
+
+    /**
+     * The work on some nodes, split in chunks among the threads.
+     */
+    private interface Work {
+
+        /**
+         * @param from the first position in the order.
+         * @param to the position after the last one.
+         * @param links the accumulator of the thread.
+         * @return the number to add up over all chunks.
+         */
+        double run(int from, int to, Links links);
+    }
+
+    /**
+     * Run some work on the positions from .. to of the order on every
+     * thread, or on the calling thread if there are too few nodes.
+     * @return the sum of the results of the chunks.
+     */
+    private double parallel(final int from, final int to, final Work work) {
+        if (this.pool == null || this.threads == 1 || to - from <= CHUNK) {
+            return work.run(from, to, this.links[0]);
+        }
+
+        final AtomicInteger next = new AtomicInteger(from);
+        List<Callable<Double>> tasks = new ArrayList<Callable<Double>>(this.threads);
+        for (final Links local : this.links) {
+            tasks.add(new Callable<Double>() {
+                @Override
+                public Double call() {
+                    double sum = 0;
+                    int start;
+                    while ((start = next.getAndAdd(CHUNK)) < to) {
+                        sum += work.run(start, Math.min(start + CHUNK, to), local);
+                    }
+                    return sum;
+                }
+            });
+        }
+
+        try {
+            double sum = 0;
+            for (Future<Double> f : this.pool.invokeAll(tasks)) {
+                sum += f.get();
+            }
+            return sum;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    /**
+     * Move some nodes to their best community.
+     * @return the number of moved nodes.
+     */
+    private int move(final int[] order, int from, int to) {
+        return (int) parallel(from, to, new Work() {
+            @Override
+            public double run(int from, int to, Links links) {
+                int moves = 0;
+                for (int i = from; i < to; i++) {
+                    int v = order[i];
+                    int own = community[v];
+                    int best = best(v, links);
+                    if (best != own) {
+                        double degree = graph.getDegree(v);
+                        add(own, -degree);
+                        add(best, degree);
+                        sizes.decrementAndGet(own);
+                        sizes.incrementAndGet(best);
+                        community[v] = best;
+                        moves++;
+                    }
+                }
+                return moves;
+            }
+        });
+    }
+
+    /**
+     * @return the community with the largest modularity gain for a node, its
+     * own in case of a tie.
+     */
+    private int best(int v, Links links) {
+        int[] neighbours = this.graph.getNeighbours();
+        double[] weights = this.graph.getWeights();
+        int own = this.community[v];
+        double degree = this.graph.getDegree(v);
+        double m2 = 2 * this.graph.getTotalWeight();
+
+        links.weight[own] = 0;
+        links.linked[links.count++] = own;
+        for (int i = this.graph.getStart(v); i < this.graph.getEnd(v); i++) {
+            int c = this.community[neighbours[i]];
+            if (links.weight[c] < 0) {
+                links.weight[c] = 0;
+                links.linked[links.count++] = c;
+            }
+            links.weight[c] += weights[i];
+        }
+
+        // The gain of the own community is found as if the node was taken
+        // out of it first.
+        int best = own;
+        double bestGain = links.weight[own] - (total(own) - degree) * degree / m2;
+        boolean alone = this.sizes.get(own) == 1;
+        for (int i = 1; i < links.count; i++) {
+            int c = links.linked[i];
+            if (alone && c > own && this.sizes.get(c) == 1) {
+                // Two single nodes would only swap their communities.
+                continue;
+            }
+            double gain = links.weight[c] - total(c) * degree / m2;
+            if (gain > bestGain) {
+                bestGain = gain;
+                best = c;
+            }
+        }
+
+        links.clear();
+        return best;
+    }
+
+    private double total(int c) {
+        return Double.longBitsToDouble(this.totals.get(c));
+    }
+
+    /**
+     * Add to the sigma tot of a community.
+     */
+    private void add(int c, double delta) {
+        long old;
+        do {
+            old = this.totals.get(c);
+        } while (!this.totals.compareAndSet(c, old, Double.doubleToRawLongBits(Double.longBitsToDouble(old) + delta)));
+    }
+
+    /**
+     * Colour the nodes greedily, every node takes the smallest colour that
+     * none of its neighbours has.
+     * @param colour where to write the colour of every node.
+     * @return the number of colours.
+     */
+    private int colour(int[] colour) {
+        int n = this.graph.getNodeCount();
+        int[] neighbours = this.graph.getNeighbours();
+        Arrays.fill(colour, -1);
+        // used[c] == v if a neighbour of v has the colour c.
+        int[] used = new int[n + 1];
+        Arrays.fill(used, -1);
+        int colours = 0;
+        for (int v = 0; v < n; v++) {
+            for (int i = this.graph.getStart(v); i < this.graph.getEnd(v); i++) {
+                if (colour[neighbours[i]] >= 0) {
+                    used[colour[neighbours[i]]] = v;
+                }
+            }
+            int c = 0;
+            while (used[c] == v) {
+                c++;
+            }
+            colour[v] = c;
+            colours = Math.max(colours, c + 1);
+        }
+        return colours;
+    }
+
+    /**
+     * @return the modularity of the current communities. The weight inside
+     * the communities is summed up again from the edges.
+     */
+    public double modularity() {
+        final double m2 = 2 * this.graph.getTotalWeight();
+        if (m2 == 0) {
+            return 0;
+        }
+        double inner = parallel(0, this.graph.getNodeCount(), new Work() {
+            @Override
+            public double run(int from, int to, Links links) {
+                int[] neighbours = graph.getNeighbours();
+                double[] weights = graph.getWeights();
+                double sum = 0;
+                for (int v = from; v < to; v++) {
+                    sum += 2 * graph.getLoop(v);
+                    for (int i = graph.getStart(v); i < graph.getEnd(v); i++) {
+                        if (community[neighbours[i]] == community[v]) {
+                            sum += weights[i];
+                        }
+                    }
+                }
+                return sum;
+            }
+        });
+
+        double q = inner / m2;
+        for (int c = 0; c < this.totals.length(); c++) {
+            double total = total(c);
+            q -= (total / m2) * (total / m2);
+        }
+        return q;
+    }
+
+    /**
+     * @return the community of every node, a community is named after one of
+     * the nodes that started in it.
+     */
+    public int[] getCommunities() {
+        return this.community;
+    }
+}
@@ -0,0 +1,212 @@
+package th.algorithms.louvain.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The refinement phase of Leiden, between the local moving and the folding.
+ * Every node starts alone and the nodes are merged only inside their
+ * community of the local moving. A node is merged only while it is still
+ * alone, only if it is well connected to its community, and only into a
+ * well connected refined community it has edges to, chosen at random with a
+ * probability that grows with the gain. So every refined community is a
+ * connected part of a community, and folding the refined communities instead
+ * of the moved ones keeps the communities of every level connected.
+ * @reference From Louvain to Leiden: guaranteeing well-connected communities
+ *            V. A. Traag, L. Waltman and N. J. van Eck.
+ * @author Ilias Trichopoulos <itrichop@csd.auth.gr>
+ */
+public class Refinement {
+
+    /**
+     * The randomness of the choices used by Leiden.
+     */
+    public static final double RANDOMNESS = 0.01;
+
+    private final WeightedGraph graph;
+    private final int[] partition;
+    private final double randomness;
+    private final Random random;
+
+    private final int[] refined;
+    private final int[] sizes;       // the number of nodes of every refined community
+    private final double[] totals;   // sigma tot of every refined community
+    private final double[] outside;  // the weight from a refined community to the
+    // rest of its community
+    private final double[] partitionTotals; // sigma tot of every community
+
+    // The weight from the current node to every refined community it is
+    // linked to, -1 for the others, as in LocalMoving.
+    private final double[] linkWeight;
+    private final int[] linked;
+    private int linkedCount;
+    private double[] chance;
+
+    /**
+     * @param graph the graph.
+     * @param partition the community of every node after the local moving,
+     * smaller than the number of nodes.
+     * @param randomness how far the choice of a refined community may stray
+     * from the best gain, in edge weight. 0 always takes the best one.
+     * @param random the source of the order of the nodes and of the choices.
+     */
+    public Refinement(WeightedGraph graph, int[] partition, double randomness, Random random) {
+        this.graph = graph;
+        this.partition = partition;
+        this.randomness = randomness;
+        this.random = random;
+
+        int n = graph.getNodeCount();
+        int[] neighbours = graph.getNeighbours();
+        double[] weights = graph.getWeights();
+        this.refined = new int[n];
+        this.sizes = new int[n];
+        this.totals = new double[n];
+        this.outside = new double[n];
+        this.partitionTotals = new double[n];
+        for (int v = 0; v < n; v++) {
+            this.refined[v] = v;
+            this.sizes[v] = 1;
+            this.totals[v] = graph.getDegree(v);
+            this.partitionTotals[partition[v]] += graph.getDegree(v);
+            for (int i = graph.getStart(v); i < graph.getEnd(v); i++) {
+                if (partition[neighbours[i]] == partition[v]) {
+                    this.outside[v] += weights[i];
+                }
+            }
+        }
+        this.linkWeight = new double[n];
+        Arrays.fill(this.linkWeight, -1);
+        this.linked = new int[n];
+        this.chance = new double[16];
+    }
+
+    /**
+     * Visit every node once, in random order.
+     * @return the refined community of every node, named after one of its
+     * nodes.
+     */
+    public int[] run() {
+        int n = this.graph.getNodeCount();
+        if (this.graph.getTotalWeight() == 0) {
+            return this.refined;
+        }
+        int[] order = new int[n];
+        for (int v = 0; v < n; v++) {
+            order[v] = v;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = this.random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        for (int v : order) {
+            merge(v);
+        }
+        return this.refined;
+    }
+
+    /**
+     * Merge a node into a refined community of its community, if it is still
+     * alone.
+     */
+    private void merge(int v) {
+        int own = this.refined[v];
+        if (this.sizes[own] > 1) {
+            return;
+        }
+        double m2 = 2 * this.graph.getTotalWeight();
+        double degree = this.graph.getDegree(v);
+        double total = this.partitionTotals[this.partition[v]];
+        // Only a node that is well connected to its community is merged,
+        // outside[own] is still the weight from the node to the community.
+        double weightToCommunity = this.outside[own];
+        if (weightToCommunity < degree * (total - degree) / m2) {
+            return;
+        }
+
+        int[] neighbours = this.graph.getNeighbours();
+        double[] weights = this.graph.getWeights();
+        this.linkedCount = 0;
+        for (int i = this.graph.getStart(v); i < this.graph.getEnd(v); i++) {
+            int u = neighbours[i];
+            if (this.partition[u] != this.partition[v]) {
+                continue;
+            }
+            int c = this.refined[u];
+            if (this.linkWeight[c] < 0) {
+                this.linkWeight[c] = 0;
+                this.linked[this.linkedCount++] = c;
+            }
+            this.linkWeight[c] += weights[i];
+        }
+
+        // The candidates are the well connected refined communities with a
+        // gain that is not negative, staying alone gains 0.
+        if (this.chance.length < this.linkedCount) {
+            this.chance = new double[Math.max(this.linkedCount, 2 * this.chance.length)];
+        }
+        int best = own;
+        double bestGain = 0;
+        for (int i = 0; i < this.linkedCount; i++) {
+            int c = this.linked[i];
+            double gain = this.linkWeight[c] - this.totals[c] * degree / m2;
+            boolean connected = this.outside[c] >= this.totals[c] * (total - this.totals[c]) / m2;
+            this.chance[i] = connected && gain >= 0 ? gain : Double.NaN;
+            if (connected && gain > bestGain) {
+                bestGain = gain;
+                best = c;
+            }
+        }
+
+        int target = best;
+        if (this.randomness > 0 && best != own) {
+            target = choose(bestGain);
+        }
+        if (target != own) {
+            double weight = this.linkWeight[target];
+            this.sizes[own] = 0;
+            this.totals[own] = 0;
+            this.outside[own] = 0;
+            this.sizes[target]++;
+            this.totals[target] += degree;
+            // The edges from the node to the target are now inside it.
+            this.outside[target] += weightToCommunity - 2 * weight;
+            this.refined[v] = target;
+        }
+
+        for (int i = 0; i < this.linkedCount; i++) {
+            this.linkWeight[this.linked[i]] = -1;
+        }
+        this.linkedCount = 0;
+    }
+
+    /**
+     * Pick a candidate with a probability proportional to
+     * exp(gain / randomness), the best gain taken out first so the
+     * exponentials do not overflow.
+     * @param bestGain the largest gain of the candidates.
+     * @return the chosen refined community.
+     */
+    private int choose(double bestGain) {
+        double sum = 0;
+        for (int i = 0; i < this.linkedCount; i++) {
+            double gain = this.chance[i];
+            this.chance[i] = Double.isNaN(gain) ? 0 : Math.exp((gain - bestGain) / this.randomness);
+            sum += this.chance[i];
+        }
+        double r = this.random.nextDouble() * sum;
+        int last = -1;
+        for (int i = 0; i < this.linkedCount; i++) {
+            if (this.chance[i] > 0) {
+                last = i;
+                r -= this.chance[i];
+                if (r < 0) {
+                    break;
+                }
+            }
+        }
+        return this.linked[last];
+    }
+}
@@ -0,0 +1,300 @@
+package th.algorithms.louvain.utils;
+
+import java.util.Arrays;
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Graph;
+
+/**
+ * An int indexed copy of a weighted, undirected graph in compressed sparse row
+ * form, used by the Louvain engine instead of the GraphStream nodes. The
+ * neighbours of node <b>v</b> are in
+ * <code>neighbours[offsets[v] .. offsets[v + 1])</code> with the weights in the
+ * same positions of <code>weights</code>. A self-loop is not a neighbour, its
+ * weight is kept apart and counts twice in the degree of the node, so a node
+ * that stands for a community keeps the degree of the community.
+ * @author Ilias Trichopoulos <itrichop@csd.auth.gr>
+ */
+public class WeightedGraph {
+
+    private final int[] offsets;
+    private final int[] neighbours;
+    private final double[] weights;
+    private final double[] loops;
+    private final double[] degrees;
+    private final double totalWeight;
+    private final String[] ids;
+
+    /**
+     * @param offsets where the neighbours of every node start, plus the end.
+     * @param neighbours the neighbour lists, one after the other.
+     * @param weights the weight of every neighbour entry.
+     * @param loops the self-loop weight of every node.
+     * @param ids the id of every node.
+     */
+    public WeightedGraph(int[] offsets, int[] neighbours, double[] weights, double[] loops, String[] ids) {
+        this.offsets = offsets;
+        this.neighbours = neighbours;
+        this.weights = weights;
+        this.loops = loops;
+        this.ids = ids;
+
+        // The weighted degree of every node and the total weight m of the
+        // edges. Every edge is in two lists, every self-loop only once.
+        int n = ids.length;
+        this.degrees = new double[n];
+        double total = 0;
+        for (int v = 0; v < n; v++) {
+            double degree = 2 * loops[v];
+            for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                degree += weights[i];
+            }
+            this.degrees[v] = degree;
+            total += degree;
+        }
+        this.totalWeight = total / 2;
+    }
+
+    /**
+     * Copy a GraphStream graph. Parallel edges are merged into one with the
+     * sum of their weights.
+     * @param graph the graph to copy.
+     * @param weightAttribute the edge attribute with the weight, an edge
+     * without it weighs 1.
+     * @return the copy, node <b>v</b> is the node with index <b>v</b>.
+     */
+    public static WeightedGraph freeze(Graph graph, String weightAttribute) {
+        int n = graph.getNodeCount();
+        String[] ids = new String[n];
+        for (int v = 0; v < n; v++) {
+            ids[v] = graph.getNode(v).getId();
+        }
+
+        // Count the edges of every node to find where its list starts.
+        int[] offsets = new int[n + 1];
+        for (Edge edge : graph.getEachEdge()) {
+            int u = edge.getNode0().getIndex(), v = edge.getNode1().getIndex();
+            if (u != v) {
+                offsets[u + 1]++;
+                offsets[v + 1]++;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+
+        int[] fill = Arrays.copyOf(offsets, n);
+        int[] neighbours = new int[offsets[n]];
+        double[] weights = new double[offsets[n]];
+        double[] loops = new double[n];
+        for (Edge edge : graph.getEachEdge()) {
+            int u = edge.getNode0().getIndex(), v = edge.getNode1().getIndex();
+            double weight = weightOf(edge, weightAttribute);
+            if (u == v) {
+                loops[u] += weight;
+            } else {
+                neighbours[fill[u]] = v;
+                weights[fill[u]++] = weight;
+                neighbours[fill[v]] = u;
+                weights[fill[v]++] = weight;
+            }
+        }
+
+        return merge(offsets, neighbours, weights, loops, ids);
+    }
+
+    /**
+     * Merge the entries of the same neighbour in every list and drop the gaps.
+     */
+    private static WeightedGraph merge(int[] offsets, int[] neighbours, double[] weights, double[] loops,
+            String[] ids) {
+        int n = ids.length;
+        // Where the neighbour was put in the list of the current node.
+        int[] position = new int[n];
+        Arrays.fill(position, -1);
+
+        int size = 0;
+        int start = 0;
+        for (int v = 0; v < n; v++) {
+            int end = offsets[v + 1];
+            offsets[v] = size;
+            for (int i = start; i < end; i++) {
+                int u = neighbours[i];
+                if (position[u] >= offsets[v]) {
+                    weights[position[u]] += weights[i];
+                } else {
+                    position[u] = size;
+                    neighbours[size] = u;
+                    weights[size++] = weights[i];
+                }
+            }
+            start = end;
+        }
+        offsets[n] = size;
+
+        return new WeightedGraph(offsets, Arrays.copyOf(neighbours, size), Arrays.copyOf(weights, size), loops,
+                ids);
+    }
+
+    /**
+     * Fold the graph, every community becomes a node. The weight between two
+     * communities is the sum of the weights of the edges between their nodes,
+     * and the weight of the edges inside a community, self-loops included,
+     * becomes the self-loop of its node, so the modularity of the communities
+     * stays the same. The members are sorted by community first, then the
+     * lists of every community are built in one pass over their edges.
+     * @param community the community of every node, numbered from 0 without
+     * gaps.
+     * @return the folded graph, node <b>c</b> is community <b>c</b>.
+     */
+    public WeightedGraph fold(int[] community) {
+        int n = getNodeCount();
+        int k = 0;
+        for (int v = 0; v < n; v++) {
+            k = Math.max(k, community[v] + 1);
+        }
+
+        // The nodes of community c are members[first[c] .. first[c + 1]).
+        int[] first = new int[k + 1];
+        for (int v = 0; v < n; v++) {
+            first[community[v] + 1]++;
+        }
+        for (int c = 0; c < k; c++) {
+            first[c + 1] += first[c];
+        }
+        int[] members = new int[n];
+        int[] fill = Arrays.copyOf(first, k);
+        for (int v = 0; v < n; v++) {
+            members[fill[community[v]]++] = v;
+        }
+
+        // A community has at most as many neighbours as its nodes have
+        // entries, so the lists fit in arrays as long as the current ones.
+        int[] foldedOffsets = new int[k + 1];
+        int[] foldedNeighbours = new int[this.neighbours.length];
+        double[] foldedWeights = new double[this.neighbours.length];
+        double[] foldedLoops = new double[k];
+        String[] foldedIds = new String[k];
+        // Where the neighbouring community was put in the list of the current
+        // one, positions before the start of the list are stale.
+        int[] position = new int[k];
+        Arrays.fill(position, -1);
+
+        int size = 0;
+        for (int c = 0; c < k; c++) {
+            foldedOffsets[c] = size;
+            foldedIds[c] = String.valueOf(c);
+            double inside = 0;
+            for (int j = first[c]; j < first[c + 1]; j++) {
+                int v = members[j];
+                inside += 2 * this.loops[v];
+                for (int i = this.offsets[v]; i < this.offsets[v + 1]; i++) {
+                    int d = community[this.neighbours[i]];
+                    if (d == c) {
+                        inside += this.weights[i];
+                    } else if (position[d] >= foldedOffsets[c]) {
+                        foldedWeights[position[d]] += this.weights[i];
+                    } else {
+                        position[d] = size;
+                        foldedNeighbours[size] = d;
+                        foldedWeights[size++] = this.weights[i];
+                    }
+                }
+            }
+            // Every inner edge was met from both ends.
+            foldedLoops[c] = inside / 2;
+        }
+        foldedOffsets[k] = size;
+
+        return new WeightedGraph(foldedOffsets, Arrays.copyOf(foldedNeighbours, size),
+                Arrays.copyOf(foldedWeights, size), foldedLoops, foldedIds);
+    }
+
+    /**
+     * @param edge the edge.
+     * @param weightAttribute the attribute with the weight.
+     * @return the weight of the edge, 1 if it has none.
+     */
+    public static double weightOf(Edge edge, String weightAttribute) {
+        Object weight = edge.getAttribute(weightAttribute);
+        if (weight == null) {
+            return 1.0;
+        }
+        if (weight instanceof Number) {
+            return ((Number) weight).doubleValue();
+        }
+        return Double.parseDouble(weight.toString());
+    }
+
+    /**
+     * @return the number of nodes.
+     */
+    public int getNodeCount() {
+        return this.ids.length;
+    }
+
+    /**
+     * @param v the node.
+     * @return the position of the first neighbour of the node in
+     * {@link #getNeighbours()}.
+     */
+    public int getStart(int v) {
+        return this.offsets[v];
+    }
+
+    /**
+     * @param v the node.
+     * @return the position after the last neighbour of the node in
+     * {@link #getNeighbours()}.
+     */
+    public int getEnd(int v) {
+        return this.offsets[v + 1];
+    }
+
+    /**
+     * The shared neighbour array. It must not be modified.
+     * @return all neighbour lists, one after the other.
+     */
+    public int[] getNeighbours() {
+        return this.neighbours;
+    }
+
+    /**
+     * The shared weight array. It must not be modified.
+     * @return the weight of every entry of {@link #getNeighbours()}.
+     */
+    public double[] getWeights() {
+        return this.weights;
+    }
+
+    /**
+     * @param v the node.
+     * @return the weight of the self-loop of the node, 0 if it has none.
+     */
+    public double getLoop(int v) {
+        return this.loops[v];
+    }
+
+    /**
+     * @param v the node.
+     * @return the sum of the weights of the edges of the node, the self-loop
+     * counted twice.
+     */
+    public double getDegree(int v) {
+        return this.degrees[v];
+    }
+
+    /**
+     * @return the total weight m of the edges of the graph.
+     */
+    public double getTotalWeight() {
+        return this.totalWeight;
+    }
+
+    /**
+     * @param v the node.
+     * @return the id of the node.
+     */
+    public String getId(int v) {
+        return this.ids[v];
+    }
+}
@@ -0,0 +1,173 @@
+package th.algorithms.propinquitydynamics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Watches the Phase 2 loops of {@link PropinquityDynamics} and decides when
+ * to stop. Besides <b>e</b> it gets a fingerprint of the topology after every
+ * loop, the XOR of {@link #edge(int, int)} over all the <b>Nr</b> entries. The
+ * propinquity follows from the topology, so if a fingerprint comes back the
+ * loops have entered a cycle and will never reach <b>e</b> == 0. If the
+ * smallest <b>e</b> does not get smaller for a number of loops the run is on
+ * a plateau and we stop as well.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class ConvergenceMonitor {
+
+    /**
+     * How many loops without a new smallest <b>e</b> make a plateau.
+     */
+    public static final int DEFAULT_PATIENCE = 10;
+
+    public enum Reason {
+
+        /**
+         * Still running.
+         */
+        RUNNING,
+        /**
+         * <b>e</b> reached 0.
+         */
+        CONVERGED,
+        /**
+         * A topology came back.
+         */
+        CYCLE,
+        /**
+         * The smallest <b>e</b> did not get smaller for too long.
+         */
+        PLATEAU,
+        /**
+         * The loops ran out.
+         */
+        MAX_ITERATIONS
+    }
+
+    private final int maxIterations;
+    private final int patience;
+    private final Map<Long, Integer> seen = new HashMap<Long, Integer>();
+    private int[] history = new int[16];
+    private int iterations = 0;
+    private int bestIteration = 0;
+    private int bestE = Integer.MAX_VALUE;
+    private int cyclePeriod = 0;
+    private Reason reason = Reason.RUNNING;
+
+    /**
+     * @param maxIterations the most Phase 2 loops to run
+     * @param patience      how many loops without a new smallest <b>e</b>
+     *                      make a plateau
+     */
+    public ConvergenceMonitor(int maxIterations, int patience) {
+        this.maxIterations = maxIterations;
+        this.patience = patience;
+    }
+
+    /**
+     * The fingerprint of one <b>Nr</b> entry, v is in the <b>Nr</b> of u.
+     *
+     * @return a well mixed 64 bit value of the pair
+     */
+    public static long edge(int u, int v) {
+        long z = ((long) u << 32 | (v & 0xffffffffL)) + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Remember the topology before the first loop.
+     *
+     * @param fingerprint the fingerprint after {@link PropinquityDynamics#init}
+     */
+    public void start(long fingerprint) {
+        this.seen.put(fingerprint, 0);
+    }
+
+    /**
+     * Record one Phase 2 loop.
+     *
+     * @param e           the changes of the loop
+     * @param fingerprint the fingerprint of the topology after it
+     *
+     * @return true if another loop should run
+     */
+    public boolean update(int e, long fingerprint) {
+        this.iterations++;
+        if (this.iterations > this.history.length) {
+            this.history = Arrays.copyOf(this.history, this.history.length * 2);
+        }
+        this.history[this.iterations - 1] = e;
+
+        if (e < this.bestE) {
+            this.bestE = e;
+            this.bestIteration = this.iterations;
+        }
+
+        Integer before = this.seen.put(fingerprint, this.iterations);
+        if (e == 0) {
+            this.reason = Reason.CONVERGED;
+        } else if (before != null) {
+            this.reason = Reason.CYCLE;
+            this.cyclePeriod = this.iterations - before;
+        } else if (this.iterations - this.bestIteration >= this.patience) {
+            this.reason = Reason.PLATEAU;
+        } else if (this.iterations >= this.maxIterations) {
+            this.reason = Reason.MAX_ITERATIONS;
+        }
+        return this.reason == Reason.RUNNING;
+    }
+
+    /**
+     * @return why the loops stopped, {@link Reason#RUNNING} if they did not
+     */
+    public Reason getReason() {
+        return this.reason;
+    }
+
+    /**
+     * @return the number of recorded loops
+     */
+    public int getIterations() {
+        return this.iterations;
+    }
+
+    /**
+     * @return the first loop with the smallest <b>e</b>
+     */
+    public int getBestIteration() {
+        return this.bestIteration;
+    }
+
+    /**
+     * @return the smallest <b>e</b>
+     */
+    public int getBestE() {
+        return this.bestE;
+    }
+
+    /**
+     * @return the length of the cycle, 0 if there is none
+     */
+    public int getCyclePeriod() {
+        return this.cyclePeriod;
+    }
+
+    /**
+     * @return <b>e</b> of every recorded loop
+     */
+    public int[] getHistory() {
+        return Arrays.copyOf(this.history, this.iterations);
+    }
+
+    @Override
+    public String toString() {
+        return "Stopped: " + this.reason + " after " + this.iterations + " iterations"
+                + (this.cyclePeriod > 0 ? ", cycle of " + this.cyclePeriod : "")
+                + ", best e " + this.bestE + " at iteration " + this.bestIteration
+                + ", e " + Arrays.toString(getHistory());
+    }
+}
@@ -0,0 +1,364 @@
+package th.algorithms.propinquitydynamics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import th.algorithms.propinquitydynamics.utils.PropinquityStore;
+
+/**
+ * The state of Propinquity Dynamics between two Phase 2 loops in a compact
+ * binary file. <b>Ni</b> and <b>Nd</b> are empty between the loops, so a
+ * vertex needs only its id, its <b>Nr</b> and its propinquity map. The sorted
+ * neighbours and the sorted keys of the propinquity are written as varint
+ * gaps and the propinquity as zigzag varints, so most numbers take one byte.
+ * <pre>
+ * "PDCK" version a b e fingerprint symmetric vertices
+ * for every vertex:
+ *   idLength + 1 (0 for a removed vertex) id
+ *   |Nr| gaps of Nr
+ *   |pm| (gap of key, propinquity) ...
+ * </pre>
+ * A symmetric state (see {@link PropinquitySnapshot#setSymmetric(boolean)})
+ * writes only the pairs of a vertex with larger vertices. Version 1 files
+ * have no symmetric flag and hold both halves.
+ * The file is written next to its final place and renamed at the end, so a
+ * crash while writing leaves the previous checkpoint intact.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class PropinquityCheckpoint {
+
+    private static final int MAGIC = 0x5044434B;
+    private static final int VERSION = 2;
+    private static final int BUFFER = 1 << 20;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int a, b, e;
+    private final PropinquitySnapshot state;
+
+    private PropinquityCheckpoint(int a, int b, int e, PropinquitySnapshot state) {
+        this.a = a;
+        this.b = b;
+        this.e = e;
+        this.state = state;
+    }
+
+    /**
+     * Save a state.
+     *
+     * @param file  where to write
+     * @param state the state after a Phase 2 loop
+     * @param a     the deletion threshold
+     * @param b     the insertion threshold
+     * @param e     the changes of the last loop
+     *
+     * @throws IOException if the file can not be written
+     */
+    public static void write(File file, PropinquitySnapshot state, int a, int b, int e) throws IOException {
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(file.getName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Encoder out = new Encoder(channel);
+            PropinquityStore pm = state.getStore();
+            int n = state.getVertexCount();
+            long[] pairs = new long[16];
+
+            out.putInt(MAGIC);
+            out.putVarint(VERSION);
+            out.putZigzag(a);
+            out.putZigzag(b);
+            out.putZigzag(e);
+            out.putLong(state.getFingerprint());
+            out.putVarint(state.isSymmetric() ? 1 : 0);
+            out.putVarint(n);
+
+            for (int v = 0; v < n; v++) {
+                String id = state.getId(v);
+                if (id == null) {
+                    out.putVarint(0);
+                    continue;
+                }
+                byte[] bytes = id.getBytes(UTF8);
+                out.putVarint(bytes.length + 1);
+                out.putBytes(bytes);
+
+                int[] Nr = state.getNr(v);
+                out.putVarint(Nr.length);
+                int last = 0;
+                for (int u : Nr) {
+                    out.putVarint(u - last);
+                    last = u;
+                }
+
+                // The keys are not negative, so the pairs sort by key
+                int size = 0;
+                if (pairs.length < pm.size(v)) {
+                    pairs = new long[Math.max(pm.size(v), pairs.length * 2)];
+                }
+                PropinquityStore.Cursor row = pm.cursor(v);
+                while (row.next()) {
+                    pairs[size++] = (long) row.key() << 32 | (row.value() & 0xffffffffL);
+                }
+                Arrays.sort(pairs, 0, size);
+
+                out.putVarint(size);
+                last = 0;
+                for (int i = 0; i < size; i++) {
+                    int key = (int) (pairs[i] >>> 32);
+                    out.putVarint(key - last);
+                    out.putZigzag((int) pairs[i]);
+                    last = key;
+                }
+            }
+            out.flush();
+            channel.force(false);
+        }
+
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load a state.
+     *
+     * @param file      the checkpoint
+     * @param workers   the number of threads for the restored state
+     * @param pm        an empty store for the propinquity maps, it grows to
+     *                  the saved vertices
+     * @param symmetric true to keep only the canonical half of the pairs in
+     *                  the restored state, whatever the file holds
+     *
+     * @return the thresholds, the last <b>e</b> and the restored state
+     *
+     * @throws IOException if the file can not be read or is not a checkpoint
+     */
+    public static PropinquityCheckpoint read(File file, int workers, PropinquityStore pm, boolean symmetric)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Decoder in = new Decoder(channel);
+
+            long version = in.getInt() == MAGIC ? in.getVarint() : -1;
+            if (version < 1 || version > VERSION) {
+                throw new IOException(file + " is not a propinquity checkpoint");
+            }
+            int a = in.getZigzag();
+            int b = in.getZigzag();
+            int e = in.getZigzag();
+            long fingerprint = in.getLong();
+            boolean half = version > 1 && in.getVarint() == 1;
+            int n = (int) in.getVarint();
+
+            String[] ids = new String[n];
+            int[][] Nr = new int[n][];
+            pm.grow(n);
+            // A half file restored to both halves also writes to the maps of
+            // the vertices after v, so they all exist from the start
+            boolean mirror = half && !symmetric;
+            if (mirror) {
+                for (int v = 0; v < n; v++) {
+                    pm.create(v, 16);
+                }
+            }
+            for (int v = 0; v < n; v++) {
+                int length = (int) in.getVarint();
+                if (length == 0) {
+                    continue;
+                }
+                ids[v] = new String(in.getBytes(length - 1), UTF8);
+
+                Nr[v] = new int[(int) in.getVarint()];
+                int last = 0;
+                for (int i = 0; i < Nr[v].length; i++) {
+                    last += (int) in.getVarint();
+                    Nr[v][i] = last;
+                }
+
+                int size = (int) in.getVarint();
+                if (!mirror) {
+                    pm.create(v, size);
+                }
+                last = 0;
+                for (int i = 0; i < size; i++) {
+                    last += (int) in.getVarint();
+                    int value = in.getZigzag();
+                    if (mirror) {
+                        pm.add(v, last, value);
+                        pm.add(last, v, value);
+                    } else if (!symmetric || last > v) {
+                        pm.add(v, last, value);
+                    }
+                }
+            }
+
+            if (mirror) {
+                for (int v = 0; v < n; v++) {
+                    if (ids[v] == null) {
+                        pm.release(v);
+                    }
+                }
+            }
+
+            PropinquitySnapshot state = new PropinquitySnapshot(ids, Nr, workers, pm, fingerprint);
+            state.setSymmetric(symmetric);
+            return new PropinquityCheckpoint(a, b, e, state);
+        }
+    }
+
+    public int getA() {
+        return this.a;
+    }
+
+    public int getB() {
+        return this.b;
+    }
+
+    /**
+     * @return the changes of the loop before the checkpoint
+     */
+    public int getE() {
+        return this.e;
+    }
+
+    /**
+     * @return the restored state
+     */
+    public PropinquitySnapshot getState() {
+        return this.state;
+    }
+
+    /**
+     * Buffered writer of varints to a channel.
+     */
+    private static class Encoder {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+
+        Encoder(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (this.buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            this.buffer.flip();
+            while (this.buffer.hasRemaining()) {
+                this.channel.write(this.buffer);
+            }
+            this.buffer.clear();
+        }
+
+        void putInt(int x) throws IOException {
+            ensure(4);
+            this.buffer.putInt(x);
+        }
+
+        void putLong(long x) throws IOException {
+            ensure(8);
+            this.buffer.putLong(x);
+        }
+
+        /**
+         * Seven bits per byte, the high bit says that more bytes follow.
+         */
+        void putVarint(long x) throws IOException {
+            ensure(10);
+            while ((x & ~0x7FL) != 0) {
+                this.buffer.put((byte) ((x & 0x7F) | 0x80));
+                x >>>= 7;
+            }
+            this.buffer.put((byte) x);
+        }
+
+        /**
+         * Small negative numbers become small positive ones.
+         */
+        void putZigzag(int x) throws IOException {
+            putVarint(((x << 1) ^ (x >> 31)) & 0xffffffffL);
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            for (int i = 0; i < bytes.length; i += BUFFER) {
+                int length = Math.min(BUFFER, bytes.length - i);
+                ensure(length);
+                this.buffer.put(bytes, i, length);
+            }
+        }
+    }
+
+    /**
+     * Buffered reader of varints from a channel.
+     */
+    private static class Decoder {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+
+        Decoder(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.buffer.flip();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (this.buffer.remaining() >= bytes) {
+                return;
+            }
+            this.buffer.compact();
+            while (this.buffer.position() < bytes) {
+                if (this.channel.read(this.buffer) < 0) {
+                    throw new IOException("Unexpected end of checkpoint");
+                }
+            }
+            this.buffer.flip();
+        }
+
+        int getInt() throws IOException {
+            ensure(4);
+            return this.buffer.getInt();
+        }
+
+        long getLong() throws IOException {
+            ensure(8);
+            return this.buffer.getLong();
+        }
+
+        long getVarint() throws IOException {
+            long x = 0;
+            for (int shift = 0;; shift += 7) {
+                ensure(1);
+                byte next = this.buffer.get();
+                x |= (long) (next & 0x7F) << shift;
+                if (next >= 0) {
+                    return x;
+                }
+            }
+        }
+
+        int getZigzag() throws IOException {
+            int x = (int) getVarint();
+            return (x >>> 1) ^ -(x & 1);
+        }
+
+        byte[] getBytes(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i += BUFFER) {
+                int chunk = Math.min(BUFFER, length - i);
+                ensure(chunk);
+                this.buffer.get(bytes, i, chunk);
+            }
+            return bytes;
+        }
+    }
+}
@@ -1,35 +1,79 @@
 package th.algorithms.propinquitydynamics;
 
 import com.google.common.collect.Sets;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.graphstream.algorithm.Algorithm;
 import org.graphstream.algorithm.measure.NormalizedMutualInformation;
 import org.graphstream.graph.Edge;
+import org.graphstream.graph.Element;
 import org.graphstream.graph.Graph;
 import org.graphstream.graph.Node;
+import org.graphstream.stream.ElementSink;
 import static th.algorithms.propinquitydynamics.utils.CalculationTable.CalculateCdd;
 import static th.algorithms.propinquitydynamics.utils.CalculationTable.CalculateCii;
 import static th.algorithms.propinquitydynamics.utils.CalculationTable.CalculateCrd;
 import static th.algorithms.propinquitydynamics.utils.CalculationTable.CalculateCri;
 import static th.algorithms.propinquitydynamics.utils.CalculationTable.CalculateCrr;
-import th.algorithms.propinquitydynamics.utils.MutableInt;
+import th.algorithms.propinquitydynamics.metrics.PhaseMetrics;
+import th.algorithms.propinquitydynamics.metrics.PropinquityListener;
+import th.algorithms.propinquitydynamics.metrics.PropinquityMetrics;
+import th.algorithms.propinquitydynamics.metrics.SuperstepMetrics;
+import th.algorithms.propinquitydynamics.trace.TraceReader;
+import th.algorithms.propinquitydynamics.trace.TraceRecorder;
+import th.algorithms.propinquitydynamics.utils.CSRGraph;
+import th.algorithms.propinquitydynamics.utils.HeapPropinquityStore;
+import th.algorithms.propinquitydynamics.utils.MappedPropinquityStore;
 import th.algorithms.propinquitydynamics.utils.PropinquityMap;
+import th.algorithms.propinquitydynamics.utils.PropinquityStore;
+import th.algorithms.propinquitydynamics.utils.ThreadAllocation;
 import th.utils.UIToolbox;
 
 /**
+ * Propinquity Dynamics. After {@link #init(Graph)} on a snapshot it is also an
+ * {@link ElementSink}: connected to a graph or a file source it follows the
+ * <b>an</b>, <b>dn</b>, <b>ae</b> and <b>de</b> events and updates the
+ * propinquity only around the vertices they touch.
  *
  * @author Anastasis Andronidis <anastasis90@yahoo.gr>
  * @author Ilias Trichopoulos <itrichop@csd.auth.gr>
  */
-public class PropinquityDynamics implements Algorithm {
+public class PropinquityDynamics implements Algorithm, ElementSink {
 
     Graph graph;
-    private int a, b, e = -1;
-    private boolean debug = false, statistics = false;
+    private int a, b, e = -1, workers = 1;
+    private boolean debug = false, statistics = false, snapshot = false;
     private String[] debugIDs;
+    private PropinquitySnapshot state;
+    private File offHeap;
+    private int pruneMargin = -1, pruneTop = 0, hubDegree = 0;
+    private boolean frontier = false, symmetric = false, coalesce = false;
+    // The XOR of ConvergenceMonitor.edge over every Nr entry, without a
+    // snapshot
+    private long fingerprint;
+    // The ends of every edge, the remove events carry only the edge id
+    private Map<String, String[]> edges;
+    private int removedEdges, addedEdges;
+    // Gets the metrics of every superstep and phase, null for none
+    private PropinquityListener listener;
+    // Without a snapshot, the Phase 2 loops so far, the propinquity updates
+    // and where the current phase and superstep started
+    private int loops;
+    private long increments, decrements;
+    private long phaseStart, phaseBytes, phaseIncrements, phaseDecrements;
+    private long stepStart, stepBytes, stepIncrements, stepDecrements;
+    // Where to record the updates of the watched vertices, null for nowhere
+    private File traceFile;
+    private String[] traceIDs;
+    private TraceRecorder trace;
 
     private void debug(String[] ids) {
         for (String id : ids) {
@@ -42,6 +86,157 @@ public class PropinquityDynamics implements Algorithm {
         }
     }
 
+    /**
+     * Start a new trace for the next run, if one is asked for.
+     */
+    private void openTrace(int vertices) {
+        closeTrace();
+        if (this.traceFile == null) {
+            return;
+        }
+        try {
+            this.trace = new TraceRecorder(this.traceFile, vertices, debugIndices(this.traceIDs), this.traceIDs);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private void closeTrace() {
+        if (this.trace == null) {
+            return;
+        }
+        try {
+            this.trace.close();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            this.trace = null;
+        }
+    }
+
+    private void traceStep(String phase, int loop, String superstep) {
+        if (this.trace != null) {
+            this.trace.step(phase, loop, superstep);
+        }
+    }
+
+    private void flushTrace() {
+        if (this.trace != null) {
+            try {
+                this.trace.flush();
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
+    private void startPhase() {
+        if (this.listener == null) {
+            return;
+        }
+        this.phaseStart = this.stepStart = System.nanoTime();
+        this.phaseBytes = this.stepBytes = ThreadAllocation.current();
+        this.phaseIncrements = this.stepIncrements = this.increments;
+        this.phaseDecrements = this.stepDecrements = this.decrements;
+    }
+
+    /**
+     * Report the superstep since the last one to the listener.
+     */
+    private void endSuperstep(String phase, int loop, String name) {
+        if (this.listener == null) {
+            return;
+        }
+        long now = System.nanoTime(), bytes = ThreadAllocation.current();
+        this.listener.superstep(new SuperstepMetrics(phase, loop, name, this.graph.getNodeCount(),
+                now - this.stepStart, this.increments - this.stepIncrements, this.decrements - this.stepDecrements,
+                bytes - this.stepBytes));
+        this.stepStart = now;
+        this.stepBytes = bytes;
+        this.stepIncrements = this.increments;
+        this.stepDecrements = this.decrements;
+    }
+
+    private void endPhase(String phase, int loop, int e, long Ni, long Nd) {
+        if (this.listener == null) {
+            return;
+        }
+        long Nr = 0, entries = 0;
+        for (Node n : this.graph.getEachNode()) {
+            Nr += ((Set<?>) n.getAttribute("Nr")).size();
+            entries += ((PropinquityMap) n.getAttribute("pm")).size();
+        }
+        this.listener.phase(new PhaseMetrics(phase, loop, e, System.nanoTime() - this.phaseStart,
+                this.increments - this.phaseIncrements, this.decrements - this.phaseDecrements,
+                ThreadAllocation.current() - this.phaseBytes, Nr, Ni, Nd, entries));
+    }
+
+    private PropinquityStore store(int vertices) {
+        if (this.offHeap != null) {
+            return new MappedPropinquityStore(this.offHeap, vertices);
+        }
+        return new HeapPropinquityStore(vertices);
+    }
+
+    private boolean useSnapshot() {
+        return this.snapshot || this.workers > 1 || this.offHeap != null || pruning() || this.hubDegree > 0
+                || this.frontier || this.symmetric || this.coalesce;
+    }
+
+    /**
+     * Pass the options to a new snapshot and remember the edges of the graph
+     * for the streaming events.
+     */
+    private void configure() {
+        this.state.setDebug(this.debug ? stateIndices(this.debugIDs) : null);
+        this.state.setStatistics(this.statistics);
+        this.state.setHubDegree(this.hubDegree);
+        this.state.setFrontier(this.frontier);
+        this.state.setSymmetric(this.symmetric);
+        this.state.setCoalescing(this.coalesce);
+        this.state.setListener(this.listener);
+        this.state.setTrace(this.trace);
+
+        this.edges = new HashMap<String, String[]>(this.graph.getEdgeCount() * 2);
+        for (Edge edge : this.graph.getEachEdge()) {
+            this.edges.put(edge.getId(), new String[]{edge.getNode0().getId(), edge.getNode1().getId()});
+        }
+    }
+
+    private boolean pruning() {
+        return this.pruneMargin >= 0 || this.pruneTop > 0;
+    }
+
+    private void prune() {
+        if (pruning()) {
+            this.state.prune(this.pruneMargin >= 0 ? this.b - this.pruneMargin : Integer.MIN_VALUE, this.pruneTop);
+        }
+    }
+
+    private int[] debugIndices(String[] ids) {
+        int[] indices = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            indices[i] = this.graph.getNode(ids[i]).getIndex();
+        }
+        return indices;
+    }
+
+    /**
+     * @return the indices of the vertices of the snapshot with the given ids,
+     *         the ids it does not have are left out
+     */
+    private int[] stateIndices(String[] ids) {
+        int[] indices = new int[ids.length];
+        int size = 0;
+        for (String id : ids) {
+            int v = this.state.indexOf(id);
+            if (v >= 0) {
+                indices[size++] = v;
+            }
+        }
+        return Arrays.copyOf(indices, size);
+    }
+
     private Set<Integer> getNeightboursOf(Node n) {
         Set<Integer> out = new HashSet<Integer>(10);
         Iterator<Node> it = n.getNeighborNodeIterator();
@@ -70,9 +265,17 @@ public class PropinquityDynamics implements Algorithm {
             if (skip) {
                 if (u_i != pu) {
                     pm.decrease(pu);
+                    this.decrements++;
+                    if (this.trace != null) {
+                        this.trace.record(u_i, pu, -1);
+                    }
                 }
             } else {
                 pm.decrease(pu);
+                this.decrements++;
+                if (this.trace != null) {
+                    this.trace.record(u_i, pu, -1);
+                }
             }
         }
     }
@@ -84,9 +287,17 @@ public class PropinquityDynamics implements Algorithm {
             if (skip) {
                 if (u_i != pu) {
                     pm.increase(pu);
+                    this.increments++;
+                    if (this.trace != null) {
+                        this.trace.record(u_i, pu, 1);
+                    }
                 }
             } else {
                 pm.increase(pu);
+                this.increments++;
+                if (this.trace != null) {
+                    this.trace.record(u_i, pu, 1);
+                }
             }
         }
     }
@@ -99,6 +310,25 @@ public class PropinquityDynamics implements Algorithm {
     // PHASE 1
     public void init(Graph graph) {
         this.graph = graph;
+        if (this.state != null) {
+            this.state.shutdown();
+            this.state = null;
+        }
+
+        openTrace(this.graph.getNodeCount());
+        if (useSnapshot()) {
+            // Freeze the graph once and run every superstep on the snapshot
+            CSRGraph csr = CSRGraph.freeze(this.graph);
+            this.state = new PropinquitySnapshot(csr, this.workers, store(csr.getNodeCount()));
+            configure();
+            this.state.init();
+            prune();
+            return;
+        }
+
+        this.loops = 0;
+        startPhase();
+        traceStep(PhaseMetrics.PHASE1, 0, "init");
 
         // Init data in each node
         for (Node n : this.graph.getEachNode()) {
@@ -115,6 +345,14 @@ public class PropinquityDynamics implements Algorithm {
             n.setAttribute("Nr", Nr);
         }
 
+        this.fingerprint = 0;
+        for (Node n : this.graph.getEachNode()) {
+            Set<Integer> Nr = n.getAttribute("Nr");
+            for (Integer nn : Nr) {
+                this.fingerprint ^= ConvergenceMonitor.edge(n.getIndex(), nn);
+            }
+        }
+
         // The paper algorithm does not include the propinquity increase of
         // the direct neighbours
         for (Node n : this.graph.getEachNode()) {
@@ -123,8 +361,13 @@ public class PropinquityDynamics implements Algorithm {
 
             for (Integer nn : Nr) {
                 pm.increase(nn);
+                if (this.trace != null) {
+                    this.trace.direct(n.getIndex(), nn, 1);
+                }
             }
         }
+        endSuperstep(PhaseMetrics.PHASE1, 0, "init");
+        traceStep(PhaseMetrics.PHASE1, 0, "angle");
 
         // Superstep 0 + 1
         // We are ready to calculate the Angle Propinquity.
@@ -139,6 +382,8 @@ public class PropinquityDynamics implements Algorithm {
                 PU(nn, Nr, '+', true);
             }
         }
+        endSuperstep(PhaseMetrics.PHASE1, 0, "angle");
+        traceStep(PhaseMetrics.PHASE1, 0, "conjugate");
 
         if (this.debug) {
             System.out.println("PHASE 1");
@@ -175,6 +420,7 @@ public class PropinquityDynamics implements Algorithm {
                 }
             }
         }
+        endSuperstep(PhaseMetrics.PHASE1, 0, "conjugate");
 
         if (this.debug) {
             System.out.println("After Conjugate Propinquity");
@@ -188,19 +434,33 @@ public class PropinquityDynamics implements Algorithm {
             for (Node n : this.graph.getEachNode()) {
                 PropinquityMap pm = n.getAttribute("pm");
 
-                for (MutableInt i : pm.values()) {
-                    stats.increase(i.get());
+                PropinquityMap.Cursor row = pm.cursor();
+                while (row.next()) {
+                    stats.increase(row.value());
                 }
             }
 
             System.out.println(stats);
         }
+
+        flushTrace();
+        endPhase(PhaseMetrics.PHASE1, 0, 0, 0, 0);
     }
 
     // PHASE 2
     public void compute() {
+        if (this.state != null) {
+            this.state.setDebug(this.debug ? stateIndices(this.debugIDs) : null);
+            this.e = this.state.compute(this.a, this.b);
+            prune();
+            return;
+        }
+
         // Init e to count topology differences
         this.e = 0;
+        int loop = ++this.loops;
+        startPhase();
+        traceStep(PhaseMetrics.PHASE2, loop, "derive");
 
         // Superstep 0 first part
         // Init apropriate sets (Nd, Ni).
@@ -212,17 +472,20 @@ public class PropinquityDynamics implements Algorithm {
 
             Set<Integer> Nr = n.getAttribute("Nr");
             PropinquityMap pm = n.getAttribute("pm");
-            for (Entry<Integer, MutableInt> row : pm.entrySet()) {
-                Integer nodeIndex = row.getKey();
-                Integer propinquity = row.getValue().get();
+            PropinquityMap.Cursor row = pm.cursor();
+            while (row.next()) {
+                Integer nodeIndex = row.key();
+                int propinquity = row.value();
 
                 if (propinquity <= this.a && Nr.contains(nodeIndex)) {
                     Nd.add(nodeIndex);
                     Nr.remove(nodeIndex);
                     this.e++;
+                    this.fingerprint ^= ConvergenceMonitor.edge(n.getIndex(), nodeIndex);
                 } else if (propinquity >= this.b && !Nr.contains(nodeIndex)) {
                     Ni.add(nodeIndex);
                     this.e++;
+                    this.fingerprint ^= ConvergenceMonitor.edge(n.getIndex(), nodeIndex);
                 }
             }
         }
@@ -240,6 +503,24 @@ public class PropinquityDynamics implements Algorithm {
             for (Integer id : Nd) {
                 pm.decrease(id);
             }
+            if (this.trace != null) {
+                for (Integer id : Ni) {
+                    this.trace.direct(n.getIndex(), id, 1);
+                }
+                for (Integer id : Nd) {
+                    this.trace.direct(n.getIndex(), id, -1);
+                }
+            }
+        }
+        endSuperstep(PhaseMetrics.PHASE2, loop, "derive");
+        traceStep(PhaseMetrics.PHASE2, loop, "angle");
+
+        long inserted = 0, deleted = 0;
+        if (this.listener != null) {
+            for (Node n : this.graph.getEachNode()) {
+                inserted += ((Set<?>) n.getAttribute("Ni")).size();
+                deleted += ((Set<?>) n.getAttribute("Nd")).size();
+            }
         }
 
         if (this.debug) {
@@ -289,6 +570,9 @@ public class PropinquityDynamics implements Algorithm {
             }
         }
 
+        endSuperstep(PhaseMetrics.PHASE2, loop, "angle");
+        traceStep(PhaseMetrics.PHASE2, loop, "conjugate");
+
         if (this.debug) {
             System.out.println("After Angle Propinquity");
             debug(this.debugIDs);
@@ -384,6 +668,8 @@ public class PropinquityDynamics implements Algorithm {
             }
         }
 
+        endSuperstep(PhaseMetrics.PHASE2, loop, "conjugate");
+
         if (this.debug) {
             System.out.println("After Conjugate Propinquity");
             debug(this.debugIDs);
@@ -396,6 +682,9 @@ public class PropinquityDynamics implements Algorithm {
 
             n.setAttribute("Nr", Sets.union(Nr, Ni).copyInto(new HashSet<Integer>(20)));
         }
+        endSuperstep(PhaseMetrics.PHASE2, loop, "finish");
+        flushTrace();
+        endPhase(PhaseMetrics.PHASE2, loop, this.e, inserted, deleted);
     }
 
     /**
@@ -459,6 +748,44 @@ public class PropinquityDynamics implements Algorithm {
         return this.e <= threshold;
     }
 
+    /**
+     * @return a hash of the current topology, the same topology always gives
+     *         the same fingerprint
+     */
+    public long getFingerprint() {
+        return this.state != null ? this.state.getFingerprint() : this.fingerprint;
+    }
+
+    /**
+     * Run Phase 2 loops until <b>e</b> is 0, until the topology comes back to
+     * one it had before, until the smallest <b>e</b> does not get smaller for
+     * {@link ConvergenceMonitor#DEFAULT_PATIENCE} loops, or until
+     * maxIterations loops have run.
+     *
+     * @param maxIterations the most loops to run
+     *
+     * @return why and when the loops stopped
+     */
+    public ConvergenceMonitor converge(int maxIterations) {
+        return converge(maxIterations, ConvergenceMonitor.DEFAULT_PATIENCE);
+    }
+
+    /**
+     * @param maxIterations the most loops to run
+     * @param patience      how many loops without a new smallest <b>e</b>
+     *                      stop the run
+     *
+     * @return why and when the loops stopped
+     */
+    public ConvergenceMonitor converge(int maxIterations, int patience) {
+        ConvergenceMonitor monitor = new ConvergenceMonitor(maxIterations, patience);
+        monitor.start(getFingerprint());
+        do {
+            compute();
+        } while (monitor.update(this.e, getFingerprint()));
+        return monitor;
+    }
+
     public void debugOn(String[] ids) {
         this.debug = true;
         this.debugIDs = ids;
@@ -468,6 +795,52 @@ public class PropinquityDynamics implements Algorithm {
         this.debug = false;
     }
 
+    /**
+     * Record every propinquity update that touches one of some vertices, from
+     * the next {@link #init(Graph)} or {@link #restore(Graph, File)} on, to a
+     * binary file, see {@link TraceRecorder}. Unlike {@link #debugOn} it
+     * costs little enough for graphs of any size, and {@link TraceReader}
+     * decodes the file afterwards. A new run starts a new file.
+     *
+     * @param file where to write the records
+     * @param ids  the ids of the vertices to watch
+     */
+    public void traceOn(File file, String[] ids) {
+        this.traceFile = file;
+        this.traceIDs = ids;
+    }
+
+    /**
+     * Stop recording and close the file of the trace.
+     */
+    public void traceOff() {
+        this.traceFile = null;
+        if (this.state != null) {
+            this.state.setTrace(null);
+        }
+        closeTrace();
+    }
+
+    /**
+     * Report the wall time, the propinquity updates and the allocations of
+     * every superstep, and the sizes of the sets and of the propinquity maps
+     * after every phase, to a listener. {@link PropinquityMetrics} keeps them
+     * and shows them over JMX. The allocations are counted only where the JVM
+     * supports it, see {@link ThreadAllocation}.
+     *
+     * @param listener gets the metrics
+     */
+    public void metricsOn(PropinquityListener listener) {
+        this.listener = listener;
+        if (this.state != null) {
+            this.state.setListener(listener);
+        }
+    }
+
+    public void metricsOff() {
+        metricsOn(null);
+    }
+
     public void statisticsOn() {
         this.statistics = true;
     }
@@ -476,21 +849,446 @@ public class PropinquityDynamics implements Algorithm {
         this.statistics = false;
     }
 
+    /**
+     * Run the next {@link #init(Graph)} on an int indexed snapshot of the
+     * graph instead of the node attributes. The graph is frozen once into a
+     * {@link CSRGraph} and <b>Nr</b> and <b>pm</b> are written back to the
+     * nodes only by {@link #writeBack()} or {@link #applyFinalTopology()}.
+     */
+    public void snapshotOn() {
+        this.snapshot = true;
+    }
+
+    public void snapshotOff() {
+        this.snapshot = false;
+    }
+
+    /**
+     * Run the supersteps of the next {@link #init(Graph)} and of every
+     * {@link #compute()} after it on a pool of threads. The vertices are split
+     * among the workers and their propinquity updates are merged at the
+     * barrier after every superstep, so the result is the same as with one
+     * thread. It implies {@link #snapshotOn()}.
+     *
+     * @param workers the number of threads
+     */
+    public void parallelOn(int workers) {
+        this.workers = workers;
+    }
+
+    public void parallelOff() {
+        this.workers = 1;
+    }
+
+    /**
+     * Keep the propinquity maps of the next {@link #init(Graph)} in memory
+     * mapped files instead of the heap, for graphs whose propinquity does not
+     * fit in it. The files are deleted when the algorithm is initialized
+     * again. It implies {@link #snapshotOn()}.
+     *
+     * @param directory where to create the files
+     */
+    public void offHeapOn(File directory) {
+        this.offHeap = directory;
+    }
+
+    public void offHeapOff() {
+        this.offHeap = null;
+    }
+
+    /**
+     * After {@link #init(Graph)} and after every {@link #compute()} drop the
+     * propinquity with non neighbours that is below <b>b</b> - margin, so it
+     * is not expected to reach <b>b</b> in the loops that are left. Entries
+     * that are 0 are dropped as well. With {@link #statisticsOn()} the dropped
+     * entries, the propinquity they had and the freed bytes are printed. It
+     * implies {@link #snapshotOn()}.
+     *
+     * @param margin how much the propinquity of a non neighbour may still
+     *               grow
+     */
+    public void pruneBelowOn(int margin) {
+        this.pruneMargin = margin;
+    }
+
+    /**
+     * Like {@link #pruneBelowOn(int)}, but keep only the k non neighbours
+     * with the highest propinquity of every vertex.
+     *
+     * @param k how many non neighbours to keep
+     */
+    public void pruneTopOn(int k) {
+        this.pruneTop = k;
+    }
+
+    public void pruneOff() {
+        this.pruneMargin = -1;
+        this.pruneTop = 0;
+    }
+
+    /**
+     * Let every {@link #compute()} after the first one look only at the
+     * vertices that got propinquity updates or changed neighbours in the loop
+     * before it. The result is the same, but the cost of a loop shrinks with
+     * {@link #getE()}, so the last loops before the convergence are almost
+     * free. It implies {@link #snapshotOn()}.
+     */
+    public void frontierOn() {
+        this.frontier = true;
+    }
+
+    public void frontierOff() {
+        this.frontier = false;
+    }
+
+    /**
+     * With {@link #parallelOn(int)}, let every worker add up the propinquity
+     * updates that it sends to the same pair in a superstep, so the barrier
+     * applies only their sum. Every common neighbour of a pair sends it the
+     * same Crr, Cri or Crd update, so the buffers and the merge shrink a lot.
+     * The result is the same, but an entry whose updates cancel out is never
+     * created. It implies {@link #snapshotOn()}.
+     */
+    public void coalesceOn() {
+        this.coalesce = true;
+    }
+
+    public void coalesceOff() {
+        this.coalesce = false;
+    }
+
+    /**
+     * Bound the cost of Phase 1 on graphs with hubs. A vertex with more than
+     * <b>degree</b> neighbours, or an edge with more than <b>degree</b> common
+     * neighbours, does not update every pair of them but an unbiased sample of
+     * about degree<sup>2</sup> / 2 pairs, each with a weight that keeps the
+     * expected propinquity. The sample is the same in every run. It implies
+     * {@link #snapshotOn()}.
+     *
+     * @param degree the largest neighbour list that is not sampled
+     */
+    public void hubsOn(int degree) {
+        this.hubDegree = degree;
+    }
+
+    public void hubsOff() {
+        this.hubDegree = 0;
+    }
+
+    /**
+     * Keep only one half of the symmetric propinquity, the pairs (u, v) with
+     * u &lt; v in the map of u, and send every propinquity update once
+     * instead of twice. It roughly halves the memory and the update work of
+     * the propinquity and gives the same result. After {@link #writeBack()}
+     * the <b>pm</b> attribute of a node holds only its pairs with larger
+     * nodes,
+     * {@link th.algorithms.propinquitydynamics.utils.Utils#GetPropinquity}
+     * reads a pair from either end. It implies {@link #snapshotOn()}.
+     */
+    public void symmetricOn() {
+        this.symmetric = true;
+    }
+
+    public void symmetricOff() {
+        this.symmetric = false;
+    }
+
+    /**
+     * @return the propinquity updates that {@link #hubsOn(int)} left out in
+     *         the last {@link #init(Graph)}
+     */
+    public long getSkippedUpdates() {
+        return this.state == null ? 0 : this.state.getSkippedUpdates();
+    }
+
+    /**
+     * Save the state after the last {@link #compute()} (or after
+     * {@link #init(Graph)}) to a file, see {@link PropinquityCheckpoint}.
+     *
+     * @param file where to write
+     *
+     * @throws IOException if the file can not be written
+     */
+    public void checkpoint(File file) throws IOException {
+        if (this.state != null) {
+            PropinquityCheckpoint.write(file, this.state, this.a, this.b, this.e);
+            return;
+        }
+
+        // Without a snapshot the state lives in the node attributes
+        int n = this.graph.getNodeCount();
+        String[] ids = new String[n];
+        int[][] Nr = new int[n][];
+        HeapPropinquityStore pm = new HeapPropinquityStore(n);
+        for (Node node : this.graph.getEachNode()) {
+            int v = node.getIndex();
+            Set<Integer> neighbours = node.getAttribute("Nr");
+            ids[v] = node.getId();
+            Nr[v] = new int[neighbours.size()];
+            int i = 0;
+            for (Integer u : neighbours) {
+                Nr[v][i++] = u;
+            }
+            Arrays.sort(Nr[v]);
+            pm.set(v, node.<PropinquityMap>getAttribute("pm"));
+        }
+        PropinquitySnapshot attributes = new PropinquitySnapshot(ids, Nr, 1, pm, this.fingerprint);
+        PropinquityCheckpoint.write(file, attributes, this.a, this.b, this.e);
+    }
+
+    /**
+     * Continue from a checkpoint instead of {@link #init(Graph)}. The
+     * thresholds and <b>e</b> are restored too. The vertices are matched to
+     * the nodes of the graph by id. If the options ask for a snapshot the
+     * state stays in one, otherwise it is written to the node attributes.
+     *
+     * @param graph the graph the checkpoint was taken from
+     * @param file  the checkpoint
+     *
+     * @throws IOException if the file can not be read
+     */
+    public void restore(Graph graph, File file) throws IOException {
+        this.graph = graph;
+        if (this.state != null) {
+            this.state.shutdown();
+            this.state = null;
+        }
+
+        boolean snapshot = useSnapshot();
+        PropinquityCheckpoint checkpoint = PropinquityCheckpoint.read(file, this.workers,
+                snapshot ? store(0) : new HeapPropinquityStore(0), snapshot && this.symmetric);
+        this.a = checkpoint.getA();
+        this.b = checkpoint.getB();
+        this.e = checkpoint.getE();
+        this.state = checkpoint.getState();
+        openTrace(this.state.getVertexCount());
+
+        if (snapshot) {
+            configure();
+            return;
+        }
+
+        this.fingerprint = this.state.getFingerprint();
+        writeBack();
+        this.state.shutdown();
+        this.state = null;
+    }
+
+    /**
+     * Copy <b>Nr</b> and <b>pm</b> from the snapshot to the node attributes.
+     * It does nothing if the algorithm does not run on a snapshot, since then
+     * the attributes are always up to date.
+     */
+    public void writeBack() {
+        if (this.state != null) {
+            this.state.writeBack(this.graph);
+        }
+    }
+
+    private PropinquitySnapshot streaming() {
+        if (this.state == null) {
+            throw new IllegalStateException("Streaming needs init() on a snapshot, call snapshotOn() first");
+        }
+        return this.state;
+    }
+
+    @Override
+    public void nodeAdded(String sourceId, long timeId, String nodeId) {
+        streaming().addVertex(nodeId);
+    }
+
+    /**
+     * The edges of the node are removed together and the neighbours settle
+     * once.
+     */
+    @Override
+    public void nodeRemoved(String sourceId, long timeId, String nodeId) {
+        this.e = streaming().removeVertex(nodeId, this.a, this.b);
+    }
+
+    /**
+     * The edge becomes an Ni of its two ends and Phase 2 runs only on the
+     * vertices whose propinquity changed, until they settle. After it
+     * {@link #getE()} is the number of changes of the last local loop.
+     */
+    @Override
+    public void edgeAdded(String sourceId, long timeId, String edgeId, String fromNodeId, String toNodeId, boolean directed) {
+        PropinquitySnapshot snapshot = streaming();
+        this.edges.put(edgeId, new String[]{fromNodeId, toNodeId});
+        this.e = snapshot.addEdge(fromNodeId, toNodeId, this.a, this.b);
+    }
+
+    /**
+     * The edge becomes an Nd of its two ends, the same way as
+     * {@link #edgeAdded}.
+     */
+    @Override
+    public void edgeRemoved(String sourceId, long timeId, String edgeId) {
+        PropinquitySnapshot snapshot = streaming();
+        String[] ends = this.edges.remove(edgeId);
+        if (ends != null) {
+            this.e = snapshot.removeEdge(ends[0], ends[1], this.a, this.b);
+        }
+    }
+
+    @Override
+    public void graphCleared(String sourceId, long timeId) {
+        streaming().shutdown();
+        this.state = new PropinquitySnapshot(CSRGraph.empty(), this.workers, store(0));
+        // The options and the listeners carry over to the empty snapshot. A
+        // graph sends the event before it removes its elements, so no edge
+        // is kept whatever the graph still holds.
+        configure();
+        this.edges.clear();
+    }
+
+    @Override
+    public void stepBegins(String sourceId, long timeId, double step) {
+    }
+
+    /**
+     * Replace the edges of the graph with the final <b>Nr</b> sets, see
+     * {@link #applyFinalTopology(Graph)}.
+     */
     public void applyFinalTopology() {
-        // Remove all edges to rebuild the graph based on Nr
-        for (Edge edge : this.graph.getEdgeSet()) {
-            this.graph.removeEdge(edge.getIndex());
+        applyFinalTopology(null);
+    }
+
+    /**
+     * Build the final topology from the <b>Nr</b> sets. The original edges
+     * are compared with the final ones in one pass: an edge that is still in
+     * some <b>Nr</b> is kept with its id and attributes, the rest are removed
+     * and only the missing edges are added, with ids of the form
+     * <i>id</i>and<i>index</i>. {@link #getRemovedEdges()} and
+     * {@link #getAddedEdges()} count the changes.
+     *
+     * @param target an empty graph to write the result into, leaving the
+     *               edges of the original graph as they are, or null to
+     *               change the original graph
+     */
+    public void applyFinalTopology(Graph target) {
+        writeBack();
+
+        int n = this.graph.getNodeCount();
+        List<Set<Integer>> Nr = new ArrayList<Set<Integer>>(n);
+        for (int v = 0; v < n; v++) {
+            Set<Integer> neighbours = this.graph.getNode(v).getAttribute("Nr");
+            Nr.add(neighbours);
         }
 
-        for (Node n : this.graph.getEachNode()) {
-            Set<Integer> Nr = n.getAttribute("Nr");
+        // The final edges of every vertex, from both ends, as sorted ranges
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            for (Integer u : Nr.get(v)) {
+                offsets[v + 1]++;
+                if (u != v) {
+                    offsets[u + 1]++;
+                }
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        int[] ends = new int[offsets[n]];
+        int[] fill = Arrays.copyOf(offsets, n);
+        for (int v = 0; v < n; v++) {
+            for (Integer u : Nr.get(v)) {
+                ends[fill[v]++] = u;
+                if (u != v) {
+                    ends[fill[u]++] = v;
+                }
+            }
+        }
+        // Drop the pairs that are in the Nr of both ends
+        int size = 0;
+        for (int v = 0; v < n; v++) {
+            int from = offsets[v], to = offsets[v + 1];
+            Arrays.sort(ends, from, to);
+            offsets[v] = size;
+            for (int i = from; i < to; i++) {
+                if (i == from || ends[i] != ends[i - 1]) {
+                    ends[size++] = ends[i];
+                }
+            }
+        }
+        offsets[n] = size;
+
+        // Keep the first edge of every final pair, the rest go
+        boolean[] kept = new boolean[size];
+        List<Edge> removed = new ArrayList<Edge>();
+        List<Edge> survivors = new ArrayList<Edge>();
+        for (Edge edge : this.graph.getEachEdge()) {
+            int u = edge.getNode0().getIndex(), v = edge.getNode1().getIndex();
+            int i = Arrays.binarySearch(ends, offsets[u], offsets[u + 1], v);
+            if (i >= 0 && !kept[i]) {
+                kept[i] = true;
+                kept[Arrays.binarySearch(ends, offsets[v], offsets[v + 1], u)] = true;
+                survivors.add(edge);
+            } else {
+                removed.add(edge);
+            }
+        }
 
-            for (Integer neighborIndex : Nr) {
-                if (n.getEdgeBetween(neighborIndex) == null) {
-                    this.graph.addEdge(n.getId() + "and" + neighborIndex, n, this.graph.getNode(neighborIndex));
+        Graph result = this.graph;
+        if (target == null) {
+            for (Edge edge : removed) {
+                this.graph.removeEdge(edge);
+            }
+        } else {
+            result = target;
+            for (int v = 0; v < n; v++) {
+                copyAttributes(this.graph.getNode(v), target.addNode(this.graph.getNode(v).getId()));
+            }
+            for (Edge edge : survivors) {
+                copyAttributes(edge, target.addEdge(edge.getId(), edge.getNode0().getId(),
+                        edge.getNode1().getId(), edge.isDirected()));
+            }
+        }
+
+        int added = 0;
+        for (int u = 0; u < n; u++) {
+            for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+                int v = ends[i];
+                if (v < u || kept[i]) {
+                    continue;
+                }
+                // Named after the end that has the other in its Nr
+                int from = Nr.get(u).contains(v) ? u : v;
+                int to = from == u ? v : u;
+                String id = this.graph.getNode(from).getId() + "and" + to;
+                while (result.getEdge(id) != null) {
+                    id += "'";
                 }
+                result.addEdge(id, this.graph.getNode(from).getId(), this.graph.getNode(to).getId());
+                added++;
             }
         }
+
+        this.removedEdges = removed.size();
+        this.addedEdges = added;
+    }
+
+    private static void copyAttributes(Element from, Element to) {
+        for (String key : from.getAttributeKeySet()) {
+            Object value = from.getAttribute(key);
+            to.setAttribute(key, value);
+        }
+    }
+
+    /**
+     * @return the original edges that the last
+     *         {@link #applyFinalTopology(Graph)} left out
+     */
+    public int getRemovedEdges() {
+        return this.removedEdges;
+    }
+
+    /**
+     * @return the edges that the last {@link #applyFinalTopology(Graph)}
+     *         added
+     */
+    public int getAddedEdges() {
+        return this.addedEdges;
     }
 
     public void applyNMI(Graph graph) {
@@ -0,0 +1,1547 @@
+package th.algorithms.propinquitydynamics;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.graphstream.graph.Graph;
+import org.graphstream.graph.Node;
+import static th.algorithms.propinquitydynamics.utils.CalculationTable.CalculateCdd;
+import static th.algorithms.propinquitydynamics.utils.CalculationTable.CalculateCii;
+import static th.algorithms.propinquitydynamics.utils.CalculationTable.CalculateCrd;
+import static th.algorithms.propinquitydynamics.utils.CalculationTable.CalculateCri;
+import static th.algorithms.propinquitydynamics.utils.CalculationTable.CalculateCrr;
+import th.algorithms.propinquitydynamics.metrics.PhaseMetrics;
+import th.algorithms.propinquitydynamics.metrics.PropinquityListener;
+import th.algorithms.propinquitydynamics.metrics.SuperstepMetrics;
+import th.algorithms.propinquitydynamics.trace.TraceRecorder;
+import th.algorithms.propinquitydynamics.utils.BSPExecutor;
+import th.algorithms.propinquitydynamics.utils.BSPExecutor.VertexProgram;
+import th.algorithms.propinquitydynamics.utils.CSRGraph;
+import th.algorithms.propinquitydynamics.utils.CalculationTable.Scratch;
+import th.algorithms.propinquitydynamics.utils.CopyOnWritePropinquityStore;
+import th.algorithms.propinquitydynamics.utils.IntSets;
+import th.algorithms.propinquitydynamics.utils.Outbox;
+import th.algorithms.propinquitydynamics.utils.HeapPropinquityStore;
+import th.algorithms.propinquitydynamics.utils.PropinquityMap;
+import th.algorithms.propinquitydynamics.utils.PropinquityStore;
+
+/**
+ * The state of Propinquity Dynamics kept outside of the graph. The input graph
+ * is frozen once into a {@link CSRGraph} and every vertex is addressed by its
+ * index, so the supersteps never go through the GraphStream attribute maps.
+ * <b>Nr</b>, <b>Ni</b> and <b>Nd</b> are sorted int arrays and the conjugate
+ * propinquity is computed with the int array kernels of
+ * {@link th.algorithms.propinquitydynamics.utils.CalculationTable}. The state
+ * is written back to the node attributes only when asked to.
+ * <p>
+ * After {@link #init()} the topology can also change one event at a time with
+ * {@link #addEdge}, {@link #removeEdge}, {@link #addVertex} and
+ * {@link #removeVertex}. An event is applied as <b>Ni</b>/<b>Nd</b> of its end
+ * points and Phase 2 then runs only on the vertices whose propinquity changed,
+ * until they settle.
+ * <p>
+ * Propinquity is symmetric, so with {@link #setSymmetric(boolean)} only the
+ * canonical half of every pair is kept, in the map of its smaller end, and
+ * every propinquity update is sent once instead of twice.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class PropinquitySnapshot {
+
+    /**
+     * How many local Phase 2 loops an event may trigger.
+     */
+    public static final int MAX_LOCAL_LOOPS = 100;
+
+    private final CSRGraph csr;
+    // The number of vertex slots in use, removed vertices keep their slot
+    private int n;
+    private final PropinquityStore pm;
+    private int[][] Nr, Ni, Nd;
+    private String[] ids;
+    private Map<String, Integer> indexOf;
+    private int[] all;
+    private int removed = 0;
+    private final BSPExecutor executor;
+    // Applies the updates of a superstep to the propinquity maps
+    private final Outbox inbox = new Outbox() {
+        @Override
+        public void send(int target, int key, int delta) {
+            pm.add(target, key, delta);
+        }
+    };
+    // Applies the updates and remembers which vertices got them
+    private final Frontier frontier = new Frontier();
+    // The buffers of each worker thread
+    private final ThreadLocal<Work> work = new ThreadLocal<Work>() {
+        @Override
+        protected Work initialValue() {
+            return new Work();
+        }
+    };
+    // Marks the vertices with a non empty Ni or Nd during a Phase 2 loop
+    private boolean[] changed;
+    // With a frontier, the vertices the next Phase 2 loop looks at, null
+    // for all of them
+    private boolean useFrontier = false;
+    private int[] active;
+    private int[] debugIndices;
+    private boolean statistics = false;
+    // Lists longer than it are sampled in Phase 1, 0 never samples
+    private int hubDegree = 0;
+    private final AtomicLong skipped = new AtomicLong();
+    // The XOR of ConvergenceMonitor.edge over every Nr entry
+    private final AtomicLong fingerprint = new AtomicLong();
+    // Only the pairs (u, v) with u < v are stored, in the map of u
+    private boolean symmetric = false;
+    // The Ni (as v) and Nd (as ~v) that the smaller ends of the pairs of a
+    // vertex decided in a symmetric Phase 2 loop
+    private int[][] received;
+    private int[] receivedSize;
+    private final Mirror mirror = new Mirror();
+    // Gets the metrics of every superstep and phase, null for none
+    private PropinquityListener listener;
+    private String phase = PhaseMetrics.PHASE1;
+    private int loop = 0;
+    // The Phase 2 loops so far
+    private int loops = 0;
+    // The totals of the supersteps of the current phase
+    private long phaseNanos, phaseIncrements, phaseDecrements, phaseAllocated;
+    // Records the updates of the watched vertices, null for none
+    private TraceRecorder trace;
+
+    /**
+     * Reusable buffers of one thread, they only grow.
+     */
+    private static class Work {
+
+        Scratch scratch;
+        int vertices = -1;
+        int[] Ni = new int[16], Nd = new int[16], Nr = new int[16];
+        int[] Crr = new int[16], Cri = new int[16], Crd = new int[16], Cxx = new int[16];
+
+        Scratch scratch(int vertices) {
+            if (this.vertices < vertices) {
+                this.scratch = new Scratch(vertices);
+                this.vertices = vertices;
+            }
+            return this.scratch;
+        }
+
+        void reserve(int size) {
+            this.Crr = IntSets.ensure(this.Crr, size);
+            this.Cri = IntSets.ensure(this.Cri, size);
+            this.Crd = IntSets.ensure(this.Crd, size);
+            this.Cxx = IntSets.ensure(this.Cxx, size);
+        }
+    }
+
+    public PropinquitySnapshot(CSRGraph csr) {
+        this(csr, 1);
+    }
+
+    /**
+     * @param csr     the frozen graph
+     * @param workers the number of threads that run the supersteps
+     */
+    public PropinquitySnapshot(CSRGraph csr, int workers) {
+        this(csr, workers, new HeapPropinquityStore(csr.getNodeCount()));
+    }
+
+    /**
+     * @param csr     the frozen graph
+     * @param workers the number of threads that run the supersteps
+     * @param pm      where to keep the propinquity maps, for every vertex of
+     *                the graph
+     */
+    public PropinquitySnapshot(CSRGraph csr, int workers, PropinquityStore pm) {
+        this.csr = csr;
+        this.n = csr.getNodeCount();
+        this.pm = pm;
+        this.Nr = new int[this.n][];
+        this.Ni = new int[this.n][];
+        this.Nd = new int[this.n][];
+        this.ids = new String[this.n];
+        this.changed = new boolean[this.n];
+        for (int v = 0; v < this.n; v++) {
+            this.ids[v] = csr.getId(v);
+        }
+        this.executor = new BSPExecutor(workers);
+    }
+
+    /**
+     * Continue from a saved state instead of running {@link #init()}.
+     *
+     * @param ids         the GraphStream id of every vertex, null for a
+     *                    removed one
+     * @param Nr          the sorted neighbours of every vertex
+     * @param workers     the number of threads that run the supersteps
+     * @param pm          the propinquity maps of the vertices
+     * @param fingerprint the fingerprint of the topology
+     */
+    public PropinquitySnapshot(String[] ids, int[][] Nr, int workers, PropinquityStore pm, long fingerprint) {
+        this(CSRGraph.of(Nr, ids), workers, pm);
+        for (int v = 0; v < this.n; v++) {
+            this.Nr[v] = Nr[v] == null ? IntSets.EMPTY : Nr[v];
+            this.Ni[v] = IntSets.EMPTY;
+            this.Nd[v] = IntSets.EMPTY;
+            if (ids[v] == null) {
+                this.removed++;
+            }
+        }
+        this.fingerprint.set(fingerprint);
+    }
+
+    /**
+     * An independent copy of the state, to continue for example with other
+     * thresholds. The copy reads the propinquity maps of this snapshot until
+     * it writes to them, see {@link CopyOnWritePropinquityStore}, so this
+     * snapshot must not change while the copy is in use. Only between two
+     * Phase 2 loops.
+     *
+     * @param workers the number of threads that run the supersteps of the
+     *                copy
+     *
+     * @return the copy
+     */
+    public PropinquitySnapshot fork(int workers) {
+        int capacity = this.ids.length;
+        PropinquitySnapshot fork = new PropinquitySnapshot(this.csr, workers,
+                new CopyOnWritePropinquityStore(this.pm, capacity));
+
+        // The sets are replaced and never written in place, they can be
+        // shared
+        fork.n = this.n;
+        fork.Nr = Arrays.copyOf(this.Nr, capacity);
+        fork.Ni = Arrays.copyOf(this.Ni, capacity);
+        fork.Nd = Arrays.copyOf(this.Nd, capacity);
+        fork.ids = Arrays.copyOf(this.ids, capacity);
+        fork.changed = new boolean[capacity];
+        fork.removed = this.removed;
+        fork.useFrontier = this.useFrontier;
+        fork.active = this.active == null ? null : this.active.clone();
+        fork.hubDegree = this.hubDegree;
+        fork.symmetric = this.symmetric;
+        fork.loops = this.loops;
+        fork.executor.setCoalescing(this.executor.isCoalescing());
+        fork.fingerprint.set(this.fingerprint.get());
+        return fork;
+    }
+
+    /**
+     * Collects the targets of the updates of a superstep, so the next loop
+     * can run only on them. Every target is applied by one thread at a time,
+     * only the list of targets is shared.
+     */
+    private class Frontier implements Outbox {
+
+        boolean[] marked = new boolean[0];
+        int[] targets = new int[0];
+        final AtomicInteger size = new AtomicInteger();
+
+        @Override
+        public void send(int target, int key, int delta) {
+            pm.add(target, key, delta);
+            add(target);
+        }
+
+        void add(int target) {
+            if (!this.marked[target]) {
+                this.marked[target] = true;
+                this.targets[this.size.getAndIncrement()] = target;
+            }
+        }
+
+        void ensure(int capacity) {
+            if (this.marked.length < capacity) {
+                this.marked = Arrays.copyOf(this.marked, capacity);
+                this.targets = Arrays.copyOf(this.targets, capacity);
+            }
+        }
+
+        /**
+         * @return the collected targets that were not removed, the frontier
+         *         is empty afterwards
+         */
+        int[] drain() {
+            int[] out = new int[this.size.get()];
+            int size = 0;
+            for (int i = 0; i < out.length; i++) {
+                int v = this.targets[i];
+                this.marked[v] = false;
+                if (ids[v] != null) {
+                    out[size++] = v;
+                }
+            }
+            this.size.set(0);
+            return Arrays.copyOf(out, size);
+        }
+    }
+
+    /**
+     * Collects the decisions that the smaller end of a pair sends to the
+     * larger one in a symmetric Phase 2 loop, and the vertices that decided
+     * or got a decision.
+     */
+    private class Mirror extends Frontier {
+
+        @Override
+        public void send(int target, int key, int delta) {
+            int size = receivedSize[target];
+            if (received[target].length == size) {
+                received[target] = Arrays.copyOf(received[target], Math.max(4, size * 2));
+            }
+            received[target][size] = delta > 0 ? key : ~key;
+            receivedSize[target] = size + 1;
+            add(target);
+        }
+    }
+
+    private Work work() {
+        Work w = this.work.get();
+        w.scratch(this.ids.length);
+        return w;
+    }
+
+    /**
+     * @return every vertex that was not removed
+     */
+    private int[] all() {
+        if (this.all == null) {
+            int[] out = new int[this.n - this.removed];
+            int size = 0;
+            for (int v = 0; v < this.n; v++) {
+                if (this.ids[v] != null) {
+                    out[size++] = v;
+                }
+            }
+            this.all = out;
+        }
+        return this.all;
+    }
+
+    private void debug() {
+        for (int v : this.debugIndices) {
+            if (this.ids[v] == null) {
+                continue;
+            }
+            System.out.println("Node: " + v);
+            System.out.println("Nr: " + Arrays.toString(this.Nr[v]));
+            System.out.println("Ni: " + Arrays.toString(this.Ni[v]));
+            System.out.println("Nd: " + Arrays.toString(this.Nd[v]));
+            System.out.println("pm: " + this.pm.toMap(v));
+        }
+    }
+
+    /**
+     * Run a superstep on the executor and report it to the listener.
+     */
+    private void superstep(String name, int[] vertices, int count, VertexProgram program, Outbox inbox) {
+        if (this.trace != null) {
+            this.trace.step(this.phase, this.loop, name);
+            // The mirror carries decisions, not propinquity
+            if (inbox != this.mirror) {
+                inbox = this.trace.wrap(inbox);
+            }
+        }
+        if (this.listener == null) {
+            this.executor.superstep(vertices, count, program, inbox);
+            return;
+        }
+
+        long start = System.nanoTime();
+        this.executor.superstep(vertices, count, program, inbox);
+        long nanos = System.nanoTime() - start;
+
+        this.phaseIncrements += this.executor.getIncrements();
+        this.phaseDecrements += this.executor.getDecrements();
+        this.phaseAllocated += this.executor.getAllocatedBytes();
+        this.listener.superstep(new SuperstepMetrics(this.phase, this.loop, name, count, nanos,
+                this.executor.getIncrements(), this.executor.getDecrements(), this.executor.getAllocatedBytes()));
+    }
+
+    private void startPhase(String phase, int loop) {
+        this.phase = phase;
+        this.loop = loop;
+        this.phaseNanos = System.nanoTime();
+        this.phaseIncrements = 0;
+        this.phaseDecrements = 0;
+        this.phaseAllocated = 0;
+    }
+
+    /**
+     * Report the phase to the listener, with the sizes of the sets and maps
+     * at its end.
+     */
+    private void endPhase(int e, long Ni, long Nd) {
+        if (this.trace != null) {
+            try {
+                this.trace.flush();
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+        if (this.listener == null) {
+            return;
+        }
+
+        long Nr = 0, entries = 0;
+        for (int v = 0; v < this.n; v++) {
+            if (this.ids[v] != null) {
+                Nr += this.Nr[v].length;
+                entries += this.pm.size(v);
+            }
+        }
+        this.listener.phase(new PhaseMetrics(this.phase, this.loop, e, System.nanoTime() - this.phaseNanos,
+                this.phaseIncrements, this.phaseDecrements, this.phaseAllocated, Nr, Ni, Nd, entries));
+    }
+
+    /**
+     * @return the sum of the sizes of the Ni (in [0]) and Nd (in [1]) of some
+     *         vertices
+     */
+    private long[] sizes(int[] vertices, long[] sizes) {
+        if (this.listener != null) {
+            for (int v : vertices) {
+                sizes[0] += this.Ni[v].length;
+                sizes[1] += this.Nd[v].length;
+            }
+        }
+        return sizes;
+    }
+
+    private void PU(Outbox outbox, int u_i, int[] set, int size, char operator) {
+        PU(outbox, u_i, set, size, operator, false);
+    }
+
+    private void PU(Outbox outbox, int u_i, int[] set, int size, char operator, boolean skip) {
+        int delta = operator == '+' ? 1 : -1;
+        int i = 0;
+
+        if (this.symmetric) {
+            // The set is sorted, the pairs with a smaller u_i are sent from
+            // the other end
+            i = Arrays.binarySearch(set, 0, size, u_i);
+            i = i >= 0 ? i + 1 : -i - 1;
+        }
+        for (; i < size; i++) {
+            if (skip && u_i == set[i]) {
+                continue;
+            }
+            outbox.send(u_i, set[i], delta);
+        }
+    }
+
+    /**
+     * Add or remove Nr entries from the fingerprint of the topology.
+     */
+    private void toggle(long edges) {
+        long old;
+        do {
+            old = this.fingerprint.get();
+        } while (!this.fingerprint.compareAndSet(old, old ^ edges));
+    }
+
+    /**
+     * @return the XOR of {@link ConvergenceMonitor#edge(int, int)} over every
+     *         <b>Nr</b> entry
+     */
+    public long getFingerprint() {
+        return this.fingerprint.get();
+    }
+
+    /**
+     * Add delta to the propinquity of a pair outside of a superstep.
+     */
+    private void pair(int u, int v, int delta) {
+        if (this.trace != null) {
+            this.trace.step(PhaseMetrics.STREAM, 0, "init");
+            this.trace.direct(Math.min(u, v), Math.max(u, v), delta);
+            if (!this.symmetric) {
+                this.trace.direct(Math.max(u, v), Math.min(u, v), delta);
+            }
+        }
+        if (!this.symmetric) {
+            this.pm.add(u, v, delta);
+            this.pm.add(v, u, delta);
+        } else if (u < v) {
+            this.pm.add(u, v, delta);
+        } else {
+            this.pm.add(v, u, delta);
+        }
+    }
+
+    /**
+     * Send +1 to both directions of every pair of a list, or of a sample of
+     * the pairs if the list is longer than the hub degree. A pair is then
+     * taken with probability 1 / k and sends +k, so the expected propinquity
+     * is the same. Roughly hubDegree<sup>2</sup> / 2 pairs are taken, and the
+     * gaps between them are drawn from the geometric distribution, so the
+     * skipped pairs cost nothing. With {@link #setSymmetric(boolean)} only
+     * the direction from the smaller vertex is sent.
+     *
+     * @param list the sorted vertices
+     * @param size how many of them
+     * @param seed the seed of the sample, so a run can be repeated
+     */
+    private void pairs(Outbox outbox, int[] list, int from, int size, long seed) {
+        if (this.hubDegree == 0 || size <= this.hubDegree) {
+            for (int x = from; x < from + size; x++) {
+                for (int y = this.symmetric ? x + 1 : from; y < from + size; y++) {
+                    if (x != y) {
+                        outbox.send(list[x], list[y], 1);
+                    }
+                }
+            }
+            return;
+        }
+
+        long total = (long) size * (size - 1) / 2;
+        long budget = (long) this.hubDegree * (this.hubDegree - 1) / 2;
+        int k = (int) Math.min(Integer.MAX_VALUE, (total + budget - 1) / budget);
+        double skip = Math.log(1 - 1.0 / k);
+        Random random = new Random(seed);
+
+        // (x, y) walks the pairs x < y in order, gap is the number of pairs
+        // to skip before the next one we take
+        long taken = 0;
+        int x = 0, y = 1;
+        long gap = (long) (Math.log(1 - random.nextDouble()) / skip);
+        while (true) {
+            while (gap > 0 && x < size - 1) {
+                long left = size - y;
+                if (gap < left) {
+                    y += gap;
+                    gap = 0;
+                } else {
+                    gap -= left;
+                    x++;
+                    y = x + 1;
+                }
+            }
+            if (x >= size - 1) {
+                break;
+            }
+
+            outbox.send(list[from + x], list[from + y], k);
+            if (!this.symmetric) {
+                outbox.send(list[from + y], list[from + x], k);
+            }
+            taken++;
+            gap = 1 + (long) (Math.log(1 - random.nextDouble()) / skip);
+        }
+        this.skipped.addAndGet((this.symmetric ? 1 : 2) * (total - taken));
+    }
+
+    // PHASE 1
+    public void init() {
+        final int[] neighbours = this.csr.getNeighbours();
+        final int[] all = all();
+        startPhase(PhaseMetrics.PHASE1, 0);
+
+        // Init data in each vertex, the direct neighbours start with 1
+        superstep("init", all, all.length, new VertexProgram() {
+            @Override
+            public void compute(int v, Outbox outbox) {
+                pm.create(v, 100);
+                Nr[v] = csr.neighboursOf(v);
+                Ni[v] = IntSets.EMPTY;
+                Nd[v] = IntSets.EMPTY;
+
+                long edges = 0;
+                for (int i = csr.getStart(v); i < csr.getEnd(v); i++) {
+                    if (!symmetric || neighbours[i] > v) {
+                        pm.increase(v, neighbours[i]);
+                        if (trace != null) {
+                            trace.direct(v, neighbours[i], 1);
+                        }
+                    }
+                    edges ^= ConvergenceMonitor.edge(v, neighbours[i]);
+                }
+                toggle(edges);
+            }
+        }, this.inbox);
+
+        // Superstep 0 + 1
+        // Angle Propinquity, each vertex increases the propinquity between
+        // every pair of its neighbours.
+        superstep("angle", all, all.length, new VertexProgram() {
+            @Override
+            public void compute(int v, Outbox outbox) {
+                pairs(outbox, neighbours, csr.getStart(v), csr.getDegree(v), v);
+            }
+        }, this.inbox);
+
+        if (this.debugIndices != null) {
+            System.out.println("PHASE 1");
+            System.out.println("After Angle Propinquity");
+            debug();
+        }
+
+        // Superstep 1 + 2 + 3
+        // Conjugate Propinquity, the common neighbours of the two ends of an
+        // edge increase the propinquity between each other.
+        final int maxDegree = this.csr.getMaxDegree();
+        final ThreadLocal<int[]> scratch = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[maxDegree];
+            }
+        };
+        superstep("conjugate", all, all.length, new VertexProgram() {
+            @Override
+            public void compute(int v, Outbox outbox) {
+                int[] Nc = scratch.get();
+
+                for (int i = csr.getStart(v); i < csr.getEnd(v); i++) {
+                    int neigh = neighbours[i];
+                    if (neigh < v) {
+                        continue;
+                    }
+
+                    int size = csr.commonNeighbours(v, neigh, Nc);
+                    pairs(outbox, Nc, 0, size, ((long) v << 32) | neigh);
+                }
+            }
+        }, this.inbox);
+
+        if (this.debugIndices != null) {
+            System.out.println("After Conjugate Propinquity");
+            debug();
+        }
+
+        if (this.statistics && this.hubDegree > 0) {
+            System.out.println("Hub sampling skipped " + this.skipped.get() + " propinquity updates");
+        }
+
+        if (this.statistics) {
+            PropinquityMap stats = new PropinquityMap(100);
+
+            for (int v : all) {
+                PropinquityStore.Cursor row = this.pm.cursor(v);
+                while (row.next()) {
+                    stats.add(row.value(), this.symmetric ? 2 : 1);
+                }
+            }
+
+            System.out.println(stats);
+        }
+
+        endPhase(0, 0, 0);
+    }
+
+    // PHASE 2
+    /**
+     * Run one Phase 2 loop on the snapshot. Every part is a superstep of the
+     * executor, the updates of the propinquity maps are sent as messages and
+     * applied at the barrier after the superstep.
+     *
+     * @param a the deletion threshold
+     * @param b the insertion threshold
+     *
+     * @return the number of added or removed edges
+     */
+    public int compute(int a, int b) {
+        startPhase(PhaseMetrics.PHASE2, ++this.loops);
+        int[] vertices = this.active != null ? this.active : all();
+        int[] changes = new int[1];
+        int[] moved = derive(vertices, vertices.length, a, b, changes);
+        long[] sizes = sizes(moved, new long[2]);
+
+        if (this.debugIndices != null) {
+            System.out.println("PHASE 2");
+            System.out.println("After initialization");
+            debug();
+        }
+
+        if (!this.useFrontier) {
+            propagate(moved, this.inbox);
+            endPhase(changes[0], sizes[0], sizes[1]);
+            return changes[0];
+        }
+
+        // Only the vertices that got updates or moved can have a different
+        // Ni or Nd in the next loop, the rest would find the same nothing.
+        this.frontier.ensure(this.ids.length);
+        propagate(moved, this.frontier);
+        for (int v : moved) {
+            this.frontier.add(v);
+        }
+        this.active = this.frontier.drain();
+        endPhase(changes[0], sizes[0], sizes[1]);
+        return changes[0];
+    }
+
+    /**
+     * Make the next Phase 2 loops look only at the vertices that got
+     * propinquity updates or changed neighbours in the loop before them. The
+     * result is the same as looking at every vertex, but the cost of a loop
+     * follows the number of changes.
+     *
+     * @param frontier true to use a frontier, false to look at all vertices
+     */
+    public void setFrontier(boolean frontier) {
+        this.useFrontier = frontier;
+        this.active = null;
+    }
+
+    /**
+     * Let the worker threads add up their propinquity updates of every pair
+     * before the barrier, see {@link BSPExecutor#setCoalescing(boolean)}. The
+     * result is the same, only the entries that would end up 0 are never
+     * created.
+     *
+     * @param coalescing true to add up the updates
+     */
+    public void setCoalescing(boolean coalescing) {
+        this.executor.setCoalescing(coalescing);
+    }
+
+    /**
+     * @return the number of vertices the next Phase 2 loop looks at
+     */
+    public int getFrontierSize() {
+        return this.active != null ? this.active.length : this.n - this.removed;
+    }
+
+    /**
+     * Drop the propinquity with vertices that are not neighbours and will
+     * probably never become ones, and shrink the maps. Entries that are 0 are
+     * always dropped, since a missing entry counts as 0. The neighbours in
+     * <b>Nr</b> are always kept, they are needed for the deletions. Every
+     * other dropped entry starts again from 0 if it gets updates later, which
+     * is the accuracy we give away.
+     *
+     * @param floor the smallest propinquity of a non neighbour to keep,
+     *              {@link Integer#MIN_VALUE} keeps all
+     * @param topK  how many non neighbours to keep per vertex, the ones with
+     *              the highest propinquity (ties are kept), 0 keeps all. With
+     *              {@link #setSymmetric(boolean)} it counts only the pairs a
+     *              vertex stores, the ones with larger vertices. Without it a
+     *              pair is dropped only if both ends rank it out, so the
+     *              maps stay symmetric
+     */
+    public void prune(final int floor, final int topK) {
+        final AtomicLong entries = new AtomicLong(), dropped = new AtomicLong(), lossy = new AtomicLong();
+        final AtomicLong lost = new AtomicLong(), before = new AtomicLong(), after = new AtomicLong();
+        int[] all = all();
+        // The smallest propinquity of a non neighbour every vertex keeps
+        final int[] cut = new int[this.n];
+
+        superstep("prune-rank", all, all.length, new VertexProgram() {
+            @Override
+            public void compute(int v, Outbox outbox) {
+                Work w = work.get();
+                int[] Nr = PropinquitySnapshot.this.Nr[v];
+                int candidates = 0;
+
+                w.reserve(pm.size(v));
+                // Crr gets the propinquity of the non neighbours
+                PropinquityStore.Cursor row = pm.cursor(v);
+                while (row.next()) {
+                    if (row.value() != 0 && !IntSets.contains(Nr, row.key())) {
+                        w.Crr[candidates++] = row.value();
+                    }
+                }
+
+                cut[v] = floor;
+                if (topK > 0 && candidates > topK) {
+                    Arrays.sort(w.Crr, 0, candidates);
+                    cut[v] = Math.max(floor, w.Crr[candidates - topK]);
+                }
+            }
+        }, this.inbox);
+
+        // Both ends see the same propinquity and the same Nr, so without the
+        // symmetric mode they drop a pair together if neither keeps it. With
+        // it only the end that stores the pair decides.
+        superstep("prune", all, all.length, new VertexProgram() {
+            @Override
+            public void compute(int v, Outbox outbox) {
+                Work w = work.get();
+                int[] Nr = PropinquitySnapshot.this.Nr[v];
+                int size = pm.size(v);
+                int drop = 0;
+
+                w.reserve(size);
+                // Cri gets the keys to drop
+                long mass = 0;
+                int nonZero = 0;
+                PropinquityStore.Cursor row = pm.cursor(v);
+                while (row.next()) {
+                    int value = row.value();
+                    if (value == 0) {
+                        w.Cri[drop++] = row.key();
+                    } else if (value < cut[v] && (symmetric || value < cut[row.key()])
+                            && !IntSets.contains(Nr, row.key())) {
+                        w.Cri[drop++] = row.key();
+                        mass += Math.abs(value);
+                        nonZero++;
+                    }
+                }
+
+                before.addAndGet(pm.bytes(v));
+                for (int i = 0; i < drop; i++) {
+                    pm.remove(v, w.Cri[i]);
+                }
+                pm.trim(v);
+                after.addAndGet(pm.bytes(v));
+
+                entries.addAndGet(size);
+                dropped.addAndGet(drop);
+                lossy.addAndGet(nonZero);
+                lost.addAndGet(mass);
+            }
+        }, this.inbox);
+
+        if (this.statistics) {
+            System.out.println("Pruned " + dropped.get() + " of " + entries.get() + " propinquity entries, "
+                    + lossy.get() + " of them not 0 with total propinquity " + lost.get() + ", "
+                    + (before.get() - after.get()) + " of " + before.get() + " bytes freed");
+        }
+    }
+
+    /**
+     * Superstep 0 first part. Every vertex splits its neighbours to Nr, Ni
+     * and Nd by looking only at its own propinquity map, and takes care of its
+     * direct connections.
+     *
+     * @param vertices the vertices to look at
+     * @param count    how many of them
+     * @param changes  gets the number of added or removed edges in [0]
+     *
+     * @return the vertices with a non empty Ni or Nd
+     */
+    private int[] derive(int[] vertices, int count, final int a, final int b, int[] changes) {
+        if (this.symmetric) {
+            return deriveSymmetric(vertices, count, a, b, changes);
+        }
+
+        final AtomicInteger e = new AtomicInteger();
+        final boolean skipRemoved = this.removed > 0;
+
+        superstep("derive", vertices, count, new VertexProgram() {
+            @Override
+            public void compute(int v, Outbox outbox) {
+                Work w = work.get();
+                int[] Nr = PropinquitySnapshot.this.Nr[v];
+                int ni = 0, nd = 0;
+
+                w.Ni = IntSets.ensure(w.Ni, pm.size(v));
+                w.Nd = IntSets.ensure(w.Nd, Nr.length);
+                PropinquityStore.Cursor row = pm.cursor(v);
+                while (row.next()) {
+                    int nodeIndex = row.key();
+                    int propinquity = row.value();
+
+                    if (propinquity <= a && IntSets.contains(Nr, nodeIndex)) {
+                        w.Nd[nd++] = nodeIndex;
+                    } else if (propinquity >= b && !IntSets.contains(Nr, nodeIndex)) {
+                        if (!skipRemoved || ids[nodeIndex] != null) {
+                            w.Ni[ni++] = nodeIndex;
+                        }
+                    }
+                }
+                if (ni + nd > 0) {
+                    e.addAndGet(ni + nd);
+                    long edges = 0;
+                    for (int i = 0; i < ni; i++) {
+                        edges ^= ConvergenceMonitor.edge(v, w.Ni[i]);
+                    }
+                    for (int i = 0; i < nd; i++) {
+                        edges ^= ConvergenceMonitor.edge(v, w.Nd[i]);
+                    }
+                    toggle(edges);
+                }
+
+                Arrays.sort(w.Ni, 0, ni);
+                Arrays.sort(w.Nd, 0, nd);
+                int[] Ni = IntSets.copyOf(w.Ni, ni);
+                int[] Nd = IntSets.copyOf(w.Nd, nd);
+                PropinquitySnapshot.this.Ni[v] = Ni;
+                PropinquitySnapshot.this.Nd[v] = Nd;
+
+                if (nd > 0) {
+                    w.Nr = IntSets.ensure(w.Nr, Nr.length);
+                    PropinquitySnapshot.this.Nr[v] = IntSets.copyOf(w.Nr, IntSets.difference(Nr, Nd, w.Nr));
+                }
+
+                for (int id : Ni) {
+                    pm.increase(v, id);
+                }
+                for (int id : Nd) {
+                    pm.decrease(v, id);
+                }
+                if (trace != null) {
+                    for (int id : Ni) {
+                        trace.direct(v, id, 1);
+                    }
+                    for (int id : Nd) {
+                        trace.direct(v, id, -1);
+                    }
+                }
+            }
+        }, this.inbox);
+
+        changes[0] = e.get();
+
+        int size = 0;
+        int[] moved = new int[Math.min(count, e.get())];
+        for (int i = 0; i < count; i++) {
+            int v = vertices[i];
+            if (this.Ni[v].length > 0 || this.Nd[v].length > 0) {
+                moved[size++] = v;
+            }
+        }
+        return Arrays.copyOf(moved, size);
+    }
+
+    /**
+     * {@link #derive} on the canonical half of the pairs. A vertex looks only
+     * at the pairs it stores, with larger vertices, decides for both ends and
+     * sends the decision to the other end. A second superstep merges the
+     * decisions of every vertex into its Ni and Nd.
+     */
+    private int[] deriveSymmetric(int[] vertices, int count, final int a, final int b, int[] changes) {
+        final AtomicInteger e = new AtomicInteger();
+        final boolean skipRemoved = this.removed > 0;
+
+        if (this.received == null || this.received.length < this.ids.length) {
+            int old = this.received == null ? 0 : this.received.length;
+            this.received = this.received == null ? new int[this.ids.length][]
+                    : Arrays.copyOf(this.received, this.ids.length);
+            this.receivedSize = new int[this.ids.length];
+            for (int v = old; v < this.ids.length; v++) {
+                this.received[v] = IntSets.EMPTY;
+            }
+        }
+        this.mirror.ensure(this.ids.length);
+
+        superstep("derive", vertices, count, new VertexProgram() {
+            @Override
+            public void compute(int v, Outbox outbox) {
+                Work w = work.get();
+                int[] Nr = PropinquitySnapshot.this.Nr[v];
+                int ni = 0, nd = 0;
+
+                w.Ni = IntSets.ensure(w.Ni, pm.size(v));
+                w.Nd = IntSets.ensure(w.Nd, Nr.length);
+                PropinquityStore.Cursor row = pm.cursor(v);
+                while (row.next()) {
+                    int nodeIndex = row.key();
+                    int propinquity = row.value();
+
+                    if (propinquity <= a && IntSets.contains(Nr, nodeIndex)) {
+                        w.Nd[nd++] = nodeIndex;
+                    } else if (propinquity >= b && !IntSets.contains(Nr, nodeIndex)) {
+                        if (!skipRemoved || ids[nodeIndex] != null) {
+                            w.Ni[ni++] = nodeIndex;
+                        }
+                    }
+                }
+                if (ni + nd == 0) {
+                    return;
+                }
+
+                // Both ends change
+                e.addAndGet(2 * (ni + nd));
+                long edges = 0;
+                for (int i = 0; i < ni; i++) {
+                    edges ^= ConvergenceMonitor.edge(v, w.Ni[i]) ^ ConvergenceMonitor.edge(w.Ni[i], v);
+                    pm.increase(v, w.Ni[i]);
+                    outbox.send(w.Ni[i], v, 1);
+                    if (trace != null) {
+                        trace.direct(v, w.Ni[i], 1);
+                    }
+                }
+                for (int i = 0; i < nd; i++) {
+                    edges ^= ConvergenceMonitor.edge(v, w.Nd[i]) ^ ConvergenceMonitor.edge(w.Nd[i], v);
+                    pm.decrease(v, w.Nd[i]);
+                    outbox.send(w.Nd[i], v, -1);
+                    if (trace != null) {
+                        trace.direct(v, w.Nd[i], -1);
+                    }
+                }
+                toggle(edges);
+
+                PropinquitySnapshot.this.Ni[v] = IntSets.copyOf(w.Ni, ni);
+                PropinquitySnapshot.this.Nd[v] = IntSets.copyOf(w.Nd, nd);
+                mirror.add(v);
+            }
+        }, this.mirror);
+
+        changes[0] = e.get();
+        int[] moved = this.mirror.drain();
+        Arrays.sort(moved);
+
+        superstep("merge", moved, moved.length, new VertexProgram() {
+            @Override
+            public void compute(int v, Outbox outbox) {
+                Work w = work.get();
+                int[] Nr = PropinquitySnapshot.this.Nr[v];
+                int[] Ni = PropinquitySnapshot.this.Ni[v];
+                int[] Nd = PropinquitySnapshot.this.Nd[v];
+                int[] decided = received[v];
+                int size = receivedSize[v];
+                int ni = Ni.length, nd = Nd.length;
+
+                w.Ni = IntSets.ensure(w.Ni, ni + size);
+                w.Nd = IntSets.ensure(w.Nd, nd + size);
+                System.arraycopy(Ni, 0, w.Ni, 0, ni);
+                System.arraycopy(Nd, 0, w.Nd, 0, nd);
+                for (int i = 0; i < size; i++) {
+                    if (decided[i] >= 0) {
+                        w.Ni[ni++] = decided[i];
+                    } else {
+                        w.Nd[nd++] = ~decided[i];
+                    }
+                }
+                receivedSize[v] = 0;
+
+                Arrays.sort(w.Ni, 0, ni);
+                Arrays.sort(w.Nd, 0, nd);
+                PropinquitySnapshot.this.Ni[v] = IntSets.copyOf(w.Ni, ni);
+                PropinquitySnapshot.this.Nd[v] = IntSets.copyOf(w.Nd, nd);
+
+                if (nd > 0) {
+                    w.Nr = IntSets.ensure(w.Nr, Nr.length);
+                    PropinquitySnapshot.this.Nr[v] = IntSets.copyOf(w.Nr,
+                            IntSets.difference(Nr, PropinquitySnapshot.this.Nd[v], w.Nr));
+                }
+            }
+        }, this.inbox);
+
+        return moved;
+    }
+
+    /**
+     * Superstep 0 second part and superstep 1 second part. The vertices that
+     * got a non empty Ni or Nd spread it with the angle and the conjugate
+     * propinquity, then Nr becomes Nr + Ni. The rest of the vertices have
+     * nothing to send, so only the edges that touch a moved vertex are
+     * visited.
+     *
+     * @param moved the vertices with a non empty Ni or Nd, the Ni and Nd of
+     *              every other vertex must be empty
+     * @param inbox where the propinquity updates are applied
+     */
+    private void propagate(final int[] moved, Outbox inbox) {
+        // Angle Propinquity
+        superstep("angle", moved, moved.length, new VertexProgram() {
+            @Override
+            public void compute(int v, Outbox outbox) {
+                int[] Nr = PropinquitySnapshot.this.Nr[v];
+                int[] Ni = PropinquitySnapshot.this.Ni[v];
+                int[] Nd = PropinquitySnapshot.this.Nd[v];
+
+                for (int u_i : Nr) {
+                    PU(outbox, u_i, Ni, Ni.length, '+');
+                    PU(outbox, u_i, Nd, Nd.length, '-');
+                }
+                for (int u_i : Ni) {
+                    PU(outbox, u_i, Nr, Nr.length, '+');
+                    PU(outbox, u_i, Ni, Ni.length, '+', true);
+                }
+                for (int u_i : Nd) {
+                    PU(outbox, u_i, Nr, Nr.length, '-');
+                    PU(outbox, u_i, Nd, Nd.length, '-', true);
+                }
+            }
+        }, inbox);
+
+        if (this.debugIndices != null) {
+            System.out.println("After Angle Propinquity");
+            debug();
+        }
+
+        // Conjugate Propinquity
+        // The sets of the neighbours are only read, they were donated (DN)
+        // at the previous barrier. An edge is visited once, from its smaller
+        // end or from its only moved end.
+        for (int v : moved) {
+            this.changed[v] = true;
+        }
+        superstep("conjugate", moved, moved.length, new VertexProgram() {
+            @Override
+            public void compute(int v, Outbox outbox) {
+                int[][] allNr = PropinquitySnapshot.this.Nr;
+                int[][] allNi = PropinquitySnapshot.this.Ni;
+                int[][] allNd = PropinquitySnapshot.this.Nd;
+                int[] Nr = allNr[v];
+                int[] Ni = allNi[v];
+                int[] Nd = allNd[v];
+                Work w = work();
+                Scratch s = w.scratch;
+
+                w.reserve(Nr.length + Ni.length + Nd.length);
+                if (Nr.length >= Scratch.BITSET_THRESHOLD) {
+                    s.mark(Nr, Ni, Nd);
+                }
+
+                for (int nn : Nr) {
+                    if ((nn > v || !changed[nn]) && IntSets.contains(allNr[nn], v)) {
+                        int[] Crr = w.Crr, Cri = w.Cri, Crd = w.Crd;
+                        int rr = CalculateCrr(Nr, allNr[nn], Crr, s);
+                        int ri = CalculateCri(Nr, Ni, allNr[nn], allNi[nn], Cri, s);
+                        int rd = CalculateCrd(Nr, Nd, allNr[nn], allNd[nn], Crd, s);
+
+                        for (int x = 0; x < rr; x++) {
+                            PU(outbox, Crr[x], Cri, ri, '+');
+                            PU(outbox, Crr[x], Crd, rd, '-');
+                        }
+                        for (int x = 0; x < ri; x++) {
+                            PU(outbox, Cri[x], Crr, rr, '+');
+                            PU(outbox, Cri[x], Cri, ri, '+', true);
+                        }
+                        for (int x = 0; x < rd; x++) {
+                            PU(outbox, Crd[x], Crr, rr, '-');
+                            PU(outbox, Crd[x], Crd, rd, '-', true);
+                        }
+                    }
+                }
+
+                for (int nn : Ni) {
+                    if (nn > v && IntSets.contains(allNi[nn], v)) {
+                        int[] Cii = w.Cxx;
+                        int ii = CalculateCii(Nr, Ni, allNr[nn], allNi[nn], Cii, s);
+
+                        for (int x = 0; x < ii; x++) {
+                            PU(outbox, Cii[x], Cii, ii, '+', true);
+                        }
+                    }
+                }
+
+                for (int nn : Nd) {
+                    if (nn > v && IntSets.contains(allNd[nn], v)) {
+                        int[] Cdd = w.Cxx;
+                        int dd = CalculateCdd(Nr, Nd, allNr[nn], allNd[nn], Cdd, s);
+
+                        for (int x = 0; x < dd; x++) {
+                            PU(outbox, Cdd[x], Cdd, dd, '-', true);
+                        }
+                    }
+                }
+
+                s.unmark();
+            }
+        }, inbox);
+        for (int v : moved) {
+            this.changed[v] = false;
+        }
+
+        if (this.debugIndices != null) {
+            System.out.println("After Conjugate Propinquity");
+            debug();
+        }
+
+        // Finishing step. Nr <- Nr + Ni, Ni and Nd are cleared for the next
+        // loop.
+        superstep("finish", moved, moved.length, new VertexProgram() {
+            @Override
+            public void compute(int v, Outbox outbox) {
+                if (Ni[v].length > 0) {
+                    int[] merged = new int[Nr[v].length + Ni[v].length];
+                    IntSets.union(Nr[v], Ni[v], merged);
+                    Nr[v] = merged;
+                }
+                Ni[v] = IntSets.EMPTY;
+                Nd[v] = IntSets.EMPTY;
+            }
+        }, inbox);
+    }
+
+    // STREAMING
+    /**
+     * Run Phase 2 loops only on the vertices that got propinquity updates
+     * since the last loop, until none of them changes its neighbours.
+     *
+     * @param seeds the vertices to look at first, besides the frontier
+     *
+     * @return the number of added or removed edges of the last loop
+     */
+    private int settle(int[] seeds, int a, int b) {
+        for (int v : seeds) {
+            this.frontier.add(v);
+        }
+
+        int[] changes = new int[1];
+        long[] sizes = new long[2];
+        for (int loop = 0; loop < MAX_LOCAL_LOOPS; loop++) {
+            startPhase(PhaseMetrics.STREAM, loop + 1);
+            int[] active = this.frontier.drain();
+            int[] moved = derive(active, active.length, a, b, changes);
+            sizes(moved, sizes);
+            if (moved.length == 0) {
+                break;
+            }
+
+            propagate(moved, this.frontier);
+            for (int v : moved) {
+                this.frontier.add(v);
+            }
+            endPhase(changes[0], sizes[0], sizes[1]);
+            sizes[0] = 0;
+            sizes[1] = 0;
+        }
+        this.frontier.drain();
+        return changes[0];
+    }
+
+    private Map<String, Integer> indexOf() {
+        if (this.indexOf == null) {
+            this.indexOf = new HashMap<String, Integer>(this.n * 2);
+            for (int v = 0; v < this.n; v++) {
+                if (this.ids[v] != null) {
+                    this.indexOf.put(this.ids[v], v);
+                }
+            }
+        }
+        return this.indexOf;
+    }
+
+    /**
+     * @param id the GraphStream id of a vertex
+     *
+     * @return the index of the vertex, -1 if there is none
+     */
+    public int indexOf(String id) {
+        Integer v = indexOf().get(id);
+        return v == null ? -1 : v;
+    }
+
+    private void grow(int capacity) {
+        if (this.ids.length >= capacity) {
+            return;
+        }
+        capacity = Math.max(capacity, this.ids.length * 2);
+        this.pm.grow(capacity);
+        this.Nr = Arrays.copyOf(this.Nr, capacity);
+        this.Ni = Arrays.copyOf(this.Ni, capacity);
+        this.Nd = Arrays.copyOf(this.Nd, capacity);
+        this.ids = Arrays.copyOf(this.ids, capacity);
+        this.changed = Arrays.copyOf(this.changed, capacity);
+    }
+
+    /**
+     * Add a vertex without neighbours.
+     *
+     * @param id the GraphStream id of the vertex
+     *
+     * @return the index of the vertex, the old one if it already exists
+     */
+    public int addVertex(String id) {
+        int v = indexOf(id);
+        if (v >= 0) {
+            return v;
+        }
+
+        v = this.n++;
+        grow(this.n);
+        this.pm.create(v, 16);
+        this.Nr[v] = IntSets.EMPTY;
+        this.Ni[v] = IntSets.EMPTY;
+        this.Nd[v] = IntSets.EMPTY;
+        this.ids[v] = id;
+        this.indexOf.put(id, v);
+        this.all = null;
+        return v;
+    }
+
+    /**
+     * Remove a vertex. All of its edges are removed at once, as the Nd of the
+     * vertex and of its neighbours, and then the vertices around it settle.
+     *
+     * @param id the GraphStream id of the vertex
+     *
+     * @return the number of added or removed edges of the last local loop
+     */
+    public int removeVertex(String id, int a, int b) {
+        int v = indexOf(id);
+        if (v < 0) {
+            return 0;
+        }
+
+        this.active = null;
+        int[] Nd = this.Nr[v];
+        int[] moved = Arrays.copyOf(Nd, Nd.length + 1);
+        moved[Nd.length] = v;
+        int[] self = {v};
+
+        this.Nd[v] = Nd;
+        this.Nr[v] = IntSets.EMPTY;
+        for (int u : Nd) {
+            toggle(ConvergenceMonitor.edge(u, v) ^ ConvergenceMonitor.edge(v, u));
+            pair(u, v, -1);
+            this.Nd[u] = self;
+            int[] out = new int[this.Nr[u].length];
+            this.Nr[u] = IntSets.copyOf(out, IntSets.difference(this.Nr[u], self, out));
+        }
+        this.frontier.ensure(this.ids.length);
+        startPhase(PhaseMetrics.STREAM, 0);
+        long[] sizes = sizes(moved, new long[2]);
+        propagate(moved, this.frontier);
+        endPhase(Nd.length * 2, sizes[0], sizes[1]);
+
+        this.pm.release(v);
+        this.ids[v] = null;
+        this.indexOf.remove(id);
+        this.removed++;
+        this.all = null;
+
+        return settle(Nd, a, b);
+    }
+
+    /**
+     * Add an edge as the Ni of its two ends, then let the vertices around it
+     * settle. Edges that are already in Nr are ignored.
+     *
+     * @param from the GraphStream id of one end
+     * @param to   the GraphStream id of the other end
+     *
+     * @return the number of added or removed edges of the last local loop
+     */
+    public int addEdge(String from, String to, int a, int b) {
+        int u = addVertex(from);
+        int v = addVertex(to);
+        if (u == v || IntSets.contains(this.Nr[u], v)) {
+            return 0;
+        }
+
+        this.Ni[u] = new int[]{v};
+        this.Ni[v] = new int[]{u};
+        pair(u, v, 1);
+        return update(u, v, a, b);
+    }
+
+    /**
+     * Remove an edge as the Nd of its two ends, then let the vertices around
+     * it settle. Edges that are not in Nr are ignored.
+     *
+     * @param from the GraphStream id of one end
+     * @param to   the GraphStream id of the other end
+     *
+     * @return the number of added or removed edges of the last local loop
+     */
+    public int removeEdge(String from, String to, int a, int b) {
+        int u = indexOf(from);
+        int v = indexOf(to);
+        if (u < 0 || v < 0 || !IntSets.contains(this.Nr[u], v)) {
+            return 0;
+        }
+
+        this.Nd[u] = new int[]{v};
+        this.Nd[v] = new int[]{u};
+        int[] out = new int[Math.max(this.Nr[u].length, this.Nr[v].length)];
+        this.Nr[u] = IntSets.copyOf(out, IntSets.difference(this.Nr[u], this.Nd[u], out));
+        this.Nr[v] = IntSets.copyOf(out, IntSets.difference(this.Nr[v], this.Nd[v], out));
+        pair(u, v, -1);
+        return update(u, v, a, b);
+    }
+
+    private int update(int u, int v, int a, int b) {
+        this.active = null;
+        toggle(ConvergenceMonitor.edge(u, v) ^ ConvergenceMonitor.edge(v, u));
+        int[] moved = u < v ? new int[]{u, v} : new int[]{v, u};
+        this.frontier.ensure(this.ids.length);
+        startPhase(PhaseMetrics.STREAM, 0);
+        long[] sizes = sizes(moved, new long[2]);
+        propagate(moved, this.frontier);
+        endPhase(2, sizes[0], sizes[1]);
+        return settle(moved, a, b);
+    }
+
+    /**
+     * Write <b>Nr</b> and <b>pm</b> of every vertex back to the node
+     * attributes of the graph the snapshot was taken from, so the rest of the
+     * tools (weights, statistics, final topology) can read them. The vertices
+     * are matched by id, and if the graph changed since the freeze the indices
+     * of <b>Nr</b> and <b>pm</b> are translated to the current node indices.
+     * With {@link #setSymmetric(boolean)} the <b>pm</b> of a node holds only
+     * its pairs with larger vertices, read them with
+     * {@link th.algorithms.propinquitydynamics.utils.Utils#GetPropinquity}.
+     *
+     * @param graph the graph the snapshot was frozen from
+     */
+    public void writeBack(Graph graph) {
+        int[] toGraph = new int[this.n];
+        boolean same = graph.getNodeCount() == this.n;
+        for (int v = 0; v < this.n; v++) {
+            Node node = this.ids[v] == null ? null : graph.getNode(this.ids[v]);
+            toGraph[v] = node == null ? -1 : node.getIndex();
+            same &= toGraph[v] == v;
+        }
+
+        // A symmetric pair may change its smaller end with the indices
+        PropinquityMap[] half = null;
+        if (this.symmetric && !same) {
+            half = new PropinquityMap[graph.getNodeCount()];
+            for (int v = 0; v < this.n; v++) {
+                if (toGraph[v] >= 0) {
+                    half[toGraph[v]] = new PropinquityMap(this.pm.size(v));
+                }
+            }
+            for (int v = 0; v < this.n; v++) {
+                if (toGraph[v] < 0) {
+                    continue;
+                }
+                PropinquityStore.Cursor row = this.pm.cursor(v);
+                while (row.next()) {
+                    int u = toGraph[row.key()];
+                    if (u >= 0) {
+                        half[Math.min(u, toGraph[v])].add(Math.max(u, toGraph[v]), row.value());
+                    }
+                }
+            }
+        }
+
+        for (int v = 0; v < this.n; v++) {
+            if (toGraph[v] < 0) {
+                continue;
+            }
+            Node node = graph.getNode(toGraph[v]);
+            node.setAttribute("ui.label", toGraph[v] + "#" + this.ids[v]);
+            node.setAttribute("ui.style", "size:20px;");
+
+            PropinquityMap pm;
+            if (same) {
+                pm = this.pm.toMap(v);
+            } else if (half != null) {
+                pm = half[toGraph[v]];
+            } else {
+                pm = new PropinquityMap(this.pm.size(v));
+                PropinquityStore.Cursor row = this.pm.cursor(v);
+                while (row.next()) {
+                    if (toGraph[row.key()] >= 0) {
+                        pm.add(toGraph[row.key()], row.value());
+                    }
+                }
+            }
+            node.setAttribute("pm", pm);
+
+            Set<Integer> Nr = new HashSet<Integer>(this.Nr[v].length * 2);
+            for (int id : this.Nr[v]) {
+                if (toGraph[id] >= 0) {
+                    Nr.add(toGraph[id]);
+                }
+            }
+            node.setAttribute("Nr", Nr);
+        }
+    }
+
+    /**
+     * @param indices the vertices to print after every phase, null to stop
+     *                printing
+     */
+    public void setDebug(int[] indices) {
+        this.debugIndices = indices;
+    }
+
+    /**
+     * Sample the pairs of the neighbour lists in Phase 1 that are longer than
+     * the given degree, see {@link #pairs}.
+     *
+     * @param degree the largest list that is not sampled, 0 to never sample
+     */
+    public void setHubDegree(int degree) {
+        this.hubDegree = degree == 1 ? 2 : degree;
+    }
+
+    /**
+     * @return the propinquity updates that hub sampling left out in Phase 1
+     */
+    public long getSkippedUpdates() {
+        return this.skipped.get();
+    }
+
+    /**
+     * Keep only the canonical half of every pair, (u, v) with u &lt; v in the
+     * map of u, and send every propinquity update once. It halves the memory
+     * and the updates of the propinquity, the result is the same. It must be
+     * set before {@link #init()}, or match the store the snapshot was
+     * restored with.
+     *
+     * @param symmetric true to keep half of the pairs
+     */
+    public void setSymmetric(boolean symmetric) {
+        this.symmetric = symmetric;
+    }
+
+    /**
+     * @return true if only the pairs with larger vertices are stored
+     */
+    public boolean isSymmetric() {
+        return this.symmetric;
+    }
+
+    /**
+     * @param listener gets the metrics of every superstep and phase, null to
+     *                 stop measuring
+     */
+    public void setListener(PropinquityListener listener) {
+        this.listener = listener;
+        this.executor.setMetrics(listener != null);
+    }
+
+    /**
+     * @param trace records the propinquity updates of some vertices, null to
+     *              stop recording, it is flushed at the end of every phase
+     */
+    public void setTrace(TraceRecorder trace) {
+        this.trace = trace;
+    }
+
+    public void setStatistics(boolean statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Stop the worker threads of the snapshot and free its propinquity
+     * store.
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+        this.pm.close();
+    }
+
+    /**
+     * @return the number of vertex slots, removed vertices keep theirs
+     */
+    public int getVertexCount() {
+        return this.n;
+    }
+
+    /**
+     * @return the GraphStream id of <b>v</b>, null if it was removed
+     */
+    public String getId(int v) {
+        return this.ids[v];
+    }
+
+    /**
+     * @return the sorted neighbours of <b>v</b>, they must not be modified
+     */
+    public int[] getNr(int v) {
+        return this.Nr[v];
+    }
+
+    /**
+     * @return the propinquity maps of the vertices
+     */
+    public PropinquityStore getStore() {
+        return this.pm;
+    }
+
+    /**
+     * @return the frozen topology the snapshot started from, or the topology
+     *         of the checkpoint it was restored from
+     */
+    public CSRGraph getCSR() {
+        return this.csr;
+    }
+}
@@ -0,0 +1,390 @@
+package th.algorithms.propinquitydynamics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.graphstream.graph.Graph;
+import th.algorithms.propinquitydynamics.utils.CSRGraph;
+
+/**
+ * Runs Propinquity Dynamics for many (a, b) pairs on the same graph. Phase 1
+ * does not depend on the thresholds, so it runs once, and every pair starts
+ * its Phase 2 loops from a {@link PropinquitySnapshot#fork(int)} of that
+ * state. The pairs run in parallel, one thread each, and every run reports
+ * how it stopped, the number of communities (the connected components of the
+ * final topology, as {@link th.utils.ExtractCommunities#BFS(Graph)} finds
+ * them) and their NMI against the <b>groundTruth</b> attribute.
+ * <pre>
+ * PropinquitySweep sweep = new PropinquitySweep(graph);
+ * sweep.addGrid(new int[]{1, 2, 3}, new int[]{8, 10, 20});
+ * for (PropinquitySweep.Result result : sweep.run()) {
+ *     System.out.println(result);
+ * }
+ * </pre>
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class PropinquitySweep {
+
+    private final Graph graph;
+    private final List<int[]> pairs = new ArrayList<int[]>();
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int maxIterations = 100, patience = ConvergenceMonitor.DEFAULT_PATIENCE;
+    private boolean frontier = false, symmetric = false, coalesce = false;
+    private String groundTruth = "groundTruth";
+
+    /**
+     * @param graph the graph, it is only read
+     */
+    public PropinquitySweep(Graph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Run the pair (a, b).
+     */
+    public void add(int a, int b) {
+        this.pairs.add(new int[]{a, b});
+    }
+
+    /**
+     * Run every pair of a deletion threshold and an insertion threshold.
+     */
+    public void addGrid(int[] as, int[] bs) {
+        for (int a : as) {
+            for (int b : bs) {
+                add(a, b);
+            }
+        }
+    }
+
+    /**
+     * @param threads how many pairs run at the same time, Phase 1 uses as
+     *                many threads
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(threads, 1);
+    }
+
+    /**
+     * @param maxIterations the most Phase 2 loops of a pair
+     * @param patience      how many loops without a new smallest <b>e</b>
+     *                      stop a pair
+     */
+    public void setLimits(int maxIterations, int patience) {
+        this.maxIterations = maxIterations;
+        this.patience = patience;
+    }
+
+    /**
+     * @param attribute the node attribute with the true community, nodes with
+     *                  the same value are in the same community
+     */
+    public void setGroundTruth(String attribute) {
+        this.groundTruth = attribute;
+    }
+
+    /**
+     * See {@link PropinquityDynamics#frontierOn()}.
+     */
+    public void frontierOn() {
+        this.frontier = true;
+    }
+
+    public void frontierOff() {
+        this.frontier = false;
+    }
+
+    /**
+     * See {@link PropinquityDynamics#symmetricOn()}.
+     */
+    public void symmetricOn() {
+        this.symmetric = true;
+    }
+
+    public void symmetricOff() {
+        this.symmetric = false;
+    }
+
+    /**
+     * See {@link PropinquityDynamics#coalesceOn()}.
+     */
+    public void coalesceOn() {
+        this.coalesce = true;
+    }
+
+    public void coalesceOff() {
+        this.coalesce = false;
+    }
+
+    /**
+     * Run Phase 1 and then every pair.
+     *
+     * @return the results in the order the pairs were added
+     */
+    public List<Result> run() {
+        CSRGraph csr = CSRGraph.freeze(this.graph);
+        final int[] truth = truth(csr);
+        final PropinquitySnapshot phase1 = new PropinquitySnapshot(csr, this.threads);
+        phase1.setSymmetric(this.symmetric);
+        phase1.setCoalescing(this.coalesce);
+        phase1.init();
+
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+        try {
+            List<Future<Result>> futures = new ArrayList<Future<Result>>(this.pairs.size());
+            for (final int[] pair : this.pairs) {
+                futures.add(pool.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() {
+                        return run(phase1.fork(1), pair[0], pair[1], truth);
+                    }
+                }));
+            }
+
+            List<Result> results = new ArrayList<Result>(futures.size());
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            pool.shutdownNow();
+            phase1.shutdown();
+        }
+    }
+
+    private Result run(PropinquitySnapshot state, int a, int b, int[] truth) {
+        long start = System.nanoTime();
+        try {
+            state.setFrontier(this.frontier);
+            ConvergenceMonitor monitor = new ConvergenceMonitor(this.maxIterations, this.patience);
+            monitor.start(state.getFingerprint());
+            int e;
+            do {
+                e = state.compute(a, b);
+            } while (monitor.update(e, state.getFingerprint()));
+
+            int[] labels = new int[state.getVertexCount()];
+            int communities = components(state, labels);
+            double nmi = truth == null ? Double.NaN : NMI(labels, truth);
+            return new Result(a, b, e, monitor, communities, nmi, labels, (System.nanoTime() - start) / 1000000);
+        } finally {
+            state.shutdown();
+        }
+    }
+
+    /**
+     * @return the true community of every vertex as an int, null if a vertex
+     *         has none
+     */
+    private int[] truth(CSRGraph csr) {
+        Map<Object, Integer> communities = new HashMap<Object, Integer>();
+        int[] labels = new int[csr.getNodeCount()];
+        for (int v = 0; v < labels.length; v++) {
+            Object community = this.graph.getNode(csr.getId(v)).getAttribute(this.groundTruth);
+            if (community == null) {
+                return null;
+            }
+            Integer label = communities.get(community);
+            if (label == null) {
+                label = communities.size();
+                communities.put(community, label);
+            }
+            labels[v] = label;
+        }
+        return labels;
+    }
+
+    /**
+     * Number the connected components of the <b>Nr</b> of a state from 1, in
+     * the order of their first vertex.
+     *
+     * @return the number of components
+     */
+    private static int components(PropinquitySnapshot state, int[] labels) {
+        int n = labels.length;
+        int[] parent = new int[n];
+        for (int v = 0; v < n; v++) {
+            parent[v] = v;
+        }
+        for (int v = 0; v < n; v++) {
+            if (state.getId(v) == null) {
+                continue;
+            }
+            for (int u : state.getNr(v)) {
+                int x = find(parent, v), y = find(parent, u);
+                if (x != y) {
+                    parent[Math.max(x, y)] = Math.min(x, y);
+                }
+            }
+        }
+
+        // A root is the smallest vertex of its component
+        int communities = 0;
+        for (int v = 0; v < n; v++) {
+            if (state.getId(v) == null) {
+                labels[v] = 0;
+            } else if (find(parent, v) == v) {
+                labels[v] = ++communities;
+            } else {
+                labels[v] = labels[find(parent, v)];
+            }
+        }
+        return communities;
+    }
+
+    private static int find(int[] parent, int v) {
+        while (parent[v] != v) {
+            parent[v] = parent[parent[v]];
+            v = parent[v];
+        }
+        return v;
+    }
+
+    /**
+     * The normalized mutual information of two partitions, as in
+     * {@link org.graphstream.algorithm.measure.NormalizedMutualInformation}:
+     * 2 I(X, Y) / (H(X) + H(Y)). Vertices with the label 0 in found are left
+     * out.
+     *
+     * @param found the community of every vertex, from 1
+     * @param truth the true community of every vertex, from 0
+     *
+     * @return the NMI, 1 if both partitions are a single community
+     */
+    public static double NMI(int[] found, int[] truth) {
+        Map<Long, Integer> joint = new HashMap<Long, Integer>();
+        Map<Integer, Integer> x = new HashMap<Integer, Integer>();
+        Map<Integer, Integer> y = new HashMap<Integer, Integer>();
+        int total = 0;
+        for (int v = 0; v < found.length; v++) {
+            if (found[v] == 0) {
+                continue;
+            }
+            total++;
+            increment(x, found[v]);
+            increment(y, truth[v]);
+            Long key = ((long) found[v] << 32) | (truth[v] & 0xffffffffL);
+            Integer count = joint.get(key);
+            joint.put(key, count == null ? 1 : count + 1);
+        }
+
+        double mutual = 0;
+        for (Map.Entry<Long, Integer> entry : joint.entrySet()) {
+            int nx = x.get((int) (entry.getKey() >>> 32));
+            int ny = y.get((int) (long) entry.getKey());
+            double nxy = entry.getValue();
+            mutual += nxy / total * Math.log(nxy * total / ((double) nx * ny));
+        }
+        double entropy = entropy(x, total) + entropy(y, total);
+        return entropy == 0 ? 1 : 2 * mutual / entropy;
+    }
+
+    private static void increment(Map<Integer, Integer> counts, int label) {
+        Integer count = counts.get(label);
+        counts.put(label, count == null ? 1 : count + 1);
+    }
+
+    private static double entropy(Map<Integer, Integer> counts, int total) {
+        double h = 0;
+        for (int count : counts.values()) {
+            double p = (double) count / total;
+            h -= p * Math.log(p);
+        }
+        return h;
+    }
+
+    /**
+     * The outcome of one (a, b) pair.
+     */
+    public static class Result {
+
+        private final int a, b, e, communities;
+        private final ConvergenceMonitor monitor;
+        private final double nmi;
+        private final int[] labels;
+        private final long millis;
+
+        Result(int a, int b, int e, ConvergenceMonitor monitor, int communities, double nmi, int[] labels,
+                long millis) {
+            this.a = a;
+            this.b = b;
+            this.e = e;
+            this.monitor = monitor;
+            this.communities = communities;
+            this.nmi = nmi;
+            this.labels = labels;
+            this.millis = millis;
+        }
+
+        public int getA() {
+            return this.a;
+        }
+
+        public int getB() {
+            return this.b;
+        }
+
+        /**
+         * @return <b>e</b> of the last Phase 2 loop
+         */
+        public int getE() {
+            return this.e;
+        }
+
+        /**
+         * @return why and when the loops stopped
+         */
+        public ConvergenceMonitor getMonitor() {
+            return this.monitor;
+        }
+
+        public int getIterations() {
+            return this.monitor.getIterations();
+        }
+
+        public int getCommunities() {
+            return this.communities;
+        }
+
+        /**
+         * @return the NMI against the ground truth, NaN if a node has none
+         */
+        public double getNMI() {
+            return this.nmi;
+        }
+
+        /**
+         * @return the community of every vertex by its index in the graph,
+         *         from 1
+         */
+        public int[] getLabels() {
+            return this.labels;
+        }
+
+        /**
+         * @return the time of the Phase 2 loops of the pair
+         */
+        public long getMillis() {
+            return this.millis;
+        }
+
+        @Override
+        public String toString() {
+            return "a " + this.a + ", b " + this.b + ": " + this.monitor.getReason() + " after "
+                    + getIterations() + " iterations, e " + this.e + ", " + this.communities
+                    + " communities, NMI " + String.format("%.4f", this.nmi) + ", " + this.millis + " ms";
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package th.algorithms.propinquitydynamics.metrics;
+
+/**
+ * What Phase 1 or one Phase 2 loop did, with the sizes of the sets and of the
+ * propinquity maps at its end. <b>Ni</b> and <b>Nd</b> are counted when they
+ * are derived, before the loop merges them into <b>Nr</b>.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class PhaseMetrics {
+
+    /**
+     * The initial propinquity.
+     */
+    public static final String PHASE1 = "phase1";
+    /**
+     * A loop of {@link th.algorithms.propinquitydynamics.PropinquityDynamics#compute()}.
+     */
+    public static final String PHASE2 = "phase2";
+    /**
+     * A streaming event, as loop 0, and the local loops after it.
+     */
+    public static final String STREAM = "stream";
+
+    private final String phase;
+    private final int loop, e;
+    private final long nanos, increments, decrements, allocatedBytes;
+    private final long Nr, Ni, Nd, entries;
+
+    /**
+     * @param phase          {@link #PHASE1}, {@link #PHASE2} or {@link #STREAM}
+     * @param loop           the Phase 2 loop, from 1, 0 in Phase 1 and for
+     *                       the streaming event itself
+     * @param e              the added or removed edges
+     * @param nanos          the wall time
+     * @param increments     the updates with a positive delta
+     * @param decrements     the updates with a negative delta
+     * @param allocatedBytes the bytes the threads allocated
+     * @param Nr             the sum of the sizes of the Nr sets
+     * @param Ni             the sum of the sizes of the Ni sets
+     * @param Nd             the sum of the sizes of the Nd sets
+     * @param entries        the pairs in the propinquity maps
+     */
+    public PhaseMetrics(String phase, int loop, int e, long nanos, long increments, long decrements,
+            long allocatedBytes, long Nr, long Ni, long Nd, long entries) {
+        this.phase = phase;
+        this.loop = loop;
+        this.e = e;
+        this.nanos = nanos;
+        this.increments = increments;
+        this.decrements = decrements;
+        this.allocatedBytes = allocatedBytes;
+        this.Nr = Nr;
+        this.Ni = Ni;
+        this.Nd = Nd;
+        this.entries = entries;
+    }
+
+    public String getPhase() {
+        return this.phase;
+    }
+
+    public int getLoop() {
+        return this.loop;
+    }
+
+    public int getE() {
+        return this.e;
+    }
+
+    public long getNanos() {
+        return this.nanos;
+    }
+
+    public long getIncrements() {
+        return this.increments;
+    }
+
+    public long getDecrements() {
+        return this.decrements;
+    }
+
+    public long getAllocatedBytes() {
+        return this.allocatedBytes;
+    }
+
+    public long getNr() {
+        return this.Nr;
+    }
+
+    public long getNi() {
+        return this.Ni;
+    }
+
+    public long getNd() {
+        return this.Nd;
+    }
+
+    /**
+     * @return the pairs in the propinquity maps, the symmetric mode keeps one
+     *         per pair of vertices
+     */
+    public long getEntries() {
+        return this.entries;
+    }
+
+    @Override
+    public String toString() {
+        return this.phase + " " + this.loop + ": e " + this.e + ", " + this.nanos / 1000000 + " ms, +"
+                + this.increments + " -" + this.decrements + ", " + this.allocatedBytes / 1024
+                + " KiB allocated, |Nr| " + this.Nr + ", |Ni| " + this.Ni + ", |Nd| " + this.Nd + ", "
+                + this.entries + " propinquity entries";
+    }
+}
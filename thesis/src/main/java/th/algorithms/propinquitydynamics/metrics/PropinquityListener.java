@@ -0,0 +1,21 @@
+package th.algorithms.propinquitydynamics.metrics;
+
+/**
+ * Gets the metrics of Propinquity Dynamics as the run goes. It is called from
+ * the thread that runs the algorithm, between the supersteps, so it should
+ * return quickly.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public interface PropinquityListener {
+
+    /**
+     * A superstep is over.
+     */
+    void superstep(SuperstepMetrics metrics);
+
+    /**
+     * Phase 1 or a Phase 2 loop is over.
+     */
+    void phase(PhaseMetrics metrics);
+}
@@ -0,0 +1,195 @@
+package th.algorithms.propinquitydynamics.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A {@link PropinquityListener} that keeps the last phase and the totals of
+ * every superstep by name, so the slowest superstep of a long run can be
+ * found while it runs. Register it with {@link #register(String)} to read it
+ * from JConsole or any other JMX client.
+ * <pre>
+ * PropinquityMetrics metrics = new PropinquityMetrics();
+ * metrics.register("erdos02");
+ * pd.metricsOn(metrics);
+ * </pre>
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class PropinquityMetrics implements PropinquityListener, PropinquityMetricsMBean {
+
+    private PhaseMetrics last;
+    private long totalNanos, increments, decrements, allocatedBytes;
+    // The name of a superstep in a phase to its total time and count
+    private final Map<String, long[]> supersteps = new LinkedHashMap<String, long[]>();
+    private ObjectName objectName;
+
+    @Override
+    public synchronized void superstep(SuperstepMetrics metrics) {
+        String key = metrics.getPhase() + "." + metrics.getName();
+        long[] total = this.supersteps.get(key);
+        if (total == null) {
+            total = new long[2];
+            this.supersteps.put(key, total);
+        }
+        total[0] += metrics.getNanos();
+        total[1]++;
+    }
+
+    @Override
+    public synchronized void phase(PhaseMetrics metrics) {
+        this.last = metrics;
+        this.totalNanos += metrics.getNanos();
+        this.increments += metrics.getIncrements();
+        this.decrements += metrics.getDecrements();
+        this.allocatedBytes += metrics.getAllocatedBytes();
+    }
+
+    /**
+     * Make the metrics visible to JMX clients.
+     *
+     * @param name the name of the run, it becomes the <b>name</b> key of the
+     *             object name
+     *
+     * @return the object name
+     */
+    public synchronized ObjectName register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("th.algorithms.propinquitydynamics:type=PropinquityMetrics,name="
+                    + ObjectName.quote(name));
+            server.registerMBean(this, objectName);
+            this.objectName = objectName;
+            return objectName;
+        } catch (JMException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Remove the metrics from JMX, if they were registered.
+     */
+    public synchronized void unregister() {
+        if (this.objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+        } catch (JMException ex) {
+            throw new RuntimeException(ex);
+        }
+        this.objectName = null;
+    }
+
+    /**
+     * @return the last phase, null before the end of Phase 1
+     */
+    public synchronized PhaseMetrics getLastPhase() {
+        return this.last;
+    }
+
+    @Override
+    public synchronized String getPhase() {
+        return this.last == null ? null : this.last.getPhase();
+    }
+
+    @Override
+    public synchronized int getLoop() {
+        return this.last == null ? -1 : this.last.getLoop();
+    }
+
+    @Override
+    public synchronized int getE() {
+        return this.last == null ? -1 : this.last.getE();
+    }
+
+    @Override
+    public synchronized long getLastPhaseMillis() {
+        return this.last == null ? 0 : this.last.getNanos() / 1000000;
+    }
+
+    @Override
+    public synchronized long getTotalMillis() {
+        return this.totalNanos / 1000000;
+    }
+
+    @Override
+    public synchronized long getNr() {
+        return this.last == null ? 0 : this.last.getNr();
+    }
+
+    @Override
+    public synchronized long getNi() {
+        return this.last == null ? 0 : this.last.getNi();
+    }
+
+    @Override
+    public synchronized long getNd() {
+        return this.last == null ? 0 : this.last.getNd();
+    }
+
+    @Override
+    public synchronized long getEntries() {
+        return this.last == null ? 0 : this.last.getEntries();
+    }
+
+    @Override
+    public synchronized long getTotalIncrements() {
+        return this.increments;
+    }
+
+    @Override
+    public synchronized long getTotalDecrements() {
+        return this.decrements;
+    }
+
+    @Override
+    public synchronized long getTotalAllocatedBytes() {
+        return this.allocatedBytes;
+    }
+
+    /**
+     * @return the superstep with the most total time, as <b>phase.name</b>
+     */
+    @Override
+    public synchronized String getSlowestSuperstep() {
+        String slowest = null;
+        long nanos = -1;
+        for (Map.Entry<String, long[]> entry : this.supersteps.entrySet()) {
+            if (entry.getValue()[0] > nanos) {
+                slowest = entry.getKey();
+                nanos = entry.getValue()[0];
+            }
+        }
+        return slowest;
+    }
+
+    /**
+     * @return the total time and the number of runs of every superstep
+     */
+    @Override
+    public synchronized String[] getSuperstepTimes() {
+        List<String> times = new ArrayList<String>(this.supersteps.size());
+        for (Map.Entry<String, long[]> entry : this.supersteps.entrySet()) {
+            long[] total = entry.getValue();
+            times.add(entry.getKey() + ": " + total[0] / 1000000 + " ms in " + total[1] + " runs");
+        }
+        return times.toArray(new String[times.size()]);
+    }
+
+    @Override
+    public synchronized void reset() {
+        this.last = null;
+        this.totalNanos = 0;
+        this.increments = 0;
+        this.decrements = 0;
+        this.allocatedBytes = 0;
+        this.supersteps.clear();
+    }
+}
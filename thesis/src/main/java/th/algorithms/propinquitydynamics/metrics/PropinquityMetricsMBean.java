@@ -0,0 +1,39 @@
+package th.algorithms.propinquitydynamics.metrics;
+
+/**
+ * The JMX view of {@link PropinquityMetrics}.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public interface PropinquityMetricsMBean {
+
+    String getPhase();
+
+    int getLoop();
+
+    int getE();
+
+    long getLastPhaseMillis();
+
+    long getTotalMillis();
+
+    long getNr();
+
+    long getNi();
+
+    long getNd();
+
+    long getEntries();
+
+    long getTotalIncrements();
+
+    long getTotalDecrements();
+
+    long getTotalAllocatedBytes();
+
+    String getSlowestSuperstep();
+
+    String[] getSuperstepTimes();
+
+    void reset();
+}
@@ -0,0 +1,75 @@
+package th.algorithms.propinquitydynamics.metrics;
+
+/**
+ * What one superstep did. The updates and the allocations are counted only
+ * on a snapshot, without one they are 0.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class SuperstepMetrics {
+
+    private final String phase, name;
+    private final int loop, vertices;
+    private final long nanos, increments, decrements, allocatedBytes;
+
+    /**
+     * @param phase          the phase, see {@link PhaseMetrics#getPhase()}
+     * @param loop           the Phase 2 loop, 0 in Phase 1
+     * @param name           the superstep, e.g. <b>angle</b>
+     * @param vertices       the vertices that took part
+     * @param nanos          the wall time
+     * @param increments     the updates with a positive delta
+     * @param decrements     the updates with a negative delta
+     * @param allocatedBytes the bytes the threads allocated
+     */
+    public SuperstepMetrics(String phase, int loop, String name, int vertices, long nanos, long increments,
+            long decrements, long allocatedBytes) {
+        this.phase = phase;
+        this.loop = loop;
+        this.name = name;
+        this.vertices = vertices;
+        this.nanos = nanos;
+        this.increments = increments;
+        this.decrements = decrements;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    public String getPhase() {
+        return this.phase;
+    }
+
+    public int getLoop() {
+        return this.loop;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getVertices() {
+        return this.vertices;
+    }
+
+    public long getNanos() {
+        return this.nanos;
+    }
+
+    public long getIncrements() {
+        return this.increments;
+    }
+
+    public long getDecrements() {
+        return this.decrements;
+    }
+
+    public long getAllocatedBytes() {
+        return this.allocatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return this.phase + " " + this.loop + " " + this.name + ": " + this.vertices + " vertices, "
+                + this.nanos / 1000000 + " ms, +" + this.increments + " -" + this.decrements + ", "
+                + this.allocatedBytes / 1024 + " KiB allocated";
+    }
+}
@@ -0,0 +1,79 @@
+package th.algorithms.propinquitydynamics.partitioned;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Collects the records of one frame type for one channel and sends them in
+ * frames of a few thousand ints, so a superstep costs a handful of writes
+ * instead of one per message.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class FrameBatch {
+
+    /**
+     * The number of ints after which a frame is sent.
+     */
+    public static final int FRAME_INTS = 1 << 15;
+
+    private final FrameChannel channel;
+    private final int type;
+    private int[] data = new int[FRAME_INTS + 64];
+    private int size = 0;
+
+    /**
+     * @param channel where the frames go
+     * @param type    the type of the frames
+     */
+    public FrameBatch(FrameChannel channel, int type) {
+        this.channel = channel;
+        this.type = type;
+    }
+
+    public void add(int x) {
+        if (this.size == this.data.length) {
+            this.data = Arrays.copyOf(this.data, this.size * 2);
+        }
+        this.data[this.size++] = x;
+    }
+
+    public void add(int x, int y, int z) {
+        add(x);
+        add(y);
+        add(z);
+    }
+
+    /**
+     * Add the size of a set followed by its elements.
+     */
+    public void addSet(int[] set) {
+        add(set.length);
+        for (int x : set) {
+            add(x);
+        }
+    }
+
+    /**
+     * Close a record, records are never split between two frames.
+     *
+     * @throws IOException if the frame can not be sent
+     */
+    public void endRecord() throws IOException {
+        if (this.size >= FRAME_INTS) {
+            flush();
+        }
+    }
+
+    /**
+     * Send the records that are left, if any.
+     *
+     * @throws IOException if the frame can not be sent
+     */
+    public void flush() throws IOException {
+        if (this.size > 0) {
+            this.channel.write(this.type, this.data, this.size);
+            this.size = 0;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package th.algorithms.propinquitydynamics.partitioned;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A socket that carries frames of ints between two processes of the
+ * partitioned runtime. A frame is its type, its length and the ints, in big
+ * endian. A reader thread takes the frames off the socket as they come, so
+ * two processes can send a whole superstep to each other at the same time
+ * without blocking on full socket buffers.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class FrameChannel {
+
+    /**
+     * A worker introduces itself, [port of its peer socket] to the
+     * coordinator or [its id] to a peer.
+     */
+    public static final int HELLO = 1;
+    /**
+     * The coordinator tells a worker where it stands, [id, workers,
+     * vertices, scheme, port of every worker].
+     */
+    public static final int WELCOME = 2;
+    /**
+     * The neighbours of owned vertices, records of [v, degree, neighbours].
+     */
+    public static final int LOAD = 3;
+    /**
+     * Run a superstep, [command, a, b].
+     */
+    public static final int COMMAND = 4;
+    /**
+     * A superstep is over, [result].
+     */
+    public static final int REPLY = 5;
+    /**
+     * Propinquity updates, records of [target, key, delta].
+     */
+    public static final int PU = 6;
+    /**
+     * Donated neighbour sets, records of [v, |Nr|, Nr, |Ni|, Ni, |Nd|, Nd].
+     */
+    public static final int DN = 7;
+    /**
+     * The vertices that got a non empty Ni or Nd.
+     */
+    public static final int MOVED = 8;
+    /**
+     * The final state, records of [v, |Nr|, Nr, |pm|, (key, propinquity)].
+     */
+    public static final int STATE = 9;
+    /**
+     * Nothing more for this superstep.
+     */
+    public static final int END = 10;
+    private static final int CLOSED = -1;
+
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final BlockingQueue<int[]> frames = new LinkedBlockingQueue<int[]>();
+    private byte[] bytes = new byte[1 << 16];
+
+    /**
+     * @param socket a connected socket, it is owned by the channel from now
+     *               on
+     *
+     * @throws IOException if the streams of the socket can not be opened
+     */
+    public FrameChannel(Socket socket) throws IOException {
+        this.socket = socket;
+        this.socket.setTcpNoDelay(true);
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[1 << 16];
+                try {
+                    while (true) {
+                        int type = in.readInt();
+                        int length = in.readInt();
+                        if (buffer.length < length * 4) {
+                            buffer = new byte[length * 4];
+                        }
+                        in.readFully(buffer, 0, length * 4);
+
+                        int[] frame = new int[length + 1];
+                        frame[0] = type;
+                        ByteBuffer.wrap(buffer, 0, length * 4).asIntBuffer().get(frame, 1, length);
+                        frames.add(frame);
+                    }
+                } catch (IOException ex) {
+                    frames.add(new int[]{CLOSED});
+                }
+            }
+        }, "frames from " + socket.getRemoteSocketAddress());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Queue a frame, it is sent by the next {@link #flush()} or when the
+     * buffer of the socket fills.
+     *
+     * @param type   the type of the frame
+     * @param data   the ints of the frame
+     * @param length how many of them
+     *
+     * @throws IOException if the socket is closed
+     */
+    public void write(int type, int[] data, int length) throws IOException {
+        if (this.bytes.length < length * 4) {
+            this.bytes = new byte[length * 4];
+        }
+        ByteBuffer.wrap(this.bytes).asIntBuffer().put(data, 0, length);
+
+        this.out.writeInt(type);
+        this.out.writeInt(length);
+        this.out.write(this.bytes, 0, length * 4);
+    }
+
+    public void write(int type, int... data) throws IOException {
+        write(type, data, data.length);
+    }
+
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+
+    /**
+     * Wait for the next frame.
+     *
+     * @return the type of the frame followed by its ints
+     *
+     * @throws IOException if the other side closed the socket
+     */
+    public int[] take() throws IOException {
+        int[] frame;
+        try {
+            frame = this.frames.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+        if (frame[0] == CLOSED) {
+            this.frames.add(frame);
+            throw new EOFException("The other side of " + this.socket.getRemoteSocketAddress() + " closed");
+        }
+        return frame;
+    }
+
+    /**
+     * Wait for a frame of a given type.
+     *
+     * @throws IOException if the other side closed the socket or sent
+     *                     something else
+     */
+    public int[] take(int type) throws IOException {
+        int[] frame = take();
+        if (frame[0] != type) {
+            throw new IOException("Expected a frame of type " + type + " but got " + frame[0]);
+        }
+        return frame;
+    }
+
+    public void close() {
+        try {
+            this.socket.close();
+        } catch (IOException ex) {
+            // Nothing to do, the other side sees the end of the stream
+        }
+    }
+}
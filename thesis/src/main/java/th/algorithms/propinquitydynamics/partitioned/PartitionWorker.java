@@ -0,0 +1,606 @@
+package th.algorithms.propinquitydynamics.partitioned;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import static th.algorithms.propinquitydynamics.utils.CalculationTable.CalculateCdd;
+import static th.algorithms.propinquitydynamics.utils.CalculationTable.CalculateCii;
+import static th.algorithms.propinquitydynamics.utils.CalculationTable.CalculateCrd;
+import static th.algorithms.propinquitydynamics.utils.CalculationTable.CalculateCri;
+import static th.algorithms.propinquitydynamics.utils.CalculationTable.CalculateCrr;
+import th.algorithms.propinquitydynamics.utils.CalculationTable.Scratch;
+import th.algorithms.propinquitydynamics.utils.HeapPropinquityStore;
+import th.algorithms.propinquitydynamics.utils.IntSets;
+import th.algorithms.propinquitydynamics.utils.Outbox;
+import th.algorithms.propinquitydynamics.utils.PropinquityStore;
+
+/**
+ * One process of the partitioned Propinquity Dynamics. It owns the vertices
+ * that {@link Partitioning} gives it, with their <b>Nr</b>, <b>Ni</b>,
+ * <b>Nd</b> and propinquity maps, and runs the supersteps that
+ * {@link PartitionedPropinquityDynamics} asks for on them. The propinquity
+ * updates (PU) for vertices of other workers and the neighbour sets that the
+ * conjugate propinquity needs (DN) go straight to the other workers over one
+ * socket per pair of workers. Every superstep ends with an {@link
+ * FrameChannel#END} frame to every other worker, and the received updates
+ * are applied once all of them arrived, so the result is the one of a single
+ * process.
+ * <p>
+ * Started by the coordinator as
+ * <code>java PartitionWorker host port</code>.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class PartitionWorker {
+
+    public static final int DIRECT = 1;
+    public static final int ANGLE = 2;
+    public static final int CONJUGATE = 3;
+    public static final int DERIVE = 4;
+    public static final int PROPAGATE_ANGLE = 5;
+    public static final int PROPAGATE_CONJUGATE = 6;
+    public static final int FINISH = 7;
+    public static final int GATHER = 8;
+    public static final int SHUTDOWN = 9;
+
+    private final int id, workers, n;
+    private final Partitioning partitioning;
+    private final FrameChannel coordinator;
+    private final FrameChannel[] peers;
+    private final FrameBatch[] pu, dn, moved;
+    private final PropinquityStore pm;
+    // Indexed by vertex, null for the vertices of other workers
+    private final int[][] Nr, Ni, Nd;
+    // The donated sets of vertices of other workers for one superstep
+    private final int[][] ghostNr, ghostNi, ghostNd;
+    private final boolean[] changed;
+    private int[] owned = new int[16];
+    private int ownedSize = 0;
+    private int[] movedOwned = IntSets.EMPTY;
+    private final Scratch scratch;
+    private int[] Crr = new int[16], Cri = new int[16], Crd = new int[16], Cxx = new int[16];
+
+    // Applies an update to an owned vertex or sends it to its owner
+    private final Outbox router = new Outbox() {
+        @Override
+        public void send(int target, int key, int delta) {
+            int w = partitioning.ownerOf(target);
+            if (w == id) {
+                pm.add(target, key, delta);
+                return;
+            }
+            try {
+                pu[w].add(target, key, delta);
+                pu[w].endRecord();
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    };
+
+    public PartitionWorker(int id, Partitioning partitioning, int vertices, FrameChannel coordinator,
+            FrameChannel[] peers) {
+        this.id = id;
+        this.workers = partitioning.getWorkers();
+        this.n = vertices;
+        this.partitioning = partitioning;
+        this.coordinator = coordinator;
+        this.peers = peers;
+        this.pu = new FrameBatch[this.workers];
+        this.dn = new FrameBatch[this.workers];
+        this.moved = new FrameBatch[this.workers];
+        for (int w = 0; w < this.workers; w++) {
+            if (w != id) {
+                this.pu[w] = new FrameBatch(peers[w], FrameChannel.PU);
+                this.dn[w] = new FrameBatch(peers[w], FrameChannel.DN);
+                this.moved[w] = new FrameBatch(peers[w], FrameChannel.MOVED);
+            }
+        }
+        this.pm = new HeapPropinquityStore(vertices);
+        this.Nr = new int[vertices][];
+        this.Ni = new int[vertices][];
+        this.Nd = new int[vertices][];
+        this.ghostNr = new int[vertices][];
+        this.ghostNi = new int[vertices][];
+        this.ghostNd = new int[vertices][];
+        this.changed = new boolean[vertices];
+        this.scratch = new Scratch(vertices);
+    }
+
+    /**
+     * Connect to the coordinator and to the other workers and serve the
+     * supersteps until the coordinator shuts the runtime down.
+     *
+     * @param args the host and the port of the coordinator
+     *
+     * @throws IOException if a connection fails
+     */
+    public static void main(String[] args) throws IOException {
+        ServerSocket server = new ServerSocket(0, 64, InetAddress.getLoopbackAddress());
+        FrameChannel coordinator = new FrameChannel(new Socket(args[0], Integer.parseInt(args[1])));
+        coordinator.write(FrameChannel.HELLO, server.getLocalPort());
+        coordinator.flush();
+
+        int[] welcome = coordinator.take(FrameChannel.WELCOME);
+        int id = welcome[1], workers = welcome[2], vertices = welcome[3];
+        Partitioning partitioning = new Partitioning(Partitioning.Scheme.values()[welcome[4]], workers, vertices);
+
+        // Every worker connects to the ones before it and accepts the rest
+        FrameChannel[] peers = new FrameChannel[workers];
+        for (int w = 0; w < id; w++) {
+            peers[w] = new FrameChannel(new Socket(InetAddress.getLoopbackAddress(), welcome[5 + w]));
+            peers[w].write(FrameChannel.HELLO, id);
+            peers[w].flush();
+        }
+        for (int w = id + 1; w < workers; w++) {
+            FrameChannel peer = new FrameChannel(server.accept());
+            peers[peer.take(FrameChannel.HELLO)[1]] = peer;
+        }
+        server.close();
+
+        new PartitionWorker(id, partitioning, vertices, coordinator, peers).serve();
+    }
+
+    /**
+     * Run the commands of the coordinator.
+     *
+     * @throws IOException if a connection fails
+     */
+    public void serve() throws IOException {
+        while (true) {
+            int[] frame = this.coordinator.take();
+            if (frame[0] == FrameChannel.LOAD) {
+                load(frame);
+                continue;
+            }
+            if (frame[0] != FrameChannel.COMMAND) {
+                throw new IOException("Unexpected frame of type " + frame[0]);
+            }
+
+            int result = 0;
+            switch (frame[1]) {
+                case DIRECT:
+                    direct();
+                    break;
+                case ANGLE:
+                    angle();
+                    break;
+                case CONJUGATE:
+                    conjugate();
+                    break;
+                case DERIVE:
+                    result = derive(frame[2], frame[3]);
+                    break;
+                case PROPAGATE_ANGLE:
+                    propagateAngle();
+                    break;
+                case PROPAGATE_CONJUGATE:
+                    propagateConjugate();
+                    break;
+                case FINISH:
+                    finish();
+                    break;
+                case GATHER:
+                    gather();
+                    break;
+                case SHUTDOWN:
+                    this.coordinator.write(FrameChannel.REPLY, 0);
+                    this.coordinator.flush();
+                    shutdown();
+                    return;
+                default:
+                    throw new IOException("Unknown command " + frame[1]);
+            }
+            this.coordinator.write(FrameChannel.REPLY, result);
+            this.coordinator.flush();
+        }
+    }
+
+    private void shutdown() {
+        for (FrameChannel peer : this.peers) {
+            if (peer != null) {
+                peer.close();
+            }
+        }
+        this.coordinator.close();
+    }
+
+    private void load(int[] frame) {
+        int i = 1;
+        while (i < frame.length) {
+            int v = frame[i++];
+            int degree = frame[i++];
+            this.Nr[v] = Arrays.copyOfRange(frame, i, i + degree);
+            this.Ni[v] = IntSets.EMPTY;
+            this.Nd[v] = IntSets.EMPTY;
+            i += degree;
+
+            if (this.ownedSize == this.owned.length) {
+                this.owned = Arrays.copyOf(this.owned, this.ownedSize * 2);
+            }
+            this.owned[this.ownedSize++] = v;
+        }
+    }
+
+    /**
+     * Send what is left of the superstep and an END to every other worker,
+     * then apply what they sent until their END.
+     */
+    private void exchange() throws IOException {
+        for (int w = 0; w < this.workers; w++) {
+            if (w != this.id) {
+                this.pu[w].flush();
+                this.dn[w].flush();
+                this.moved[w].flush();
+                this.peers[w].write(FrameChannel.END);
+                this.peers[w].flush();
+            }
+        }
+        for (int w = 0; w < this.workers; w++) {
+            if (w == this.id) {
+                continue;
+            }
+            int[] frame;
+            while ((frame = this.peers[w].take())[0] != FrameChannel.END) {
+                apply(frame);
+            }
+        }
+    }
+
+    private void apply(int[] frame) throws IOException {
+        int i = 1;
+        switch (frame[0]) {
+            case FrameChannel.PU:
+                for (; i < frame.length; i += 3) {
+                    this.pm.add(frame[i], frame[i + 1], frame[i + 2]);
+                }
+                break;
+            case FrameChannel.DN:
+                while (i < frame.length) {
+                    int v = frame[i++];
+                    this.ghostNr[v] = Arrays.copyOfRange(frame, i + 1, i + 1 + frame[i]);
+                    i += 1 + frame[i];
+                    this.ghostNi[v] = Arrays.copyOfRange(frame, i + 1, i + 1 + frame[i]);
+                    i += 1 + frame[i];
+                    this.ghostNd[v] = Arrays.copyOfRange(frame, i + 1, i + 1 + frame[i]);
+                    i += 1 + frame[i];
+                }
+                break;
+            case FrameChannel.MOVED:
+                for (; i < frame.length; i++) {
+                    this.changed[frame[i]] = true;
+                }
+                break;
+            default:
+                throw new IOException("Unexpected frame of type " + frame[0] + " between workers");
+        }
+    }
+
+    private boolean owns(int v) {
+        return this.partitioning.ownerOf(v) == this.id;
+    }
+
+    private int[] Nr(int v) {
+        int[] set = owns(v) ? this.Nr[v] : this.ghostNr[v];
+        return set == null ? IntSets.EMPTY : set;
+    }
+
+    private int[] Ni(int v) {
+        int[] set = owns(v) ? this.Ni[v] : this.ghostNi[v];
+        return set == null ? IntSets.EMPTY : set;
+    }
+
+    private int[] Nd(int v) {
+        int[] set = owns(v) ? this.Nd[v] : this.ghostNd[v];
+        return set == null ? IntSets.EMPTY : set;
+    }
+
+    /**
+     * Donate the sets of <b>v</b> to every other worker that owns one of the
+     * given vertices.
+     */
+    private void donate(int v, int[] to, boolean[] sent) throws IOException {
+        Arrays.fill(sent, false);
+        for (int u : to) {
+            int w = this.partitioning.ownerOf(u);
+            if (w != this.id && !sent[w]) {
+                sent[w] = true;
+                this.dn[w].add(v);
+                this.dn[w].addSet(this.Nr[v]);
+                this.dn[w].addSet(this.Ni[v]);
+                this.dn[w].addSet(this.Nd[v]);
+                this.dn[w].endRecord();
+            }
+        }
+    }
+
+    private void forget() {
+        Arrays.fill(this.ghostNr, null);
+        Arrays.fill(this.ghostNi, null);
+        Arrays.fill(this.ghostNd, null);
+    }
+
+    private void reserve(int size) {
+        this.Crr = IntSets.ensure(this.Crr, size);
+        this.Cri = IntSets.ensure(this.Cri, size);
+        this.Crd = IntSets.ensure(this.Crd, size);
+        this.Cxx = IntSets.ensure(this.Cxx, size);
+    }
+
+    private void PU(int u_i, int[] set, int size, char operator) {
+        PU(u_i, set, size, operator, false);
+    }
+
+    private void PU(int u_i, int[] set, int size, char operator, boolean skip) {
+        int delta = operator == '+' ? 1 : -1;
+
+        for (int i = 0; i < size; i++) {
+            if (skip && u_i == set[i]) {
+                continue;
+            }
+            this.router.send(u_i, set[i], delta);
+        }
+    }
+
+    // PHASE 1
+    private void direct() {
+        this.owned = Arrays.copyOf(this.owned, this.ownedSize);
+        Arrays.sort(this.owned);
+        for (int v : this.owned) {
+            this.pm.create(v, 100);
+            for (int u : this.Nr[v]) {
+                this.pm.increase(v, u);
+            }
+        }
+    }
+
+    private void angle() throws IOException {
+        for (int v : this.owned) {
+            int[] neighbours = this.Nr[v];
+            for (int x : neighbours) {
+                for (int y : neighbours) {
+                    if (x != y) {
+                        this.router.send(x, y, 1);
+                    }
+                }
+            }
+        }
+        exchange();
+    }
+
+    private void conjugate() throws IOException {
+        // An edge is visited from its smaller end, which needs the
+        // neighbours of the larger one
+        boolean[] sent = new boolean[this.workers];
+        for (int u : this.owned) {
+            int smaller = 0;
+            while (smaller < this.Nr[u].length && this.Nr[u][smaller] < u) {
+                smaller++;
+            }
+            donate(u, Arrays.copyOf(this.Nr[u], smaller), sent);
+        }
+        exchange();
+
+        int[] Nc = new int[16];
+        for (int v : this.owned) {
+            for (int neigh : this.Nr[v]) {
+                if (neigh < v) {
+                    continue;
+                }
+                int[] nnNr = Nr(neigh);
+                Nc = IntSets.ensure(Nc, Math.min(this.Nr[v].length, nnNr.length));
+                int size = IntSets.intersect(this.Nr[v], nnNr, Nc);
+                for (int x = 0; x < size; x++) {
+                    for (int y = 0; y < size; y++) {
+                        if (x != y) {
+                            this.router.send(Nc[x], Nc[y], 1);
+                        }
+                    }
+                }
+            }
+        }
+        exchange();
+        forget();
+    }
+
+    // PHASE 2
+    /**
+     * @return the added or removed edges of the owned vertices
+     */
+    private int derive(int a, int b) {
+        int e = 0;
+        int[] movedList = new int[this.owned.length];
+        int movedSize = 0;
+        int[] ni = new int[16], nd = new int[16];
+
+        for (int v : this.owned) {
+            int[] Nr = this.Nr[v];
+            int i = 0, d = 0;
+
+            ni = IntSets.ensure(ni, this.pm.size(v));
+            nd = IntSets.ensure(nd, Nr.length);
+            PropinquityStore.Cursor row = this.pm.cursor(v);
+            while (row.next()) {
+                int nodeIndex = row.key();
+                int propinquity = row.value();
+
+                if (propinquity <= a && IntSets.contains(Nr, nodeIndex)) {
+                    nd[d++] = nodeIndex;
+                } else if (propinquity >= b && !IntSets.contains(Nr, nodeIndex)) {
+                    ni[i++] = nodeIndex;
+                }
+            }
+            if (i + d == 0) {
+                continue;
+            }
+            e += i + d;
+
+            Arrays.sort(ni, 0, i);
+            Arrays.sort(nd, 0, d);
+            this.Ni[v] = IntSets.copyOf(ni, i);
+            this.Nd[v] = IntSets.copyOf(nd, d);
+            if (d > 0) {
+                int[] out = new int[Nr.length];
+                this.Nr[v] = IntSets.copyOf(out, IntSets.difference(Nr, this.Nd[v], out));
+            }
+            for (int u : this.Ni[v]) {
+                this.pm.increase(v, u);
+            }
+            for (int u : this.Nd[v]) {
+                this.pm.decrease(v, u);
+            }
+            movedList[movedSize++] = v;
+        }
+
+        this.movedOwned = Arrays.copyOf(movedList, movedSize);
+        return e;
+    }
+
+    private void propagateAngle() throws IOException {
+        for (int v : this.movedOwned) {
+            int[] Nr = this.Nr[v];
+            int[] Ni = this.Ni[v];
+            int[] Nd = this.Nd[v];
+
+            for (int u_i : Nr) {
+                PU(u_i, Ni, Ni.length, '+');
+                PU(u_i, Nd, Nd.length, '-');
+            }
+            for (int u_i : Ni) {
+                PU(u_i, Nr, Nr.length, '+');
+                PU(u_i, Ni, Ni.length, '+', true);
+            }
+            for (int u_i : Nd) {
+                PU(u_i, Nr, Nr.length, '-');
+                PU(u_i, Nd, Nd.length, '-', true);
+            }
+        }
+        exchange();
+    }
+
+    private void propagateConjugate() throws IOException {
+        // Every worker learns which vertices moved
+        for (int v : this.movedOwned) {
+            this.changed[v] = true;
+            for (int w = 0; w < this.workers; w++) {
+                if (w != this.id) {
+                    this.moved[w].add(v);
+                    this.moved[w].endRecord();
+                }
+            }
+        }
+        exchange();
+
+        // A moved vertex reads the sets of its neighbours, so every vertex
+        // donates its sets to the workers of its moved neighbours
+        boolean[] sent = new boolean[this.workers];
+        int[] to = new int[16];
+        for (int u : this.owned) {
+            int size = 0;
+            to = IntSets.ensure(to, this.Nr[u].length + this.Ni[u].length + this.Nd[u].length);
+            for (int[] set : new int[][]{this.Nr[u], this.Ni[u], this.Nd[u]}) {
+                for (int w : set) {
+                    if (this.changed[w]) {
+                        to[size++] = w;
+                    }
+                }
+            }
+            if (size > 0) {
+                donate(u, Arrays.copyOf(to, size), sent);
+            }
+        }
+        exchange();
+
+        Scratch s = this.scratch;
+        for (int v : this.movedOwned) {
+            int[] Nr = this.Nr[v];
+            int[] Ni = this.Ni[v];
+            int[] Nd = this.Nd[v];
+
+            reserve(Nr.length + Ni.length + Nd.length);
+            if (Nr.length >= Scratch.BITSET_THRESHOLD) {
+                s.mark(Nr, Ni, Nd);
+            }
+
+            for (int nn : Nr) {
+                if ((nn > v || !this.changed[nn]) && IntSets.contains(Nr(nn), v)) {
+                    int rr = CalculateCrr(Nr, Nr(nn), this.Crr, s);
+                    int ri = CalculateCri(Nr, Ni, Nr(nn), Ni(nn), this.Cri, s);
+                    int rd = CalculateCrd(Nr, Nd, Nr(nn), Nd(nn), this.Crd, s);
+
+                    for (int x = 0; x < rr; x++) {
+                        PU(this.Crr[x], this.Cri, ri, '+');
+                        PU(this.Crr[x], this.Crd, rd, '-');
+                    }
+                    for (int x = 0; x < ri; x++) {
+                        PU(this.Cri[x], this.Crr, rr, '+');
+                        PU(this.Cri[x], this.Cri, ri, '+', true);
+                    }
+                    for (int x = 0; x < rd; x++) {
+                        PU(this.Crd[x], this.Crr, rr, '-');
+                        PU(this.Crd[x], this.Crd, rd, '-', true);
+                    }
+                }
+            }
+
+            for (int nn : Ni) {
+                if (nn > v && IntSets.contains(Ni(nn), v)) {
+                    int ii = CalculateCii(Nr, Ni, Nr(nn), Ni(nn), this.Cxx, s);
+                    for (int x = 0; x < ii; x++) {
+                        PU(this.Cxx[x], this.Cxx, ii, '+', true);
+                    }
+                }
+            }
+
+            for (int nn : Nd) {
+                if (nn > v && IntSets.contains(Nd(nn), v)) {
+                    int dd = CalculateCdd(Nr, Nd, Nr(nn), Nd(nn), this.Cxx, s);
+                    for (int x = 0; x < dd; x++) {
+                        PU(this.Cxx[x], this.Cxx, dd, '-', true);
+                    }
+                }
+            }
+
+            s.unmark();
+        }
+        exchange();
+        forget();
+        Arrays.fill(this.changed, false);
+    }
+
+    private void finish() {
+        for (int v : this.movedOwned) {
+            if (this.Ni[v].length > 0) {
+                int[] merged = new int[this.Nr[v].length + this.Ni[v].length];
+                IntSets.union(this.Nr[v], this.Ni[v], merged);
+                this.Nr[v] = merged;
+            }
+            this.Ni[v] = IntSets.EMPTY;
+            this.Nd[v] = IntSets.EMPTY;
+        }
+        this.movedOwned = IntSets.EMPTY;
+    }
+
+    /**
+     * Send <b>Nr</b> and the propinquity map of every owned vertex to the
+     * coordinator.
+     */
+    private void gather() throws IOException {
+        FrameBatch state = new FrameBatch(this.coordinator, FrameChannel.STATE);
+        for (int v : this.owned) {
+            state.add(v);
+            state.addSet(this.Nr[v]);
+            state.add(this.pm.size(v));
+            PropinquityStore.Cursor row = this.pm.cursor(v);
+            while (row.next()) {
+                state.add(row.key());
+                state.add(row.value());
+            }
+            state.endRecord();
+        }
+        state.flush();
+        this.coordinator.write(FrameChannel.END);
+    }
+}
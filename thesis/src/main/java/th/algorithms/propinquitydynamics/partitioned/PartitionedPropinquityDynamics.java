@@ -0,0 +1,276 @@
+package th.algorithms.propinquitydynamics.partitioned;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.graphstream.algorithm.Algorithm;
+import org.graphstream.graph.Graph;
+import org.graphstream.graph.Node;
+import th.algorithms.propinquitydynamics.utils.CSRGraph;
+import th.algorithms.propinquitydynamics.utils.PropinquityMap;
+
+/**
+ * Propinquity Dynamics split over a number of {@link PartitionWorker}
+ * processes on the same machine, for graphs whose propinquity maps do not fit
+ * in one heap. Every worker owns the vertices that {@link Partitioning} gives
+ * it, and the propinquity updates between vertices of different workers go
+ * over local sockets in batched binary frames. This class is the coordinator:
+ * it starts the workers, gives them their vertices, tells them when to run
+ * every superstep and adds up their <b>e</b>. The result is the one of
+ * {@link th.algorithms.propinquitydynamics.PropinquityDynamics} on the same
+ * graph.
+ * <p>
+ * Hub sampling, pruning, the frontier and the symmetric propinquity are not
+ * supported here.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class PartitionedPropinquityDynamics implements Algorithm {
+
+    private final int workers;
+    private final Partitioning.Scheme scheme;
+    private String[] workerOptions = new String[0];
+    private Graph graph;
+    private CSRGraph csr;
+    private Process[] processes;
+    private FrameChannel[] channels;
+    private int a, b, e = -1;
+
+    /**
+     * @param workers the number of worker processes
+     * @param scheme  how the vertices are split between them
+     */
+    public PartitionedPropinquityDynamics(int workers, Partitioning.Scheme scheme) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is needed");
+        }
+        this.workers = workers;
+        this.scheme = scheme;
+    }
+
+    /**
+     * @param options extra options for the java command of the workers, for
+     *                example <code>-Xmx8g</code>
+     */
+    public void setWorkerOptions(String... options) {
+        this.workerOptions = options;
+    }
+
+    public void set(int a, int b) {
+        this.a = a;
+        this.b = b;
+    }
+
+    // PHASE 1
+    @Override
+    public void init(Graph graph) {
+        this.graph = graph;
+        this.csr = CSRGraph.freeze(graph);
+        int n = this.csr.getNodeCount();
+        Partitioning partitioning = new Partitioning(this.scheme, this.workers, n);
+
+        try {
+            start(n);
+
+            // Every worker gets the neighbours of the vertices it owns
+            FrameBatch[] load = new FrameBatch[this.workers];
+            for (int w = 0; w < this.workers; w++) {
+                load[w] = new FrameBatch(this.channels[w], FrameChannel.LOAD);
+            }
+            for (int v = 0; v < n; v++) {
+                FrameBatch batch = load[partitioning.ownerOf(v)];
+                batch.add(v);
+                batch.addSet(this.csr.neighboursOf(v));
+                batch.endRecord();
+            }
+            for (FrameBatch batch : load) {
+                batch.flush();
+            }
+
+            command(PartitionWorker.DIRECT);
+            command(PartitionWorker.ANGLE);
+            command(PartitionWorker.CONJUGATE);
+        } catch (IOException ex) {
+            shutdown();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Start the workers and tell every one of them where the others listen.
+     */
+    private void start(int n) throws IOException {
+        ServerSocket server = new ServerSocket(0, this.workers, InetAddress.getLoopbackAddress());
+        try {
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            this.processes = new Process[this.workers];
+            for (int w = 0; w < this.workers; w++) {
+                List<String> command = new ArrayList<String>();
+                command.add(java);
+                command.addAll(Arrays.asList(this.workerOptions));
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(PartitionWorker.class.getName());
+                command.add(server.getInetAddress().getHostAddress());
+                command.add(String.valueOf(server.getLocalPort()));
+                this.processes[w] = new ProcessBuilder(command).inheritIO().start();
+            }
+
+            // The ids follow the order of the connections
+            this.channels = new FrameChannel[this.workers];
+            int[] ports = new int[this.workers];
+            for (int w = 0; w < this.workers; w++) {
+                this.channels[w] = new FrameChannel(server.accept());
+                ports[w] = this.channels[w].take(FrameChannel.HELLO)[1];
+            }
+
+            for (int w = 0; w < this.workers; w++) {
+                int[] welcome = new int[4 + this.workers];
+                welcome[0] = w;
+                welcome[1] = this.workers;
+                welcome[2] = n;
+                welcome[3] = this.scheme.ordinal();
+                System.arraycopy(ports, 0, welcome, 4, this.workers);
+                this.channels[w].write(FrameChannel.WELCOME, welcome);
+                this.channels[w].flush();
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Run a superstep on every worker and wait for all of them.
+     *
+     * @return the sum of the results of the workers
+     */
+    private int command(int... command) throws IOException {
+        for (FrameChannel channel : this.channels) {
+            channel.write(FrameChannel.COMMAND, command);
+            channel.flush();
+        }
+
+        int result = 0;
+        for (FrameChannel channel : this.channels) {
+            result += channel.take(FrameChannel.REPLY)[1];
+        }
+        return result;
+    }
+
+    // PHASE 2
+    @Override
+    public void compute() {
+        try {
+            this.e = command(PartitionWorker.DERIVE, this.a, this.b);
+            if (this.e > 0) {
+                command(PartitionWorker.PROPAGATE_ANGLE);
+                command(PartitionWorker.PROPAGATE_CONJUGATE);
+                command(PartitionWorker.FINISH);
+            }
+        } catch (IOException ex) {
+            shutdown();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * @return the number of added or removed edges in the last phase 2 loop
+     */
+    public int getE() {
+        return this.e;
+    }
+
+    /**
+     * @return true if the last phase 2 loop changed no edge
+     */
+    public boolean didAbsoluteConvergence() {
+        return this.e == 0;
+    }
+
+    /**
+     * Copy the state of the workers to the <b>Nr</b> and <b>pm</b> attributes
+     * of the nodes, as {@link
+     * th.algorithms.propinquitydynamics.PropinquityDynamics#writeBack()} does.
+     */
+    public void writeBack() {
+        try {
+            for (FrameChannel channel : this.channels) {
+                channel.write(FrameChannel.COMMAND, PartitionWorker.GATHER);
+                channel.flush();
+            }
+
+            for (FrameChannel channel : this.channels) {
+                int[] frame;
+                while ((frame = channel.take())[0] != FrameChannel.END) {
+                    if (frame[0] != FrameChannel.STATE) {
+                        throw new IOException("Expected a frame of type " + FrameChannel.STATE + " but got " + frame[0]);
+                    }
+                    int i = 1;
+                    while (i < frame.length) {
+                        Node node = this.graph.getNode(frame[i++]);
+                        node.setAttribute("ui.label", node.getIndex() + "#" + node.getId());
+                        node.setAttribute("ui.style", "size:20px;");
+
+                        Set<Integer> Nr = new HashSet<Integer>(frame[i] * 2);
+                        for (int end = i + 1 + frame[i++]; i < end; i++) {
+                            Nr.add(frame[i]);
+                        }
+                        node.setAttribute("Nr", Nr);
+
+                        PropinquityMap pm = new PropinquityMap(frame[i]);
+                        for (int end = i + 1 + 2 * frame[i++]; i < end; i += 2) {
+                            pm.add(frame[i], frame[i + 1]);
+                        }
+                        node.setAttribute("pm", pm);
+                    }
+                }
+                channel.take(FrameChannel.REPLY);
+            }
+        } catch (IOException ex) {
+            shutdown();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Stop the workers.
+     */
+    public void shutdown() {
+        if (this.channels != null) {
+            for (FrameChannel channel : this.channels) {
+                if (channel == null) {
+                    continue;
+                }
+                try {
+                    channel.write(FrameChannel.COMMAND, PartitionWorker.SHUTDOWN);
+                    channel.flush();
+                    channel.take(FrameChannel.REPLY);
+                } catch (IOException ex) {
+                    // The worker is gone already
+                }
+                channel.close();
+            }
+            this.channels = null;
+        }
+        if (this.processes != null) {
+            for (Process process : this.processes) {
+                if (process == null) {
+                    continue;
+                }
+                try {
+                    process.waitFor();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    process.destroy();
+                }
+            }
+            this.processes = null;
+        }
+    }
+}
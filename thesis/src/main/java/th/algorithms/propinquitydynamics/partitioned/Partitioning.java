@@ -0,0 +1,59 @@
+package th.algorithms.propinquitydynamics.partitioned;
+
+/**
+ * Decides which worker process owns a vertex. The owner keeps the
+ * <b>Nr</b>, <b>Ni</b>, <b>Nd</b> and the propinquity map of the vertex and
+ * gets every propinquity update for it.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class Partitioning {
+
+    public enum Scheme {
+
+        /**
+         * The vertices are scattered over the workers by a hash of their
+         * index, which spreads the hubs of a graph.
+         */
+        HASH,
+        /**
+         * Every worker owns a block of consecutive indices, which keeps the
+         * neighbours of a vertex together when the indices follow the
+         * communities.
+         */
+        RANGE
+    }
+
+    private final Scheme scheme;
+    private final int workers;
+    private final int block;
+
+    /**
+     * @param scheme   how to split the vertices
+     * @param workers  the number of worker processes
+     * @param vertices the number of vertices
+     */
+    public Partitioning(Scheme scheme, int workers, int vertices) {
+        this.scheme = scheme;
+        this.workers = workers;
+        this.block = Math.max(1, (vertices + workers - 1) / workers);
+    }
+
+    /**
+     * @return the worker that owns <b>v</b>
+     */
+    public int ownerOf(int v) {
+        if (this.scheme == Scheme.RANGE) {
+            return Math.min(v / this.block, this.workers - 1);
+        }
+        return ((v * 0x9E3779B9) >>> 1) % this.workers;
+    }
+
+    public Scheme getScheme() {
+        return this.scheme;
+    }
+
+    public int getWorkers() {
+        return this.workers;
+    }
+}
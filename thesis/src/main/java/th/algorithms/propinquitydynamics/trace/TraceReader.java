@@ -0,0 +1,159 @@
+package th.algorithms.propinquitydynamics.trace;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads the files of {@link TraceRecorder}. From the command line it prints
+ * one line per record, or with <b>--sum</b> the propinquity of every watched
+ * vertex that the records add up to:
+ * <pre>
+ * java th.algorithms.propinquitydynamics.trace.TraceReader trace.bin [--sum]
+ * </pre>
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class TraceReader implements AutoCloseable {
+
+    private final DataInputStream in;
+    private final Map<Integer, String> watched = new HashMap<Integer, String>();
+    private int header, target, key, delta;
+
+    /**
+     * @param file a trace
+     *
+     * @throws IOException if the file can not be read or is not a trace
+     */
+    public TraceReader(File file) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        if (this.in.readInt() != TraceRecorder.MAGIC || this.in.readInt() != TraceRecorder.VERSION) {
+            this.in.close();
+            throw new IOException(file + " is not a propinquity trace");
+        }
+        int count = this.in.readInt();
+        for (int i = 0; i < count; i++) {
+            int v = this.in.readInt();
+            this.watched.put(v, this.in.readUTF());
+        }
+    }
+
+    /**
+     * Move to the next record.
+     *
+     * @return false at the end of the trace
+     *
+     * @throws IOException if the file can not be read
+     */
+    public boolean next() throws IOException {
+        try {
+            this.header = this.in.readInt();
+        } catch (EOFException ex) {
+            return false;
+        }
+        this.target = this.in.readInt();
+        this.key = this.in.readInt();
+        this.delta = this.in.readInt();
+        return true;
+    }
+
+    /**
+     * @return the watched vertices by index, with their GraphStream ids
+     */
+    public Map<Integer, String> getWatched() {
+        return this.watched;
+    }
+
+    public String getPhase() {
+        return TraceRecorder.PHASES[this.header >>> 28];
+    }
+
+    public String getSuperstep() {
+        return TraceRecorder.SUPERSTEPS[this.header >>> 24 & 0xF];
+    }
+
+    public int getLoop() {
+        return this.header & 0x7FFFFF;
+    }
+
+    /**
+     * @return true for a change of a vertex to its own map, false for a PU
+     *         message
+     */
+    public boolean isDirect() {
+        return (this.header & 1 << 23) != 0;
+    }
+
+    public int getTarget() {
+        return this.target;
+    }
+
+    public int getKey() {
+        return this.key;
+    }
+
+    public int getDelta() {
+        return this.delta;
+    }
+
+    private String name(int v) {
+        String id = this.watched.get(v);
+        return id == null ? String.valueOf(v) : v + "#" + id;
+    }
+
+    /**
+     * @return the current record as a line of text
+     */
+    @Override
+    public String toString() {
+        return getPhase() + " " + getLoop() + " " + getSuperstep() + (isDirect() ? " direct " : " PU ")
+                + name(this.target) + " " + name(this.key) + " " + (this.delta > 0 ? "+" : "") + this.delta;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: TraceReader trace [--sum]");
+            System.exit(1);
+        }
+        boolean sum = args.length > 1 && args[1].equals("--sum");
+
+        try (TraceReader trace = new TraceReader(new File(args[0]))) {
+            // The map of every watched vertex, by the other vertex
+            Map<Integer, Map<Integer, Integer>> maps = new TreeMap<Integer, Map<Integer, Integer>>();
+            long records = 0;
+            while (trace.next()) {
+                records++;
+                if (!sum) {
+                    System.out.println(trace);
+                } else if (trace.getWatched().containsKey(trace.getTarget())) {
+                    Map<Integer, Integer> map = maps.get(trace.getTarget());
+                    if (map == null) {
+                        map = new TreeMap<Integer, Integer>();
+                        maps.put(trace.getTarget(), map);
+                    }
+                    Integer old = map.get(trace.getKey());
+                    map.put(trace.getKey(), (old == null ? 0 : old) + trace.getDelta());
+                }
+            }
+
+            for (Map.Entry<Integer, Map<Integer, Integer>> entry : maps.entrySet()) {
+                // The propinquity that came and went again is not in the map
+                entry.getValue().values().removeAll(Collections.singleton(0));
+                System.out.println(trace.name(entry.getKey()) + " pm: " + entry.getValue());
+            }
+            System.out.println(records + " records");
+        }
+    }
+}
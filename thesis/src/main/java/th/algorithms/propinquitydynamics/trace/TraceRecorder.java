@@ -0,0 +1,320 @@
+package th.algorithms.propinquitydynamics.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import th.algorithms.propinquitydynamics.utils.Outbox;
+
+/**
+ * Records every propinquity update that touches a watched vertex as a fixed
+ * size binary record, instead of printing whole maps like
+ * {@link th.algorithms.propinquitydynamics.PropinquityDynamics#debugOn}. A
+ * record is four big endian ints:
+ * <pre>
+ * header = phase &lt;&lt; 28 | superstep &lt;&lt; 24 | direct &lt;&lt; 23 | loop
+ * target   the vertex whose map changes
+ * key      the other vertex of the pair
+ * delta    the change of the propinquity
+ * </pre>
+ * <b>phase</b> and <b>superstep</b> index {@link #PHASES} and
+ * {@link #SUPERSTEPS}. <b>direct</b> is 1 for a change that a vertex makes to
+ * its own map (the direct propinquity and its Ni and Nd) and 0 for a PU
+ * message. The file starts with "PDTR", the version and the watched vertices
+ * as (index, id) pairs, see {@link TraceReader}.
+ * <p>
+ * Every thread fills its own chunk of records, and full chunks go through a
+ * ring of a fixed number of chunks to a writer thread, so the threads of a
+ * superstep never wait for each other or for the disk until the ring is
+ * full. The records of one superstep are not in the order they were sent,
+ * the updates of a superstep are applied at its barrier in any order anyway.
+ * A thread holds a chunk of the ring only until the next {@link #flush()},
+ * which hands every chunk back, so only the threads that record in the same
+ * superstep must be fewer than the chunks.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class TraceRecorder {
+
+    public static final int MAGIC = 0x50445452;
+    public static final int VERSION = 1;
+    public static final int RECORD_INTS = 4;
+
+    /**
+     * The names of the phase codes, as in
+     * {@link th.algorithms.propinquitydynamics.metrics.PhaseMetrics}.
+     */
+    public static final String[] PHASES = {"", "phase1", "phase2", "stream"};
+    /**
+     * The names of the superstep codes.
+     */
+    public static final String[] SUPERSTEPS = {"", "init", "angle", "conjugate", "derive", "merge", "finish",
+        "prune"};
+
+    private static final int CHUNK_RECORDS = 4096;
+    private static final int RING = 64;
+
+    /**
+     * A piece of the ring, filled by one thread at a time.
+     */
+    private static class Chunk {
+
+        final int[] data = new int[CHUNK_RECORDS * RECORD_INTS];
+        int size;
+    }
+
+    /**
+     * The chunk of one thread, null after a flush until the thread records
+     * again.
+     */
+    private static class Holder {
+
+        Chunk chunk;
+    }
+
+    private final boolean[] watched;
+    private final BlockingQueue<Chunk> free = new ArrayBlockingQueue<Chunk>(RING);
+    private final BlockingQueue<Chunk> full = new ArrayBlockingQueue<Chunk>(RING + 1);
+    // The threads that hold a chunk, emptied by every flush
+    private final List<Holder> open = new ArrayList<Holder>();
+    private final ThreadLocal<Holder> current = new ThreadLocal<Holder>() {
+        @Override
+        protected Holder initialValue() {
+            return new Holder();
+        }
+    };
+    private final Chunk end = new Chunk();
+    private final Thread writer;
+    private volatile IOException failure;
+    private volatile int header;
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+
+    /**
+     * Open the file and start the writer thread.
+     *
+     * @param file     where to write
+     * @param vertices the number of vertices of the graph
+     * @param indices  the watched vertices
+     * @param ids      the GraphStream ids of the watched vertices
+     *
+     * @throws IOException if the file can not be written
+     */
+    public TraceRecorder(File file, int vertices, int[] indices, String[] ids) throws IOException {
+        this.watched = new boolean[vertices];
+        for (int v : indices) {
+            this.watched[v] = true;
+        }
+        for (int i = 0; i < RING; i++) {
+            this.free.add(new Chunk());
+        }
+
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+                1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(indices.length);
+        for (int i = 0; i < indices.length; i++) {
+            out.writeInt(indices[i]);
+            out.writeUTF(ids[i]);
+        }
+
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] bytes = new byte[CHUNK_RECORDS * RECORD_INTS * 4];
+                try {
+                    Chunk chunk;
+                    while ((chunk = full.take()) != end) {
+                        // After a failure the chunks still go round, so the
+                        // recording threads never block
+                        if (failure == null) {
+                            ByteBuffer.wrap(bytes).asIntBuffer().put(chunk.data, 0, chunk.size);
+                            write(out, bytes, chunk.size * 4);
+                        }
+                        chunk.size = 0;
+                        free.add(chunk);
+                    }
+                    out.close();
+                } catch (IOException ex) {
+                    failure = ex;
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "trace writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    private void write(DataOutputStream out, byte[] bytes, int length) {
+        try {
+            out.write(bytes, 0, length);
+        } catch (IOException ex) {
+            this.failure = ex;
+        }
+    }
+
+    private Chunk take() {
+        Chunk chunk = this.free.poll();
+        if (chunk == null) {
+            this.stalls.incrementAndGet();
+            try {
+                chunk = this.free.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ex);
+            }
+        }
+        return chunk;
+    }
+
+    private static int code(String[] names, String name) {
+        for (int i = 1; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown trace name " + name);
+    }
+
+    /**
+     * Set the superstep of the records that follow. Only between two
+     * supersteps.
+     *
+     * @param phase     one of {@link #PHASES}
+     * @param loop      the loop of the phase
+     * @param superstep one of {@link #SUPERSTEPS}
+     */
+    public void step(String phase, int loop, String superstep) {
+        this.header = code(PHASES, phase) << 28 | code(SUPERSTEPS, superstep) << 24 | (loop & 0x7FFFFF);
+    }
+
+    /**
+     * @return true if v is watched
+     */
+    public boolean watches(int v) {
+        return v < this.watched.length && this.watched[v];
+    }
+
+    /**
+     * Record a PU message if one of its vertices is watched.
+     */
+    public void record(int target, int key, int delta) {
+        if (watches(target) || watches(key)) {
+            append(this.header, target, key, delta);
+        }
+    }
+
+    /**
+     * Record a change of a vertex to its own map if one of the vertices is
+     * watched.
+     */
+    public void direct(int target, int key, int delta) {
+        if (watches(target) || watches(key)) {
+            append(this.header | 1 << 23, target, key, delta);
+        }
+    }
+
+    private void append(int header, int target, int key, int delta) {
+        Holder holder = this.current.get();
+        Chunk chunk = holder.chunk;
+        if (chunk == null) {
+            chunk = holder.chunk = take();
+            synchronized (this.open) {
+                this.open.add(holder);
+            }
+        }
+        int i = chunk.size;
+        chunk.data[i] = header;
+        chunk.data[i + 1] = target;
+        chunk.data[i + 2] = key;
+        chunk.data[i + 3] = delta;
+        chunk.size = i + RECORD_INTS;
+
+        if (chunk.size == chunk.data.length) {
+            holder.chunk = take();
+            this.records.addAndGet(chunk.size / RECORD_INTS);
+            this.full.add(chunk);
+        }
+    }
+
+    /**
+     * @return an outbox that records the updates and hands them to another
+     */
+    public Outbox wrap(final Outbox to) {
+        return new Outbox() {
+            @Override
+            public void send(int target, int key, int delta) {
+                record(target, key, delta);
+                to.send(target, key, delta);
+            }
+        };
+    }
+
+    /**
+     * Hand the records of every thread to the writer and take back the
+     * chunks of the threads, so threads that are gone keep none. Only between
+     * two supersteps, when no thread records.
+     *
+     * @throws IOException if the writer failed
+     */
+    public void flush() throws IOException {
+        synchronized (this.open) {
+            for (Holder holder : this.open) {
+                Chunk chunk = holder.chunk;
+                holder.chunk = null;
+                if (chunk.size == 0) {
+                    this.free.add(chunk);
+                } else {
+                    this.records.addAndGet(chunk.size / RECORD_INTS);
+                    this.full.add(chunk);
+                }
+            }
+            this.open.clear();
+        }
+        if (this.failure != null) {
+            throw this.failure;
+        }
+    }
+
+    /**
+     * Write what is left and close the file.
+     *
+     * @throws IOException if the writer failed
+     */
+    public void close() throws IOException {
+        flush();
+        this.full.add(this.end);
+        try {
+            this.writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+        if (this.failure != null) {
+            throw this.failure;
+        }
+    }
+
+    /**
+     * @return the records handed to the writer so far
+     */
+    public long getRecords() {
+        return this.records.get();
+    }
+
+    /**
+     * @return how many times a thread had to wait for the writer
+     */
+    public long getStalls() {
+        return this.stalls.get();
+    }
+}
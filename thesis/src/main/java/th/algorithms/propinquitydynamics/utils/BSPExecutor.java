@@ -0,0 +1,267 @@
+package th.algorithms.propinquitydynamics.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the supersteps of a vertex program on a fork-join pool. The vertices
+ * are handed to the workers in small chunks and every worker collects the
+ * updates it sends in its own {@link DeltaBuffer}. At the barrier the buffers
+ * are merged partition by partition, one thread per partition, so the
+ * propinquity maps never see two writers.
+ * <p>
+ * To keep the buffers small the updates may be merged before every vertex
+ * has run, so a program must not read anything that its own updates write in
+ * the same superstep. This holds for every PD superstep, since propinquity is
+ * only read at the start of Phase 2.
+ * <p>
+ * With {@link #setMetrics(boolean)} the executor also counts the updates it
+ * delivers and the bytes its threads allocate in every superstep. With
+ * {@link #setCoalescing(boolean)} the buffers add up the updates of the same
+ * pair before the barrier.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class BSPExecutor {
+
+    private static final int CHUNK = 64;
+    private static final int BUFFER_LIMIT = 1 << 20;
+    // Coalescing buffers are merged before their tables leave the cache
+    private static final int COALESCING_LIMIT = 1 << 16;
+
+    /**
+     * The work of one vertex in a superstep.
+     */
+    public interface VertexProgram {
+
+        void compute(int v, Outbox outbox);
+    }
+
+    private final int workers;
+    private final ForkJoinPool pool;
+    private final DeltaBuffer[] buffers;
+    private boolean metrics = false;
+    // The counts of the last superstep
+    private final AtomicLong increments = new AtomicLong();
+    private final AtomicLong decrements = new AtomicLong();
+    private final AtomicLong allocated = new AtomicLong();
+
+    /**
+     * Counts the updates on their way to the inbox, one per thread.
+     */
+    private static class Counter implements Outbox {
+
+        private final Outbox to;
+        private long increments, decrements;
+
+        Counter(Outbox to) {
+            this.to = to;
+        }
+
+        @Override
+        public void send(int target, int key, int delta) {
+            if (delta > 0) {
+                this.increments++;
+            } else {
+                this.decrements++;
+            }
+            this.to.send(target, key, delta);
+        }
+    }
+
+    /**
+     * @param workers the number of threads, 1 runs everything in the calling
+     *                thread and applies the updates as they are sent
+     */
+    public BSPExecutor(int workers) {
+        this.workers = Math.max(workers, 1);
+
+        if (this.workers > 1) {
+            this.pool = new ForkJoinPool(this.workers);
+            this.buffers = new DeltaBuffer[this.workers];
+            for (int i = 0; i < this.workers; i++) {
+                this.buffers[i] = new DeltaBuffer(this.workers * 4);
+            }
+        } else {
+            this.pool = null;
+            this.buffers = null;
+        }
+    }
+
+    /**
+     * Run a program on some vertices and deliver all of its updates.
+     *
+     * @param vertices the vertices that take part in the superstep
+     * @param count    how many of the vertices to use
+     * @param program  the work of each vertex
+     * @param inbox    where the updates are applied, it is called for one
+     *                 partition of targets by one thread at a time
+     */
+    public void superstep(final int[] vertices, final int count, final VertexProgram program, final Outbox inbox) {
+        this.increments.set(0);
+        this.decrements.set(0);
+        this.allocated.set(0);
+
+        if (this.pool == null || count <= CHUNK) {
+            Counter counter = this.metrics ? new Counter(inbox) : null;
+            long bytes = this.metrics ? ThreadAllocation.current() : 0;
+            for (int i = 0; i < count; i++) {
+                program.compute(vertices[i], counter != null ? counter : inbox);
+            }
+            if (counter != null) {
+                count(counter, ThreadAllocation.current() - bytes);
+            }
+            return;
+        }
+
+        final int chunks = (count + CHUNK - 1) / CHUNK;
+        final int limit = isCoalescing() ? COALESCING_LIMIT : BUFFER_LIMIT;
+        final AtomicInteger next = new AtomicInteger();
+
+        while (next.get() < chunks) {
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(this.workers);
+            for (final DeltaBuffer buffer : this.buffers) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        long bytes = metrics ? ThreadAllocation.current() : 0;
+                        int c;
+                        while (buffer.size() < limit && (c = next.getAndIncrement()) < chunks) {
+                            int end = Math.min((c + 1) * CHUNK, count);
+                            for (int i = c * CHUNK; i < end; i++) {
+                                program.compute(vertices[i], buffer);
+                            }
+                        }
+                        if (metrics) {
+                            allocated.addAndGet(ThreadAllocation.current() - bytes);
+                        }
+                        return null;
+                    }
+                });
+            }
+            run(tasks);
+            deliver(inbox);
+        }
+    }
+
+    /**
+     * The barrier, merge the buffers of every worker into the inbox.
+     */
+    private void deliver(final Outbox inbox) {
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int p = 0; p < this.buffers[0].getPartitions(); p++) {
+            final int partition = p;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    Counter counter = metrics ? new Counter(inbox) : null;
+                    long bytes = metrics ? ThreadAllocation.current() : 0;
+                    for (DeltaBuffer buffer : buffers) {
+                        buffer.drain(partition, counter != null ? counter : inbox);
+                    }
+                    if (counter != null) {
+                        count(counter, ThreadAllocation.current() - bytes);
+                    }
+                    return null;
+                }
+            });
+        }
+        run(tasks);
+    }
+
+    private void count(Counter counter, long bytes) {
+        this.increments.addAndGet(counter.increments);
+        this.decrements.addAndGet(counter.decrements);
+        this.allocated.addAndGet(bytes);
+    }
+
+    private void run(List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> f : this.pool.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    /**
+     * @param metrics true to count the updates and the allocations of every
+     *                superstep, see {@link ThreadAllocation}
+     */
+    public void setMetrics(boolean metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Let the buffer of every worker add up the updates of the same pair, so
+     * the barrier delivers one update with their sum, none if it is 0. The
+     * buffers stay small and the merge does far less work, but a superstep
+     * never creates an entry that ends up 0, so the inbox must take a missing
+     * entry for 0. The metrics count the delivered updates. With one thread
+     * the updates are applied as they are sent and this changes nothing.
+     *
+     * @param coalescing true to add up the updates in the buffers
+     */
+    public void setCoalescing(boolean coalescing) {
+        if (this.buffers == null || this.buffers[0].isCoalescing() == coalescing) {
+            return;
+        }
+        for (int i = 0; i < this.workers; i++) {
+            this.buffers[i] = new DeltaBuffer(this.workers * 4, coalescing);
+        }
+    }
+
+    public boolean isCoalescing() {
+        return this.buffers != null && this.buffers[0].isCoalescing();
+    }
+
+    /**
+     * @return the updates with a positive delta that the last superstep
+     *         delivered, when counted
+     */
+    public long getIncrements() {
+        return this.increments.get();
+    }
+
+    /**
+     * @return the updates with a negative delta that the last superstep
+     *         delivered, when counted
+     */
+    public long getDecrements() {
+        return this.decrements.get();
+    }
+
+    /**
+     * @return the bytes the threads allocated in the last superstep, when
+     *         counted
+     */
+    public long getAllocatedBytes() {
+        return this.allocated.get();
+    }
+
+    /**
+     * @return the number of worker threads
+     */
+    public int getWorkers() {
+        return this.workers;
+    }
+
+    /**
+     * Stop the worker threads.
+     */
+    public void shutdown() {
+        if (this.pool != null) {
+            this.pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package th.algorithms.propinquitydynamics.utils;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import org.graphstream.graph.Graph;
+import org.graphstream.graph.Node;
+
+/**
+ * Immutable, int indexed copy of the adjacency of a GraphStream graph in
+ * compressed sparse row (CSR) form. The neighbours of vertex <b>v</b> are
+ * stored sorted in <code>neighbours[offsets[v] .. offsets[v + 1])</code>.
+ * Vertex numbers are the GraphStream node indices at the time of the freeze.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class CSRGraph {
+
+    private final int[] offsets;
+    private final int[] neighbours;
+    private final String[] ids;
+
+    private CSRGraph(int[] offsets, int[] neighbours, String[] ids) {
+        this.offsets = offsets;
+        this.neighbours = neighbours;
+        this.ids = ids;
+    }
+
+    /**
+     * Freeze the current topology of a graph.
+     *
+     * @param graph the graph to copy
+     *
+     * @return the CSR snapshot of the graph
+     */
+    public static CSRGraph freeze(Graph graph) {
+        int n = graph.getNodeCount();
+        int[] offsets = new int[n + 1];
+        String[] ids = new String[n];
+
+        for (int i = 0; i < n; i++) {
+            Node node = graph.getNode(i);
+            ids[i] = node.getId();
+            offsets[i + 1] = offsets[i] + node.getDegree();
+        }
+
+        int[] neighbours = new int[offsets[n]];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            int start = size;
+            Iterator<Node> it = graph.getNode(i).getNeighborNodeIterator();
+            while (it.hasNext()) {
+                neighbours[size++] = it.next().getIndex();
+            }
+            Arrays.sort(neighbours, start, size);
+
+            // Drop duplicates, the same neighbour might be reached by more
+            // than one edge.
+            int end = start;
+            for (int j = start; j < size; j++) {
+                if (j == start || neighbours[j] != neighbours[end - 1]) {
+                    neighbours[end++] = neighbours[j];
+                }
+            }
+            size = end;
+            offsets[i] = start;
+        }
+        offsets[n] = size;
+
+        return new CSRGraph(offsets, Arrays.copyOf(neighbours, size), ids);
+    }
+
+    /**
+     * Build a snapshot from neighbour lists.
+     *
+     * @param lists the sorted neighbours of every vertex, null for none
+     * @param ids   the GraphStream id of every vertex
+     *
+     * @return the CSR snapshot of the lists
+     */
+    public static CSRGraph of(int[][] lists, String[] ids) {
+        int n = ids.length;
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] = offsets[v] + (lists[v] == null ? 0 : lists[v].length);
+        }
+        int[] neighbours = new int[offsets[n]];
+        for (int v = 0; v < n; v++) {
+            if (lists[v] != null) {
+                System.arraycopy(lists[v], 0, neighbours, offsets[v], lists[v].length);
+            }
+        }
+        return new CSRGraph(offsets, neighbours, ids);
+    }
+
+    /**
+     * @return a snapshot without vertices
+     */
+    public static CSRGraph empty() {
+        return new CSRGraph(new int[1], new int[0], new String[0]);
+    }
+
+    /**
+     * @return the number of vertices
+     */
+    public int getNodeCount() {
+        return this.ids.length;
+    }
+
+    /**
+     * @param v the vertex
+     *
+     * @return the number of distinct neighbours of <b>v</b>
+     */
+    public int getDegree(int v) {
+        return this.offsets[v + 1] - this.offsets[v];
+    }
+
+    /**
+     * @param v the vertex
+     *
+     * @return the position of the first neighbour of <b>v</b> in
+     *         {@link #getNeighbours()}
+     */
+    public int getStart(int v) {
+        return this.offsets[v];
+    }
+
+    /**
+     * @param v the vertex
+     *
+     * @return the position after the last neighbour of <b>v</b> in
+     *         {@link #getNeighbours()}
+     */
+    public int getEnd(int v) {
+        return this.offsets[v + 1];
+    }
+
+    /**
+     * The shared neighbour array. It must not be modified.
+     *
+     * @return all neighbour lists, one after the other
+     */
+    public int[] getNeighbours() {
+        return this.neighbours;
+    }
+
+    /**
+     * @param v the vertex
+     *
+     * @return a sorted copy of the neighbours of <b>v</b>
+     */
+    public int[] neighboursOf(int v) {
+        return Arrays.copyOfRange(this.neighbours, this.offsets[v], this.offsets[v + 1]);
+    }
+
+    /**
+     * @param v the vertex
+     *
+     * @return the GraphStream id of <b>v</b>
+     */
+    public String getId(int v) {
+        return this.ids[v];
+    }
+
+    /**
+     * Intersect the neighbour lists of two vertices.
+     *
+     * @param u   the first vertex
+     * @param v   the second vertex
+     * @param out where to write the common neighbours, it must be big enough
+     *            to hold the smaller neighbour list
+     *
+     * @return the number of common neighbours written to <b>out</b>
+     */
+    public int commonNeighbours(int u, int v, int[] out) {
+        int i = this.offsets[u], iEnd = this.offsets[u + 1];
+        int j = this.offsets[v], jEnd = this.offsets[v + 1];
+        int size = 0;
+
+        while (i < iEnd && j < jEnd) {
+            int x = this.neighbours[i], y = this.neighbours[j];
+            if (x == y) {
+                out[size++] = x;
+                i++;
+                j++;
+            } else if (x < y) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the largest degree of the graph
+     */
+    public int getMaxDegree() {
+        int max = 0;
+        for (int v = 0; v < getNodeCount(); v++) {
+            max = Math.max(max, getDegree(v));
+        }
+        return max;
+    }
+}
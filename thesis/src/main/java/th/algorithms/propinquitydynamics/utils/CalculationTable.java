@@ -40,4 +40,161 @@ public class CalculationTable {
         return Sets.intersection(Sets.union(Nr, Nd), Sets.union(nnNr, nnNd)).copyInto(new HashSet<Integer>(20));
     }
 
+    // The same table on sorted int arrays. The first sets always belong to
+    // the vertex that does the calculation and the nn sets to its neighbour.
+    // The result is written sorted into out, which must be able to hold all
+    // the Nr, Ni and Nd of the vertex, and its size is returned. Nothing is
+    // allocated once the scratch buffers have grown big enough.
+
+    public static int CalculateCrr(int[] Nr, int[] nnNr, int[] out, Scratch s) {
+        if (s.marked) {
+            return s.walk(nnNr, s.inNr, null, IntSets.EMPTY, null, null, out);
+        }
+        return IntSets.intersect(Nr, nnNr, out);
+    }
+
+    public static int CalculateCri(int[] Nr, int[] Ni, int[] nnNr, int[] nnNi, int[] out, Scratch s) {
+        // (Nr ^ nnNi) + (Ni ^ nnNr) + (Ni ^ nnNi)
+        return CalculateCrx(Nr, Ni, nnNr, nnNi, out, s, s.inNi);
+    }
+
+    public static int CalculateCrd(int[] Nr, int[] Nd, int[] nnNr, int[] nnNd, int[] out, Scratch s) {
+        // (Nr ^ nnNd) + (Nd ^ nnNr) + (Nd ^ nnNd)
+        return CalculateCrx(Nr, Nd, nnNr, nnNd, out, s, s.inNd);
+    }
+
+    public static int CalculateCii(int[] Nr, int[] Ni, int[] nnNr, int[] nnNi, int[] out, Scratch s) {
+        // (Nr + Ni) ^ (nnNr + nnNi)
+        return CalculateCxx(Nr, Ni, nnNr, nnNi, out, s, s.inNi);
+    }
+
+    public static int CalculateCdd(int[] Nr, int[] Nd, int[] nnNr, int[] nnNd, int[] out, Scratch s) {
+        // (Nr + Nd) ^ (nnNr + nnNd)
+        return CalculateCxx(Nr, Nd, nnNr, nnNd, out, s, s.inNd);
+    }
+
+    private static int CalculateCrx(int[] Nr, int[] Nx, int[] nnNr, int[] nnNx, int[] out, Scratch s, long[] inNx) {
+        if (s.marked) {
+            return s.walk(nnNr, inNx, null, nnNx, s.inNr, inNx, out);
+        }
+
+        // (Nr ^ nnNx) + (Nx ^ (nnNr + nnNx)), Nr and Nx have nothing in common
+        s.t1 = IntSets.ensure(s.t1, Math.min(Nr.length, nnNx.length));
+        int t1 = IntSets.intersect(Nr, nnNx, s.t1);
+        s.t2 = IntSets.ensure(s.t2, nnNr.length + nnNx.length);
+        int t2 = IntSets.union(nnNr, nnNx, s.t2);
+        s.t3 = IntSets.ensure(s.t3, Nx.length);
+        int t3 = IntSets.intersect(Nx, Nx.length, s.t2, t2, s.t3);
+
+        return IntSets.union(s.t1, t1, s.t3, t3, out);
+    }
+
+    private static int CalculateCxx(int[] Nr, int[] Nx, int[] nnNr, int[] nnNx, int[] out, Scratch s, long[] inNx) {
+        if (s.marked) {
+            return s.walk(nnNr, s.inNr, inNx, nnNx, s.inNr, inNx, out);
+        }
+
+        s.t1 = IntSets.ensure(s.t1, Nr.length + Nx.length);
+        int t1 = IntSets.union(Nr, Nx, s.t1);
+        s.t2 = IntSets.ensure(s.t2, nnNr.length + nnNx.length);
+        int t2 = IntSets.union(nnNr, nnNx, s.t2);
+
+        return IntSets.intersect(s.t1, t1, s.t2, t2, out);
+    }
+
+    /**
+     * Temporary buffers of one thread for the int array kernels. When the
+     * sets of the calculating vertex are large, they can be pinned in bitsets
+     * with {@link #mark(int[], int[], int[])}. Then every kernel only walks
+     * the sets of the neighbour and tests the bits, instead of merging the two
+     * sides again for every neighbour.
+     */
+    public static class Scratch {
+
+        /**
+         * The smallest Nr worth pinning in the bitsets.
+         */
+        public static final int BITSET_THRESHOLD = 512;
+
+        private final int vertices;
+        private int[] t1 = new int[16], t2 = new int[16], t3 = new int[16];
+        private long[] inNr, inNi, inNd;
+        private int[] markedNr, markedNi, markedNd;
+        private boolean marked = false;
+
+        /**
+         * @param vertices the number of vertices of the graph
+         */
+        public Scratch(int vertices) {
+            this.vertices = vertices;
+        }
+
+        /**
+         * Pin the sets of the vertex that will do the next calculations.
+         */
+        public void mark(int[] Nr, int[] Ni, int[] Nd) {
+            if (this.inNr == null) {
+                int words = (this.vertices + 63) >>> 6;
+                this.inNr = new long[words];
+                this.inNi = new long[words];
+                this.inNd = new long[words];
+            }
+            set(this.inNr, Nr, true);
+            set(this.inNi, Ni, true);
+            set(this.inNd, Nd, true);
+            this.markedNr = Nr;
+            this.markedNi = Ni;
+            this.markedNd = Nd;
+            this.marked = true;
+        }
+
+        /**
+         * Clear the bits of the pinned sets.
+         */
+        public void unmark() {
+            if (this.marked) {
+                set(this.inNr, this.markedNr, false);
+                set(this.inNi, this.markedNi, false);
+                set(this.inNd, this.markedNd, false);
+                this.marked = false;
+            }
+        }
+
+        private static void set(long[] bits, int[] set, boolean on) {
+            for (int x : set) {
+                if (on) {
+                    bits[x >>> 6] |= 1L << x;
+                } else {
+                    bits[x >>> 6] = 0;
+                }
+            }
+        }
+
+        private static boolean in(long[] bits, int x) {
+            return bits != null && (bits[x >>> 6] & (1L << x)) != 0;
+        }
+
+        /**
+         * Merge two disjoint sorted lists and keep the elements that are in
+         * one of the bitsets of their list.
+         */
+        private int walk(int[] a, long[] aIn1, long[] aIn2, int[] b, long[] bIn1, long[] bIn2, int[] out) {
+            int i = 0, j = 0, size = 0;
+            while (i < a.length || j < b.length) {
+                if (j == b.length || (i < a.length && a[i] < b[j])) {
+                    int x = a[i++];
+                    if (in(aIn1, x) || in(aIn2, x)) {
+                        out[size++] = x;
+                    }
+                } else {
+                    int x = b[j++];
+                    if (in(bIn1, x) || in(bIn2, x)) {
+                        out[size++] = x;
+                    }
+                }
+            }
+            return size;
+        }
+    }
+
 }
@@ -0,0 +1,111 @@
+package th.algorithms.propinquitydynamics.utils;
+
+import java.util.Arrays;
+
+/**
+ * An {@link Outbox} that adds up the updates of the same pair before they are
+ * applied. Every pair gets one slot of an open addressing table with the sum
+ * of its deltas, and {@link #flush(Outbox)} sends a single update per pair,
+ * none at all if the deltas cancel out. In a Phase 2 loop every common
+ * neighbour of a pair sends it the same Crr, Cri or Crd update, so a buffer
+ * keeps far fewer entries than updates it gets.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class CoalescingBuffer implements Outbox {
+
+    private static final long FREE = -1L;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] pairs;
+    private int[] deltas;
+    private int size = 0;
+
+    public CoalescingBuffer() {
+        this(16);
+    }
+
+    /**
+     * @param capacity the number of pairs to make room for
+     */
+    public CoalescingBuffer(int capacity) {
+        int slots = Integer.highestOneBit(Math.max((int) (capacity / LOAD_FACTOR), 16) - 1) << 1;
+        this.pairs = new long[slots];
+        this.deltas = new int[slots];
+        Arrays.fill(this.pairs, FREE);
+    }
+
+    private int slot(long pair) {
+        // The mixing step of MurmurHash3, the ids of near vertices are near
+        long h = pair * 0xC6A4A7935BD1E995L;
+        h ^= h >>> 29;
+        int mask = this.pairs.length - 1;
+        int s = (int) h & mask;
+        while (this.pairs[s] != FREE && this.pairs[s] != pair) {
+            s = (s + 1) & mask;
+        }
+        return s;
+    }
+
+    @Override
+    public void send(int target, int key, int delta) {
+        long pair = ((long) target << 32) | (key & 0xFFFFFFFFL);
+        int s = slot(pair);
+        if (this.pairs[s] == pair) {
+            this.deltas[s] += delta;
+            return;
+        }
+
+        if (this.size + 1 > this.pairs.length * LOAD_FACTOR) {
+            grow();
+            s = slot(pair);
+        }
+        this.pairs[s] = pair;
+        this.deltas[s] = delta;
+        this.size++;
+    }
+
+    private void grow() {
+        long[] oldPairs = this.pairs;
+        int[] oldDeltas = this.deltas;
+        this.pairs = new long[oldPairs.length << 1];
+        this.deltas = new int[oldPairs.length << 1];
+        Arrays.fill(this.pairs, FREE);
+        for (int i = 0; i < oldPairs.length; i++) {
+            if (oldPairs[i] != FREE) {
+                int s = slot(oldPairs[i]);
+                this.pairs[s] = oldPairs[i];
+                this.deltas[s] = oldDeltas[i];
+            }
+        }
+    }
+
+    /**
+     * Hand the sum of the buffered updates of every pair to an outbox and
+     * forget them. The table keeps its size for the next superstep.
+     *
+     * @param to where the updates go
+     */
+    public void flush(Outbox to) {
+        if (this.size == 0) {
+            return;
+        }
+        for (int i = 0; i < this.pairs.length; i++) {
+            long pair = this.pairs[i];
+            if (pair != FREE) {
+                if (this.deltas[i] != 0) {
+                    to.send((int) (pair >>> 32), (int) pair, this.deltas[i]);
+                }
+                this.pairs[i] = FREE;
+            }
+        }
+        this.size = 0;
+    }
+
+    /**
+     * @return the number of buffered pairs
+     */
+    public int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,144 @@
+package th.algorithms.propinquitydynamics.utils;
+
+import java.util.Arrays;
+
+/**
+ * A cheap fork of another store. The maps are read from the base store until
+ * the first write, which copies the map of that vertex to the heap of the
+ * fork. Many forks can share one base, as long as nothing writes to the base
+ * while they are in use.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class CopyOnWritePropinquityStore implements PropinquityStore {
+
+    private final PropinquityStore base;
+    private PropinquityMap[] own;
+    // The vertices whose map was dropped by the fork, the base still has it
+    private boolean[] released;
+
+    /**
+     * @param base     the store to fork, it is never written
+     * @param vertices the number of vertices
+     */
+    public CopyOnWritePropinquityStore(PropinquityStore base, int vertices) {
+        this.base = base;
+        this.own = new PropinquityMap[vertices];
+        this.released = new boolean[vertices];
+    }
+
+    private PropinquityMap write(int v) {
+        PropinquityMap map = this.own[v];
+        if (map == null) {
+            map = new PropinquityMap(this.base.size(v));
+            Cursor row = this.base.cursor(v);
+            while (row.next()) {
+                map.add(row.key(), row.value());
+            }
+            this.own[v] = map;
+        }
+        return map;
+    }
+
+    /**
+     * @return true if <b>v</b> is still read from the base
+     */
+    private boolean shared(int v) {
+        return this.own[v] == null && !this.released[v];
+    }
+
+    @Override
+    public void create(int v, int capacity) {
+        this.own[v] = new PropinquityMap(capacity);
+        this.released[v] = false;
+    }
+
+    @Override
+    public void release(int v) {
+        this.own[v] = null;
+        this.released[v] = true;
+    }
+
+    @Override
+    public void grow(int vertices) {
+        if (this.own.length < vertices) {
+            int old = this.own.length;
+            this.own = Arrays.copyOf(this.own, vertices);
+            this.released = Arrays.copyOf(this.released, vertices);
+            // The base knows nothing of the new vertices
+            Arrays.fill(this.released, old, vertices, true);
+        }
+    }
+
+    @Override
+    public void add(int v, int k, int delta) {
+        write(v).add(k, delta);
+    }
+
+    @Override
+    public void increase(int v, int k) {
+        write(v).add(k, 1);
+    }
+
+    @Override
+    public void decrease(int v, int k) {
+        write(v).add(k, -1);
+    }
+
+    @Override
+    public int get(int v, int k) {
+        return shared(v) ? this.base.get(v, k) : this.own[v].get(k);
+    }
+
+    @Override
+    public boolean containsKey(int v, int k) {
+        return shared(v) ? this.base.containsKey(v, k) : this.own[v].containsKey(k);
+    }
+
+    @Override
+    public void remove(int v, int k) {
+        write(v).remove(k);
+    }
+
+    @Override
+    public void trim(int v) {
+        if (this.own[v] != null) {
+            this.own[v].trim();
+        }
+    }
+
+    /**
+     * @return the bytes of the copy of <b>v</b>, 0 while it is shared
+     */
+    @Override
+    public long bytes(int v) {
+        return this.own[v] == null ? 0 : this.own[v].capacity() * 8L;
+    }
+
+    @Override
+    public int size(int v) {
+        return shared(v) ? this.base.size(v) : this.own[v].size();
+    }
+
+    @Override
+    public Cursor cursor(int v) {
+        return shared(v) ? this.base.cursor(v) : this.own[v].cursor();
+    }
+
+    /**
+     * @return the map of the fork itself or a copy of the shared one
+     */
+    @Override
+    public PropinquityMap toMap(int v) {
+        return write(v);
+    }
+
+    /**
+     * Drop the copies, the base stays open.
+     */
+    @Override
+    public void close() {
+        this.own = new PropinquityMap[0];
+        this.released = new boolean[0];
+    }
+}
@@ -0,0 +1,125 @@
+package th.algorithms.propinquitydynamics.utils;
+
+import java.util.Arrays;
+
+/**
+ * An {@link Outbox} that keeps the updates of one worker in primitive arrays
+ * instead of applying them. The updates are grouped by the partition of their
+ * target vertex, so every partition can later be merged by a different thread
+ * without two threads ever writing to the same propinquity map. A coalescing
+ * buffer keeps a {@link CoalescingBuffer} per partition instead, so the
+ * updates of the same pair take up one entry.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class DeltaBuffer implements Outbox {
+
+    private final long[][] pairs;
+    private final int[][] deltas;
+    private final int[] sizes;
+    // Null if the updates are kept one by one
+    private final CoalescingBuffer[] coalescers;
+
+    /**
+     * @param partitions the number of target partitions
+     */
+    public DeltaBuffer(int partitions) {
+        this(partitions, false);
+    }
+
+    /**
+     * @param partitions the number of target partitions
+     * @param coalescing true to add up the updates of the same pair
+     */
+    public DeltaBuffer(int partitions, boolean coalescing) {
+        this.sizes = new int[partitions];
+        if (coalescing) {
+            this.pairs = null;
+            this.deltas = null;
+            this.coalescers = new CoalescingBuffer[partitions];
+            for (int p = 0; p < partitions; p++) {
+                this.coalescers[p] = new CoalescingBuffer();
+            }
+        } else {
+            this.pairs = new long[partitions][16];
+            this.deltas = new int[partitions][16];
+            this.coalescers = null;
+        }
+    }
+
+    /**
+     * @param target the vertex
+     *
+     * @return the partition that the vertex belongs to
+     */
+    public int partitionOf(int target) {
+        return target % this.sizes.length;
+    }
+
+    @Override
+    public void send(int target, int key, int delta) {
+        int p = partitionOf(target);
+        if (this.coalescers != null) {
+            this.coalescers[p].send(target, key, delta);
+            return;
+        }
+        int i = this.sizes[p];
+
+        if (i == this.pairs[p].length) {
+            this.pairs[p] = Arrays.copyOf(this.pairs[p], i << 1);
+            this.deltas[p] = Arrays.copyOf(this.deltas[p], i << 1);
+        }
+        this.pairs[p][i] = ((long) target << 32) | (key & 0xFFFFFFFFL);
+        this.deltas[p][i] = delta;
+        this.sizes[p] = i + 1;
+    }
+
+    /**
+     * Hand every buffered update of one partition to an outbox and forget
+     * them. Different partitions can be drained by different threads.
+     *
+     * @param partition the partition to drain
+     * @param to        where the updates go
+     */
+    public void drain(int partition, Outbox to) {
+        if (this.coalescers != null) {
+            this.coalescers[partition].flush(to);
+            return;
+        }
+        long[] p = this.pairs[partition];
+        int[] d = this.deltas[partition];
+
+        for (int i = 0; i < this.sizes[partition]; i++) {
+            to.send((int) (p[i] >>> 32), (int) p[i], d[i]);
+        }
+        this.sizes[partition] = 0;
+    }
+
+    /**
+     * @return the number of buffered updates, or of pairs when coalescing
+     */
+    public int size() {
+        int size = 0;
+        if (this.coalescers != null) {
+            for (CoalescingBuffer coalescer : this.coalescers) {
+                size += coalescer.size();
+            }
+            return size;
+        }
+        for (int s : this.sizes) {
+            size += s;
+        }
+        return size;
+    }
+
+    public boolean isCoalescing() {
+        return this.coalescers != null;
+    }
+
+    /**
+     * @return the number of target partitions
+     */
+    public int getPartitions() {
+        return this.sizes.length;
+    }
+}
@@ -0,0 +1,107 @@
+package th.algorithms.propinquitydynamics.utils;
+
+import java.util.Arrays;
+
+/**
+ * The propinquity maps on the heap, one {@link PropinquityMap} per vertex.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class HeapPropinquityStore implements PropinquityStore {
+
+    private PropinquityMap[] maps;
+
+    /**
+     * @param vertices the number of vertices
+     */
+    public HeapPropinquityStore(int vertices) {
+        this.maps = new PropinquityMap[vertices];
+    }
+
+    @Override
+    public void create(int v, int capacity) {
+        this.maps[v] = new PropinquityMap(capacity);
+    }
+
+    /**
+     * Give <b>v</b> a map that already exists.
+     */
+    public void set(int v, PropinquityMap map) {
+        this.maps[v] = map;
+    }
+
+    @Override
+    public void release(int v) {
+        this.maps[v] = null;
+    }
+
+    @Override
+    public void grow(int vertices) {
+        if (this.maps.length < vertices) {
+            this.maps = Arrays.copyOf(this.maps, vertices);
+        }
+    }
+
+    @Override
+    public void add(int v, int k, int delta) {
+        this.maps[v].add(k, delta);
+    }
+
+    @Override
+    public void increase(int v, int k) {
+        this.maps[v].add(k, 1);
+    }
+
+    @Override
+    public void decrease(int v, int k) {
+        this.maps[v].add(k, -1);
+    }
+
+    @Override
+    public int get(int v, int k) {
+        return this.maps[v].get(k);
+    }
+
+    @Override
+    public boolean containsKey(int v, int k) {
+        return this.maps[v].containsKey(k);
+    }
+
+    @Override
+    public void remove(int v, int k) {
+        this.maps[v].remove(k);
+    }
+
+    @Override
+    public void trim(int v) {
+        this.maps[v].trim();
+    }
+
+    @Override
+    public long bytes(int v) {
+        return this.maps[v].capacity() * 8L;
+    }
+
+    @Override
+    public int size(int v) {
+        return this.maps[v].size();
+    }
+
+    @Override
+    public Cursor cursor(int v) {
+        return this.maps[v].cursor();
+    }
+
+    /**
+     * @return the map itself, not a copy
+     */
+    @Override
+    public PropinquityMap toMap(int v) {
+        return this.maps[v];
+    }
+
+    @Override
+    public void close() {
+        this.maps = new PropinquityMap[0];
+    }
+}
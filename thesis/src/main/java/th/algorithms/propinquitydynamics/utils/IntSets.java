@@ -0,0 +1,161 @@
+package th.algorithms.propinquitydynamics.utils;
+
+import java.util.Arrays;
+
+/**
+ * Set operations on sorted int arrays without duplicates. Each operation
+ * reads the first <b>length</b> elements of its inputs and writes into an
+ * array given by the caller, which must be big enough for the result.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class IntSets {
+
+    /**
+     * If one list is this many times longer than the other we gallop through
+     * it instead of merging.
+     */
+    private static final int GALLOP_RATIO = 32;
+
+    public static final int[] EMPTY = new int[0];
+
+    public static boolean contains(int[] a, int x) {
+        return Arrays.binarySearch(a, x) >= 0;
+    }
+
+    /**
+     * @return a copy of the first length elements of a
+     */
+    public static int[] copyOf(int[] a, int length) {
+        return length == 0 ? EMPTY : Arrays.copyOf(a, length);
+    }
+
+    /**
+     * @return an array of at least size elements, a itself if it is big
+     *         enough
+     */
+    public static int[] ensure(int[] a, int size) {
+        if (a.length >= size) {
+            return a;
+        }
+        return new int[Math.max(size, a.length * 2)];
+    }
+
+    public static int intersect(int[] a, int[] b, int[] out) {
+        return intersect(a, a.length, b, b.length, out);
+    }
+
+    /**
+     * a ^ b, by merging the two lists or by galloping through the longer one
+     * when their sizes are far apart.
+     *
+     * @return the size of the intersection
+     */
+    public static int intersect(int[] a, int aLength, int[] b, int bLength, int[] out) {
+        if (aLength == 0 || bLength == 0) {
+            return 0;
+        }
+        if (aLength * GALLOP_RATIO < bLength) {
+            return gallop(a, aLength, b, bLength, out);
+        }
+        if (bLength * GALLOP_RATIO < aLength) {
+            return gallop(b, bLength, a, aLength, out);
+        }
+
+        int i = 0, j = 0, size = 0;
+        while (i < aLength && j < bLength) {
+            int x = a[i], y = b[j];
+            if (x == y) {
+                out[size++] = x;
+                i++;
+                j++;
+            } else if (x < y) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Look every element of the small list up in the large one, with an
+     * exponential search that starts where the previous one stopped.
+     */
+    private static int gallop(int[] small, int smallLength, int[] large, int largeLength, int[] out) {
+        int lo = 0, size = 0;
+
+        for (int i = 0; i < smallLength && lo < largeLength; i++) {
+            int x = small[i];
+
+            int step = 1, hi = lo;
+            while (hi < largeLength && large[hi] < x) {
+                lo = hi + 1;
+                hi += step;
+                step <<= 1;
+            }
+            int found = Arrays.binarySearch(large, lo, Math.min(hi + 1, largeLength), x);
+            if (found >= 0) {
+                out[size++] = x;
+                lo = found + 1;
+            } else {
+                lo = -found - 1;
+            }
+        }
+        return size;
+    }
+
+    public static int union(int[] a, int[] b, int[] out) {
+        return union(a, a.length, b, b.length, out);
+    }
+
+    /**
+     * a + b
+     *
+     * @return the size of the union
+     */
+    public static int union(int[] a, int aLength, int[] b, int bLength, int[] out) {
+        int i = 0, j = 0, size = 0;
+        while (i < aLength && j < bLength) {
+            int x = a[i], y = b[j];
+            if (x == y) {
+                out[size++] = x;
+                i++;
+                j++;
+            } else if (x < y) {
+                out[size++] = x;
+                i++;
+            } else {
+                out[size++] = y;
+                j++;
+            }
+        }
+        while (i < aLength) {
+            out[size++] = a[i++];
+        }
+        while (j < bLength) {
+            out[size++] = b[j++];
+        }
+        return size;
+    }
+
+    /**
+     * a - b
+     *
+     * @return the size of the difference
+     */
+    public static int difference(int[] a, int[] b, int[] out) {
+        int i = 0, j = 0, size = 0;
+        while (i < a.length) {
+            if (j == b.length || a[i] < b[j]) {
+                out[size++] = a[i++];
+            } else if (a[i] == b[j]) {
+                i++;
+                j++;
+            } else {
+                j++;
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,389 @@
+package th.algorithms.propinquitydynamics.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * The propinquity maps outside of the heap, in memory mapped files. Every
+ * vertex owns a bucket, an open addressing hash table (linear probing) of
+ * (key, propinquity) int pairs, inside one of the mapped segments. When a
+ * bucket gets full the map is moved to a bucket twice as big and the old one
+ * is kept for the next map of that size. Only the position, the size and the
+ * mask of every bucket stay on the heap, so the garbage collector never sees
+ * the pairs.
+ * <p>
+ * A key is stored as key + 1, so the zeros of a new file are empty slots.
+ * Every segment is a new file with a unique name, so files left behind by a
+ * crashed run or used by another store in the same directory are never
+ * mapped.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class MappedPropinquityStore implements PropinquityStore {
+
+    /**
+     * The default size of one mapped file, 1 GB.
+     */
+    public static final int DEFAULT_SEGMENT_SHIFT = 30;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int SLOT = 8;
+
+    private final File directory;
+    private final int segmentShift;
+    private final long segmentMask;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private RandomAccessFile[] files = new RandomAccessFile[0];
+    private File[] names = new File[0];
+    // The next free byte, buckets never cross two segments
+    private long top = 0;
+    // Free buckets by log2 of their slots, a stack of positions each
+    private final long[][] free = new long[32][];
+    private final int[] freeSize = new int[32];
+    private final Object lock = new Object();
+
+    private long[] address;
+    private int[] mask;
+    private int[] size;
+
+    /**
+     * @param directory where to put the mapped files, they are deleted by
+     *                  {@link #close()}
+     * @param vertices  the number of vertices
+     */
+    public MappedPropinquityStore(File directory, int vertices) {
+        this(directory, vertices, DEFAULT_SEGMENT_SHIFT);
+    }
+
+    /**
+     * @param directory    where to put the mapped files, they are deleted by
+     *                     {@link #close()}
+     * @param vertices     the number of vertices
+     * @param segmentShift log2 of the size of one mapped file in bytes, at
+     *                     most 30
+     */
+    public MappedPropinquityStore(File directory, int vertices, int segmentShift) {
+        this.directory = directory;
+        this.segmentShift = Math.min(segmentShift, 30);
+        this.segmentMask = (1L << this.segmentShift) - 1;
+        this.address = new long[vertices];
+        this.mask = new int[vertices];
+        this.size = new int[vertices];
+        Arrays.fill(this.address, -1);
+    }
+
+    private MappedByteBuffer segment(long address) {
+        return this.segments[(int) (address >>> this.segmentShift)];
+    }
+
+    private void map(int segment) {
+        try {
+            File file = File.createTempFile("pm-" + segment + "-", ".bin", this.directory);
+            file.deleteOnExit();
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(1L << this.segmentShift);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 1L << this.segmentShift);
+            buffer.order(ByteOrder.nativeOrder());
+
+            this.files = Arrays.copyOf(this.files, segment + 1);
+            this.files[segment] = raf;
+            this.names = Arrays.copyOf(this.names, segment + 1);
+            this.names[segment] = file;
+            MappedByteBuffer[] grown = Arrays.copyOf(this.segments, segment + 1);
+            grown[segment] = buffer;
+            this.segments = grown;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * @return the position of a zeroed bucket of the given slots
+     */
+    private long allocate(int slots) {
+        int log = Integer.numberOfTrailingZeros(slots);
+        long bytes = (long) slots * SLOT;
+        if (bytes > 1L << this.segmentShift) {
+            throw new IllegalStateException("A propinquity map of " + slots + " slots does not fit in a segment");
+        }
+
+        synchronized (this.lock) {
+            if (this.freeSize[log] > 0) {
+                return this.free[log][--this.freeSize[log]];
+            }
+
+            if ((this.top & this.segmentMask) + bytes > 1L << this.segmentShift) {
+                this.top = ((this.top >>> this.segmentShift) + 1) << this.segmentShift;
+            }
+            int segment = (int) (this.top >>> this.segmentShift);
+            if (segment >= this.segments.length) {
+                map(segment);
+            }
+            long position = this.top;
+            this.top += bytes;
+            return position;
+        }
+    }
+
+    /**
+     * Zero a bucket and keep it for the next map of its size.
+     */
+    private void recycle(long position, int slots) {
+        MappedByteBuffer segment = segment(position);
+        int offset = (int) (position & this.segmentMask);
+        for (int i = 0; i < slots; i++) {
+            segment.putLong(offset + i * SLOT, 0L);
+        }
+
+        int log = Integer.numberOfTrailingZeros(slots);
+        synchronized (this.lock) {
+            if (this.free[log] == null) {
+                this.free[log] = new long[16];
+            } else if (this.freeSize[log] == this.free[log].length) {
+                this.free[log] = Arrays.copyOf(this.free[log], this.freeSize[log] * 2);
+            }
+            this.free[log][this.freeSize[log]++] = position;
+        }
+    }
+
+    @Override
+    public void create(int v, int capacity) {
+        if (this.address[v] >= 0) {
+            release(v);
+        }
+        int slots = 2;
+        while (slots * LOAD_FACTOR < capacity) {
+            slots <<= 1;
+        }
+        this.address[v] = allocate(slots);
+        this.mask[v] = slots - 1;
+        this.size[v] = 0;
+    }
+
+    @Override
+    public void release(int v) {
+        if (this.address[v] >= 0) {
+            recycle(this.address[v], this.mask[v] + 1);
+            this.address[v] = -1;
+            this.size[v] = 0;
+        }
+    }
+
+    @Override
+    public void grow(int vertices) {
+        if (this.address.length < vertices) {
+            int old = this.address.length;
+            vertices = Math.max(vertices, old * 2);
+            this.address = Arrays.copyOf(this.address, vertices);
+            this.mask = Arrays.copyOf(this.mask, vertices);
+            this.size = Arrays.copyOf(this.size, vertices);
+            Arrays.fill(this.address, old, vertices, -1);
+        }
+    }
+
+    /**
+     * @return the byte offset of the slot of k in the segment of <b>v</b>,
+     *         or of the empty slot where it should be inserted
+     */
+    private int slot(MappedByteBuffer segment, int v, int k) {
+        int offset = (int) (this.address[v] & this.segmentMask);
+        int mask = this.mask[v];
+        int i = PropinquityMap.hash(k) & mask;
+        int stored;
+        while ((stored = segment.getInt(offset + i * SLOT)) != 0 && stored != k + 1) {
+            i = (i + 1) & mask;
+        }
+        return offset + i * SLOT;
+    }
+
+    /**
+     * Move the map of <b>v</b> to a bucket of the given slots.
+     */
+    private void relocate(int v, int slots) {
+        long oldAddress = this.address[v];
+        int oldSlots = this.mask[v] + 1;
+        MappedByteBuffer oldSegment = segment(oldAddress);
+        int oldOffset = (int) (oldAddress & this.segmentMask);
+
+        this.address[v] = allocate(slots);
+        this.mask[v] = slots - 1;
+        MappedByteBuffer segment = segment(this.address[v]);
+        for (int i = 0; i < oldSlots; i++) {
+            int stored = oldSegment.getInt(oldOffset + i * SLOT);
+            if (stored != 0) {
+                int s = slot(segment, v, stored - 1);
+                segment.putInt(s, stored);
+                segment.putInt(s + 4, oldSegment.getInt(oldOffset + i * SLOT + 4));
+            }
+        }
+        recycle(oldAddress, oldSlots);
+    }
+
+    @Override
+    public void add(int v, int k, int delta) {
+        MappedByteBuffer segment = segment(this.address[v]);
+        int s = slot(segment, v, k);
+        if (segment.getInt(s) != 0) {
+            segment.putInt(s + 4, segment.getInt(s + 4) + delta);
+            return;
+        }
+
+        if (this.size[v] + 1 > (this.mask[v] + 1) * LOAD_FACTOR) {
+            relocate(v, (this.mask[v] + 1) << 1);
+            segment = segment(this.address[v]);
+            s = slot(segment, v, k);
+        }
+        segment.putInt(s, k + 1);
+        segment.putInt(s + 4, delta);
+        this.size[v]++;
+    }
+
+    @Override
+    public void increase(int v, int k) {
+        add(v, k, 1);
+    }
+
+    @Override
+    public void decrease(int v, int k) {
+        add(v, k, -1);
+    }
+
+    @Override
+    public int get(int v, int k) {
+        MappedByteBuffer segment = segment(this.address[v]);
+        int s = slot(segment, v, k);
+        return segment.getInt(s) != 0 ? segment.getInt(s + 4) : 0;
+    }
+
+    @Override
+    public boolean containsKey(int v, int k) {
+        MappedByteBuffer segment = segment(this.address[v]);
+        return segment.getInt(slot(segment, v, k)) != 0;
+    }
+
+    /**
+     * Remove k, shifting back the pairs after it in its probe sequence.
+     */
+    @Override
+    public void remove(int v, int k) {
+        MappedByteBuffer segment = segment(this.address[v]);
+        int offset = (int) (this.address[v] & this.segmentMask);
+        int mask = this.mask[v];
+        int hole = (slot(segment, v, k) - offset) / SLOT;
+        if (segment.getInt(offset + hole * SLOT) == 0) {
+            return;
+        }
+
+        int i = (hole + 1) & mask;
+        int stored;
+        while ((stored = segment.getInt(offset + i * SLOT)) != 0) {
+            int home = PropinquityMap.hash(stored - 1) & mask;
+            // Move the pair if the hole is between its home slot and i
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                segment.putLong(offset + hole * SLOT, segment.getLong(offset + i * SLOT));
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        segment.putLong(offset + hole * SLOT, 0L);
+        this.size[v]--;
+    }
+
+    @Override
+    public void trim(int v) {
+        int slots = 2;
+        while (slots * LOAD_FACTOR < this.size[v]) {
+            slots <<= 1;
+        }
+        if (slots * 4 <= this.mask[v] + 1) {
+            relocate(v, slots);
+        }
+    }
+
+    @Override
+    public long bytes(int v) {
+        return (this.mask[v] + 1L) * SLOT;
+    }
+
+    @Override
+    public int size(int v) {
+        return this.size[v];
+    }
+
+    @Override
+    public Cursor cursor(final int v) {
+        final MappedByteBuffer segment = segment(this.address[v]);
+        final int offset = (int) (this.address[v] & this.segmentMask);
+        final int slots = this.mask[v] + 1;
+
+        return new Cursor() {
+            private int slot = -1;
+
+            @Override
+            public boolean next() {
+                while (++this.slot < slots) {
+                    if (segment.getInt(offset + this.slot * SLOT) != 0) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public int key() {
+                return segment.getInt(offset + this.slot * SLOT) - 1;
+            }
+
+            @Override
+            public int value() {
+                return segment.getInt(offset + this.slot * SLOT + 4);
+            }
+        };
+    }
+
+    /**
+     * @return a copy of the map of <b>v</b> on the heap
+     */
+    @Override
+    public PropinquityMap toMap(int v) {
+        PropinquityMap map = new PropinquityMap(this.size[v]);
+        Cursor row = cursor(v);
+        while (row.next()) {
+            map.add(row.key(), row.value());
+        }
+        return map;
+    }
+
+    /**
+     * @return the bytes taken by the mapped files
+     */
+    public long getMappedBytes() {
+        return (long) this.segments.length << this.segmentShift;
+    }
+
+    /**
+     * Close and delete the mapped files. The store must not be used after
+     * it.
+     */
+    @Override
+    public void close() {
+        synchronized (this.lock) {
+            for (int i = 0; i < this.files.length; i++) {
+                try {
+                    this.files[i].close();
+                } catch (IOException ex) {
+                    // The file is deleted on exit anyway
+                }
+                this.names[i].delete();
+            }
+            this.files = new RandomAccessFile[0];
+            this.names = new File[0];
+            this.segments = new MappedByteBuffer[0];
+            this.top = 0;
+        }
+    }
+}
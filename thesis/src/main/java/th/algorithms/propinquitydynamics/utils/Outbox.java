@@ -0,0 +1,19 @@
+package th.algorithms.propinquitydynamics.utils;
+
+/**
+ * Where a vertex program sends its propinquity updates (the PU messages of
+ * the paper) during a superstep.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public interface Outbox {
+
+    /**
+     * Add delta to the propinquity that <b>target</b> keeps for <b>key</b>.
+     *
+     * @param target the vertex that owns the propinquity map
+     * @param key    the other vertex of the pair
+     * @param delta  the change of the propinquity
+     */
+    void send(int target, int key, int delta);
+}
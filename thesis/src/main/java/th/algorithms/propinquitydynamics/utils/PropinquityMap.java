@@ -6,41 +6,242 @@
 
 package th.algorithms.propinquitydynamics.utils;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
 /**
+ * Map from a vertex index to the propinquity with it. It is an open
+ * addressing hash table (linear probing) on two primitive int arrays, so one
+ * pair costs 8 bytes and nothing is boxed. A key is never
+ * {@link Integer#MIN_VALUE}, that value marks the empty slots.
  *
  * @author Anastasis Andronidis <anastasis90@yahoo.gr>
  */
-public class PropinquityMap extends HashMap<Integer, MutableInt> {
-    private static final long serialVersionUID = 1L;
-    
+public class PropinquityMap {
+
+    private static final int EMPTY = Integer.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
     public PropinquityMap(int cap) {
-        super(cap);
+        int slots = 2;
+        while (slots * LOAD_FACTOR < cap) {
+            slots <<= 1;
+        }
+        allocate(slots);
+    }
+
+    private void allocate(int slots) {
+        this.keys = new int[slots];
+        this.values = new int[slots];
+        this.mask = slots - 1;
+        this.size = 0;
+        Arrays.fill(this.keys, EMPTY);
+    }
+
+    static int hash(int k) {
+        int h = k * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the slot of k or the empty slot where it should be inserted
+     */
+    private int slot(int k) {
+        int i = hash(k) & this.mask;
+        while (this.keys[i] != EMPTY && this.keys[i] != k) {
+            i = (i + 1) & this.mask;
+        }
+        return i;
+    }
+
+    private void grow() {
+        rehash(this.keys.length << 1);
+    }
+
+    private void rehash(int slots) {
+        int[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+
+        allocate(slots);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int s = slot(oldKeys[i]);
+                this.keys[s] = oldKeys[i];
+                this.values[s] = oldValues[i];
+                this.size++;
+            }
+        }
+    }
+
+    /**
+     * Add delta to the propinquity with k. A missing k counts as 0, so the
+     * first increase gives 1 and the first decrease gives -1.
+     *
+     * @param k     the vertex index
+     * @param delta the change of the propinquity
+     */
+    public void add(int k, int delta) {
+        int s = slot(k);
+        if (this.keys[s] == k) {
+            this.values[s] += delta;
+            return;
+        }
+
+        if (this.size + 1 > this.keys.length * LOAD_FACTOR) {
+            grow();
+            s = slot(k);
+        }
+        this.keys[s] = k;
+        this.values[s] = delta;
+        this.size++;
+    }
+
+    public void increase(int k) {
+        add(k, 1);
+    }
+
+    public void decrease(int k) {
+        // Go to -1 for first time.
+        add(k, -1);
+    }
+
+    /**
+     * @param k the vertex index
+     *
+     * @return the propinquity with k, 0 if there is none
+     */
+    public int get(int k) {
+        int s = slot(k);
+        return this.keys[s] == k ? this.values[s] : 0;
+    }
+
+    public int getInt(int k) {
+        return get(k);
     }
-    
-    public void increase(Integer k) {
-        MutableInt count = this.get(k);
-        if (count == null) {
-            this.put(k, new MutableInt());
-        } else {
-            count.increment();
+
+    public boolean containsKey(int k) {
+        return this.keys[slot(k)] == k;
+    }
+
+    /**
+     * Remove k. The pairs after it in its probe sequence are shifted back, so
+     * no tombstones are left behind.
+     *
+     * @param k the vertex index
+     */
+    public void remove(int k) {
+        int hole = slot(k);
+        if (this.keys[hole] != k) {
+            return;
+        }
+
+        int i = (hole + 1) & this.mask;
+        while (this.keys[i] != EMPTY) {
+            int home = hash(this.keys[i]) & this.mask;
+            // Move the pair if the hole is between its home slot and i
+            if (((i - home) & this.mask) >= ((i - hole) & this.mask)) {
+                this.keys[hole] = this.keys[i];
+                this.values[hole] = this.values[i];
+                hole = i;
+            }
+            i = (i + 1) & this.mask;
         }
+        this.keys[hole] = EMPTY;
+        this.size--;
     }
 
-    public void decrease(Integer k) {
-        MutableInt count = this.get(k);
-        if (count == null) {
-            // Go to -1 for first time.
-            MutableInt newV = new MutableInt().decrement().decrement();
-            this.put(k, newV);
-        } else {
-            count.decrement();
+    /**
+     * Shrink the table if it is much bigger than the pairs it holds.
+     */
+    public void trim() {
+        int slots = 2;
+        while (slots * LOAD_FACTOR < this.size) {
+            slots <<= 1;
+        }
+        if (slots * 4 <= this.keys.length) {
+            rehash(slots);
         }
     }
 
-    public Integer getInt(Integer k) {
-        return this.get(k).get();
+    /**
+     * @return the number of pairs the table has room for
+     */
+    public int capacity() {
+        return this.keys.length;
+    }
+
+    /**
+     * @return the number of vertices we have propinquity with
+     */
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * @return a cursor over all (key, propinquity) pairs of the map
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Walks over the pairs of the map without boxing them. The map must not
+     * get new keys while a cursor is in use.
+     * <pre>
+     * PropinquityMap.Cursor row = pm.cursor();
+     * while (row.next()) {
+     *     row.key(); row.value();
+     * }
+     * </pre>
+     */
+    public class Cursor implements PropinquityStore.Cursor {
+
+        private int slot = -1;
+
+        /**
+         * Move to the next pair.
+         *
+         * @return false if there are no more pairs
+         */
+        @Override
+        public boolean next() {
+            while (++this.slot < keys.length) {
+                if (keys[this.slot] != EMPTY) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int key() {
+            return keys[this.slot];
+        }
+
+        @Override
+        public int value() {
+            return values[this.slot];
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        Cursor row = cursor();
+        while (row.next()) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(row.key()).append('=').append(row.value());
+        }
+        return sb.append('}').toString();
     }
-    
 }
@@ -0,0 +1,103 @@
+package th.algorithms.propinquitydynamics.utils;
+
+/**
+ * The propinquity maps of all vertices. Every vertex has its own map from a
+ * vertex index to the propinquity with it, as in {@link PropinquityMap}. Two
+ * threads may use the store at the same time as long as they touch different
+ * vertices.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public interface PropinquityStore {
+
+    /**
+     * Give <b>v</b> an empty map.
+     *
+     * @param v        the vertex
+     * @param capacity the expected number of keys
+     */
+    void create(int v, int capacity);
+
+    /**
+     * Drop the map of <b>v</b>.
+     */
+    void release(int v);
+
+    /**
+     * Make room for the vertices 0 .. vertices - 1. It must not run during a
+     * superstep.
+     */
+    void grow(int vertices);
+
+    /**
+     * Add delta to the propinquity of <b>v</b> with k. A missing k counts as
+     * 0.
+     */
+    void add(int v, int k, int delta);
+
+    void increase(int v, int k);
+
+    void decrease(int v, int k);
+
+    /**
+     * @return the propinquity of <b>v</b> with k, 0 if there is none
+     */
+    int get(int v, int k);
+
+    boolean containsKey(int v, int k);
+
+    /**
+     * Remove k from the map of <b>v</b>.
+     */
+    void remove(int v, int k);
+
+    /**
+     * Give back the memory of the map of <b>v</b> if it is much bigger than
+     * its pairs.
+     */
+    void trim(int v);
+
+    /**
+     * @return the bytes the map of <b>v</b> takes, with its empty slots
+     */
+    long bytes(int v);
+
+    /**
+     * @return the number of vertices <b>v</b> has propinquity with
+     */
+    int size(int v);
+
+    /**
+     * @return a cursor over the (key, propinquity) pairs of <b>v</b>, the map
+     *         must not get new keys while it is in use
+     */
+    Cursor cursor(int v);
+
+    /**
+     * @return the map of <b>v</b> on the heap, to be stored as a node
+     *         attribute
+     */
+    PropinquityMap toMap(int v);
+
+    /**
+     * Free the resources of the store.
+     */
+    void close();
+
+    /**
+     * Walks over the pairs of one map without boxing them.
+     */
+    interface Cursor {
+
+        /**
+         * Move to the next pair.
+         *
+         * @return false if there are no more pairs
+         */
+        boolean next();
+
+        int key();
+
+        int value();
+    }
+}
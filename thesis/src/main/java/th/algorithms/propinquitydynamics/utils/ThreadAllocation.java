@@ -0,0 +1,48 @@
+package th.algorithms.propinquitydynamics.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * The bytes the current thread allocated on the heap, from the allocation
+ * counters of the HotSpot thread MXBean. The counters are cheap, they are read
+ * from the thread itself, but other JVMs may not have them.
+ *
+ * @author Anastasis Andronidis <anastasis90@yahoo.gr>
+ */
+public class ThreadAllocation {
+
+    private static final com.sun.management.ThreadMXBean THREADS;
+
+    static {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean hotspot = null;
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            hotspot = (com.sun.management.ThreadMXBean) threads;
+            if (!hotspot.isThreadAllocatedMemorySupported()) {
+                hotspot = null;
+            } else if (!hotspot.isThreadAllocatedMemoryEnabled()) {
+                hotspot.setThreadAllocatedMemoryEnabled(true);
+            }
+        }
+        THREADS = hotspot;
+    }
+
+    private ThreadAllocation() {
+    }
+
+    /**
+     * @return true if {@link #current()} counts anything
+     */
+    public static boolean isSupported() {
+        return THREADS != null;
+    }
+
+    /**
+     * @return the bytes the current thread allocated since it started, 0 if
+     *         the JVM does not count them
+     */
+    public static long current() {
+        return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
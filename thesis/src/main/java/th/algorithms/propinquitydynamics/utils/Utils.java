@@ -16,12 +16,49 @@ import org.graphstream.graph.Node;
  */
 public class Utils {
 
+    /**
+     * Read the propinquity of a pair from the map of its smaller end. It
+     * works both when every node keeps all of its pairs and when it keeps
+     * only the pairs with larger nodes (see
+     * {@link th.algorithms.propinquitydynamics.PropinquityDynamics#symmetricOn()}).
+     *
+     * @return the propinquity of u and v
+     */
+    public static int GetPropinquity(Node u, Node v) {
+        Node owner = u.getIndex() < v.getIndex() ? u : v;
+        Node other = owner == u ? v : u;
+        return ((PropinquityMap) owner.getAttribute("pm")).get(other.getIndex());
+    }
+
+    /**
+     * Collect all the pairs of a node, also the ones that are kept only by
+     * the nodes before it.
+     *
+     * @return a new map with the propinquity of n to every node
+     */
+    public static PropinquityMap GetPropinquityMap(Graph graph, Node n) {
+        PropinquityMap own = n.getAttribute("pm");
+        PropinquityMap all = new PropinquityMap(own.size() * 2);
+
+        PropinquityMap.Cursor row = own.cursor();
+        while (row.next()) {
+            all.add(row.key(), row.value());
+        }
+        for (int i = 0; i < n.getIndex(); i++) {
+            PropinquityMap pm = graph.getNode(i).getAttribute("pm");
+            if (!all.containsKey(i) && pm.containsKey(n.getIndex())) {
+                all.add(i, pm.get(n.getIndex()));
+            }
+        }
+        return all;
+    }
+
     public static void SetPDWeights(Graph graph, boolean graphics) {
         for (Edge edge : graph.getEachEdge()) {
             Node[] nodes = {edge.getNode0(), edge.getNode1()};
 
             // get the propinquity
-            double prop = ((PropinquityMap) nodes[0].getAttribute("pm")).get(nodes[1].getIndex()).get();
+            double prop = GetPropinquity(nodes[0], nodes[1]);
 
             if (graphics) {
                 edge.setAttribute("ui.label", String.format("%.2f", prop));
@@ -51,7 +88,7 @@ public class Utils {
             }
 
             // get the propinquity
-            int prop = ((PropinquityMap) nodes[0].getAttribute("pm")).get(nodes[1].getIndex()).get();
+            int prop = GetPropinquity(nodes[0], nodes[1]);
             double weight = (double) prop / (double) maxNumEdges;
 
             edge.setAttribute("ui.label", String.format("%.2f", weight));
@@ -73,7 +110,6 @@ public class Utils {
 
             int maxPropSum = 0;
             for (Node node : nodes) {
-                PropinquityMap pm = node.getAttribute("pm");
                 Set<Integer> Nr = node.getAttribute("Nr");
 
                 int propSum = 0;
@@ -81,7 +117,7 @@ public class Utils {
                     propSum = (Integer) node.getAttribute("NrSum");
                 } else {
                     for (Integer n : Nr) {
-                        propSum += pm.get(n).get();
+                        propSum += GetPropinquity(node, graph.getNode(n));
                     }
                     node.setAttribute("NrSum", propSum);
                 }
@@ -91,7 +127,7 @@ public class Utils {
                 }
             }
 
-            int prop = ((PropinquityMap) nodes[0].getAttribute("pm")).get(nodes[1].getIndex()).get();
+            int prop = GetPropinquity(nodes[0], nodes[1]);
             double weight = (double) prop / (double) maxPropSum;
 
             edge.setAttribute("ui.label", String.format("%.2f", weight));
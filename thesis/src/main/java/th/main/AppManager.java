@@ -7,6 +7,7 @@ import org.graphstream.graph.implementations.DefaultGraph;
 import org.graphstream.stream.GraphParseException;
 import org.graphstream.util.parser.ParseException;
 import th.algorithms.louvain.CommunityDetectionLouvain;
+import th.algorithms.propinquitydynamics.ConvergenceMonitor;
 import th.algorithms.propinquitydynamics.PropinquityDynamics;
 import static th.algorithms.propinquitydynamics.utils.Utils.FractionWithNumberOfEdges;
 import static th.algorithms.propinquitydynamics.utils.Utils.FractionWithTotalPropinquity;
@@ -100,15 +101,13 @@ public class AppManager {
 
         PropinquityDynamics pd = new PropinquityDynamics();
         pd.set(2, 20);
+        pd.frontierOn();
 
         pd.init(graph);
 
-        int i = 0;
-        // We need to be sure that we dont have an infinite loop
-        while (i < 100 && !pd.didAbsoluteConvergence()) {
-            pd.compute();
-            i++;
-        }
+        // Stop at the convergence, at a cycle, at a plateau or after 100 loops
+        ConvergenceMonitor monitor = pd.converge(100);
+        System.out.println(monitor);
         pd.applyFinalTopology();
 
         // Use our custom extraction algorithm to retrive internal communities
@@ -125,15 +124,13 @@ public class AppManager {
 
         PropinquityDynamics pd = new PropinquityDynamics();
         pd.set(2, 20);
+        pd.frontierOn();
 
         pd.init(graph);
 
-        int i = 0;
-        // We need to be sure that we dont have an infinite loop
-        while (i < 100 && !pd.didAbsoluteConvergence()) {
-            pd.compute();
-            i++;
-        }
+        // Stop at the convergence, at a cycle, at a plateau or after 100 loops
+        ConvergenceMonitor monitor = pd.converge(100);
+        System.out.println(monitor);
         pd.applyFinalTopology();
 
         // Set the edge weight to fractions
@@ -153,14 +150,12 @@ public class AppManager {
 
         PropinquityDynamics pd = new PropinquityDynamics();
         pd.set(2, 10);
+        pd.frontierOn();
         pd.init(graph);
 
-        int i = 0;
-        // We need to be sure that we dont have an infinite loop
-        while (i < 100 && !pd.didAbsoluteConvergence()) {
-            pd.compute();
-            i++;
-        }
+        // Stop at the convergence, at a cycle, at a plateau or after 100 loops
+        ConvergenceMonitor monitor = pd.converge(100);
+        System.out.println(monitor);
 
         pd.applyFinalTopology();
 
@@ -17,8 +17,9 @@ import org.graphstream.graph.Node;
 import org.graphstream.graph.implementations.DefaultGraph;
 import org.graphstream.stream.GraphParseException;
 import th.algorithms.propinquitydynamics.PropinquityDynamics;
-import th.algorithms.propinquitydynamics.utils.MutableInt;
 import th.algorithms.propinquitydynamics.utils.PropinquityMap;
+import static th.algorithms.propinquitydynamics.utils.Utils.GetPropinquity;
+import static th.algorithms.propinquitydynamics.utils.Utils.GetPropinquityMap;
 
 /**
  *
@@ -32,6 +33,7 @@ public class Statistics {
 
         int maxDegree = -1, minDegree = Integer.MAX_VALUE, asum = 0, bsum = 0, nutralsum = 0,
                 oneEdgeVertices = 0, largestNdList = 0, largestNiList = 0;
+        int[] NdListSize = new int[graph.getNodeCount()], NiListSize = new int[graph.getNodeCount()];
 
         for (Node n : graph) {
             // count graph degree
@@ -46,43 +48,47 @@ public class Statistics {
                 oneEdgeVertices++;
             }
 
-            // total PD distribution count
+            // Every pair is read once, from its smaller end, and counts for
+            // both ends. The pm may hold only the pairs with larger nodes.
             PropinquityMap pm = n.getAttribute("pm");
-            for (MutableInt i : pm.values()) {
-                if (totalPDstats.containsKey(i.get())) {
-                    totalPDstats.put(i.get(), totalPDstats.get(i.get()) + 1);
-                } else {
-                    totalPDstats.put(i.get(), 1);
+            Set<Integer> Nr = n.getAttribute("Nr");
+            PropinquityMap.Cursor row = pm.cursor();
+            while (row.next()) {
+                int nodeIndex = row.key();
+                int propinquity = row.value();
+                if (nodeIndex < n.getIndex()) {
+                    continue;
                 }
-            }
+                int ends = nodeIndex == n.getIndex() ? 1 : 2;
 
-            // count items that will be delete/stay/added
-            Set<Integer> Nr = n.getAttribute("Nr");
-            int NdListSize = 0, NiListSize = 0;
-            for (Entry<Integer, MutableInt> row : pm.entrySet()) {
-                Integer nodeIndex = row.getKey();
-                Integer propinquity = row.getValue().get();
+                // total PD distribution count
+                if (totalPDstats.containsKey(propinquity)) {
+                    totalPDstats.put(propinquity, totalPDstats.get(propinquity) + ends);
+                } else {
+                    totalPDstats.put(propinquity, ends);
+                }
 
+                // count items that will be delete/stay/added
                 if (propinquity <= a && Nr.contains(nodeIndex)) {
-                    Nr.remove(nodeIndex);
-                    asum++;
-                    NdListSize++;
+                    asum += ends;
+                    NdListSize[n.getIndex()]++;
+                    NdListSize[nodeIndex] += ends - 1;
                 } else if (propinquity >= b && !Nr.contains(nodeIndex)) {
-                    bsum++;
-                    NiListSize++;
+                    bsum += ends;
+                    NiListSize[n.getIndex()]++;
+                    NiListSize[nodeIndex] += ends - 1;
                 }
             }
-            if (NdListSize > largestNdList) {
-                largestNdList = NdListSize;
-            }
-            if (NiListSize > largestNiList) {
-                largestNiList = NiListSize;
-            }
             nutralsum += Nr.size();
         }
+        nutralsum -= asum;
+        for (int i = 0; i < NdListSize.length; i++) {
+            largestNdList = Math.max(largestNdList, NdListSize[i]);
+            largestNiList = Math.max(largestNiList, NiListSize[i]);
+        }
 
         for (Edge e : graph.getEachEdge()) {
-            int prop = ((PropinquityMap) e.getNode0().getAttribute("pm")).getInt(e.getNode1().getIndex());
+            int prop = GetPropinquity(e.getNode0(), e.getNode1());
             if (edgeWeights.containsKey(prop)) {
                 edgeWeights.put(prop, edgeWeights.get(prop) + 1);
             } else {
@@ -130,17 +136,21 @@ public class Statistics {
      * @throws java.io.UnsupportedEncodingException
      */
     public static void maxPDToAnyNode(Graph graph, String graphName) throws FileNotFoundException, UnsupportedEncodingException {
-        Map<Integer, Integer> maxPDPerNode = new TreeMap<Integer, Integer>();
+        // Every pair is read once, from its smaller end, for both ends
+        int[] localMaxPD = new int[graph.getNodeCount()];
         for (Node n : graph) {
-            Integer localMaxPD = 0;
             PropinquityMap pm = (PropinquityMap) n.getAttribute("pm");
-            for (Entry<Integer, MutableInt> row : pm.entrySet()) {
-                Integer pdValue = row.getValue().get();
-                if (pdValue > localMaxPD) {
-                    localMaxPD = pdValue;
+            PropinquityMap.Cursor row = pm.cursor();
+            while (row.next()) {
+                if (row.key() >= n.getIndex()) {
+                    localMaxPD[n.getIndex()] = Math.max(localMaxPD[n.getIndex()], row.value());
+                    localMaxPD[row.key()] = Math.max(localMaxPD[row.key()], row.value());
                 }
             }
-            maxPDPerNode.put(n.getIndex(), localMaxPD);
+        }
+        Map<Integer, Integer> maxPDPerNode = new TreeMap<Integer, Integer>();
+        for (Node n : graph) {
+            maxPDPerNode.put(n.getIndex(), localMaxPD[n.getIndex()]);
         }
         PrintWriter writer = new PrintWriter("../exports/" + graphName + "-maxPDToAnyNode.csv", "UTF-8");
         writer.println("node index,max propinquity value");
@@ -162,15 +172,12 @@ public class Statistics {
         Map<Integer, Integer> maxPDPerNeighbor = new TreeMap<Integer, Integer>();
         for (Node n : graph) {
             Integer localMaxPD = 0;
-            PropinquityMap pm = (PropinquityMap) n.getAttribute("pm");
             Iterator<Node> neighborNodeIterator = n.getNeighborNodeIterator();
             while (neighborNodeIterator.hasNext()) {
                 Node nn = neighborNodeIterator.next();
-                if (pm.containsKey(nn.getIndex())) {
-                    Integer pdValue = pm.get(nn.getIndex()).get();
-                    if (pdValue > localMaxPD) {
-                        localMaxPD = pdValue;
-                    }
+                Integer pdValue = GetPropinquity(n, nn);
+                if (pdValue > localMaxPD) {
+                    localMaxPD = pdValue;
                 }
             }
             maxPDPerNeighbor.put(n.getIndex(), localMaxPD);
@@ -193,7 +200,7 @@ public class Statistics {
 
             Node n = graph.getNode(id);
 
-            PropinquityMap pm = (PropinquityMap) n.getAttribute("pm");
+            PropinquityMap pm = GetPropinquityMap(graph, n);
 //            System.out.println("prop map: " + pm);
 //            System.out.println("neigbours: ");
             Iterator<Node> neighborNodeIterator = n.getNeighborNodeIterator();
@@ -211,16 +218,17 @@ public class Statistics {
             writer.println("node index,propinquity to any,propinquity to neighbor");
 
             int lala = 0;
-            for (Map.Entry<Integer, MutableInt> entry : pm.entrySet()) {
+            PropinquityMap.Cursor entry = pm.cursor();
+            while (entry.next()) {
 //                Iterator<String> attributeKeyIterator = graph.getNode(entry.getKey()).getAttributeKeyIterator();
 //                while (attributeKeyIterator.hasNext()) {
 //                    System.out.println(attributeKeyIterator.next());
 //                }
-                String name = graph.getNode(entry.getKey()).getAttribute("ui.label");
-                if (n.getEdgeBetween(entry.getKey()) == null) {
-                    writer.println(name + "," + entry.getValue().get() + ",0");
+                String name = graph.getNode(entry.key()).getAttribute("ui.label");
+                if (n.getEdgeBetween(entry.key()) == null) {
+                    writer.println(name + "," + entry.value() + ",0");
                 } else {
-                    writer.println(name + "," + entry.getValue().get() + "," + entry.getValue().get());
+                    writer.println(name + "," + entry.value() + "," + entry.value());
                 }
             }
             writer.close();